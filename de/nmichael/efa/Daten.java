@@ -386,6 +386,7 @@ public class Daten {
 		} else {
 			Logger.log(Logger.INFO, Logger.MSG_CORE_HALT, International.getString("PROGRAMMENDE"));
 		}
+		Logger.flush();
 		if (program != null) {
 			program.exit(exitCode);
 		} else {
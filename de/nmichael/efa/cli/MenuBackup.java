@@ -30,7 +30,7 @@ public class MenuBackup extends MenuBase {
     }
 
     public void printHelpContext() {
-        printUsage(CMD_BACKUP,  "[project|config|all] [directory/file]", "create backup");
+        printUsage(CMD_BACKUP,  "[-incremental] [project|config|all] [directory/file]", "create backup");
         printUsage(CMD_RESTORE, "<zipfile> [objects...]", "restore backup");
         printUsage(CMD_SHOW,    "<zipfile>", "show archive content");
     }
@@ -40,6 +40,9 @@ public class MenuBackup extends MenuBase {
             cli.logerr("You don't have permission to access this function.");
             return CLI.RC_NO_PERMISSION;
         }
+        boolean incremental = args != null &&
+                (" " + args.toLowerCase() + " ").indexOf(" -incremental ") >= 0;
+        args = removeOptionsFromArgs(args);
         Vector<String> options = super.getCommandOptions(args);
         if (options == null || options.size() < 1 || options.size() > 2) {
             printHelpContext();
@@ -96,6 +99,7 @@ public class MenuBackup extends MenuBase {
         Backup backup = (backupEmail == null ?
             new Backup(backupDir, backupFile, backupProject, backupConfig) :
             new Backup(Daten.efaTmpDirectory, null, backupEmail, backupProject, backupConfig) );
+        backup.setIncremental(incremental && backupEmail == null);
         int ret = backup.runBackup(null);
         if (ret > 0) {
             return CLI.RC_COMMAND_COMPLETED_WITH_ERRORS;
@@ -13,19 +13,46 @@ package de.nmichael.efa.cli;
 import de.nmichael.efa.data.*;
 import de.nmichael.efa.data.storage.*;
 import de.nmichael.efa.util.Logger;
+import de.nmichael.efa.util.Metrics;
 import java.util.Stack;
 
 public class MenuStatus extends MenuData {
 
+    public static final String CMD_METRICS = "metrics";
+
     public MenuStatus(CLI cli) {
         super(cli);
         this.storageObject = cli.getPersistence(Status.class, Project.STORAGEOBJECT_STATUS, Status.DATATYPE);
         this.storageObjectDescription = "status";
     }
 
+    public void printHelpContext() {
+        super.printHelpContext();
+        printUsage(CMD_METRICS, "[reset]", "show runtime metrics");
+    }
+
+    private int metrics(String args) {
+        if (args != null && args.trim().equalsIgnoreCase("reset")) {
+            Metrics.reset();
+            cli.loginfo("metrics reset.");
+            return CLI.RC_OK;
+        }
+        String[] lines = Metrics.getMetricsAsSimpleArray();
+        for (String line : lines) {
+            cli.loginfo(line);
+        }
+        if (lines.length == 0) {
+            cli.loginfo("no metrics recorded.");
+        }
+        return CLI.RC_OK;
+    }
+
     public int runCommand(Stack<String> menuStack, String cmd, String args) {
         int ret = super.runCommand(menuStack, cmd, args);
         if (ret < 0) {
+            if (cmd.equalsIgnoreCase(CMD_METRICS)) {
+                return metrics(args);
+            }
             return CLI.RC_UNKNOWN_COMMAND;
         } else {
             return ret;
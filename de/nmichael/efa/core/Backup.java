@@ -26,10 +26,20 @@ import de.nmichael.efa.util.LogString;
 import de.nmichael.efa.util.Logger;
 import de.nmichael.efa.util.ProgressTask;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -50,6 +60,8 @@ public class Backup {
     private String backupEmail;
     private boolean backupProject;
     private boolean backupConfig;
+    private boolean incremental;
+    private BackupMetaData previousBackupMetaData;
     private String zipFile;
     private String lastErrorMsg;
     private BackupTask backupTask;
@@ -57,6 +69,7 @@ public class Backup {
     private String[] restoreObjects;
     private Mode mode;
     private boolean openOrCreateProjectForRestore;
+    private Hashtable<String, ZipFile> referencedArchives = new Hashtable<String, ZipFile>();
     private int totalWork = 0;
     private int totalWorkDone = 0;
     private StringBuilder msgOut = new StringBuilder();
@@ -94,6 +107,16 @@ public class Backup {
         return mode;
     }
 
+    /**
+     * Incremental backups only contain storage objects which have changed since
+     * the previous backup in the same directory; for all others, the meta data
+     * refers to the archive which contains their data. Such archives must
+     * therefore be kept as long as backups referring to them are needed.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
     private void getCurrentProjectInfo() {
         if (Daten.project == null) {
             currentProjectDataAccess = null;
@@ -108,33 +131,110 @@ public class Backup {
         }
     }
 
+    // Serializes a storage object into a buffer (or finds out that it is
+    // unchanged since the previous backup, if this backup is incremental)
+    private class BackupBuffer implements Callable<BackupBuffer> {
+
+        private IDataAccess data;
+        private String dir;
+        private BackupMetaDataItem meta;
+        private ByteArrayOutputStream buf;
+
+        BackupBuffer(IDataAccess data, String dir) {
+            this.data = data;
+            this.dir = dir;
+        }
+
+        public BackupBuffer call() throws Exception {
+            if (!data.isStorageObjectOpen()) {
+                data.openStorageObject();
+            }
+            String zipFileEntry = data.getZipFileEntryName(dir);
+            BackupMetaDataItem prev = (previousBackupMetaData != null ?
+                previousBackupMetaData.getItem(data.getStorageObjectName() + "." + data.getStorageObjectType()) : null);
+            if (prev != null && prev.getScn() == data.getSCN() &&
+                prev.getNumberOfRecords() == data.getNumberOfRecords()) {
+                meta = new BackupMetaDataItem(prev.getName(), prev.getType(), prev.getFileName(),
+                        data.getStorageObjectDescription(), prev.getNumberOfRecords(), prev.getScn());
+                meta.setArchive(prev.getArchive() != null ? prev.getArchive() :
+                    new File(previousBackupMetaData.getZipFileName()).getName());
+                return this;
+            }
+            buf = new ByteArrayOutputStream();
+            meta = data.saveToStream(zipFileEntry, buf);
+            return this;
+        }
+    }
+
+    // Storage objects are serialized in parallel into buffers, while the
+    // buffers are written (and compressed) in order into the ZIP archive. At most
+    // one buffer per thread is kept ahead of the one currently written.
     private int backupStorageObjects(IDataAccess[] dataAccesses,
             ZipOutputStream zipOut, String dir) {
         int successful = 0;
-        for (IDataAccess data : dataAccesses) {
-            try {
-                if (!data.isStorageObjectOpen()) {
-                    data.openStorageObject();
+        int threads = Math.max(1, Math.min(dataAccesses.length,
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            LinkedList<Future<BackupBuffer>> pending = new LinkedList<Future<BackupBuffer>>();
+            int next = 0;
+            for (int i = 0; i < dataAccesses.length; i++) {
+                while (next < dataAccesses.length && next <= i + threads) {
+                    pending.add(executor.submit(new BackupBuffer(dataAccesses[next++], dir)));
                 }
-                BackupMetaDataItem meta = data.saveToZipFile(dir, zipOut);
-                backupMetaData.addMetaDataItem(meta);
-                successful++;
-                logMsg(Logger.INFO, Logger.MSG_BACKUP_BACKUPINFO,
-                        LogString.fileSuccessfullyArchived(data.getUID(),
-                        data.getStorageObjectDescription()));
-            } catch (Exception e) {
-                logMsg(Logger.ERROR, Logger.MSG_BACKUP_BACKUPERROR,
-                        LogString.fileArchivingFailed(data.getUID(),
-                        data.getStorageObjectDescription(), e.toString()));
-                Logger.logdebug(e);
-            }
-            if (backupTask != null) {
-                backupTask.setCurrentWorkDone(++totalWorkDone);
+                IDataAccess data = dataAccesses[i];
+                try {
+                    BackupBuffer b = pending.removeFirst().get();
+                    if (b.buf != null) {
+                        zipOut.putNextEntry(new ZipEntry(b.meta.getFileName()));
+                        b.buf.writeTo(zipOut);
+                    }
+                    backupMetaData.addMetaDataItem(b.meta);
+                    successful++;
+                    logMsg(Logger.INFO, Logger.MSG_BACKUP_BACKUPINFO,
+                            LogString.fileSuccessfullyArchived(data.getUID(),
+                            data.getStorageObjectDescription()) +
+                            (b.meta.getArchive() != null ? " [" + b.meta.getArchive() + "]" : ""));
+                } catch (Exception e) {
+                    Exception cause = (e instanceof ExecutionException && e.getCause() instanceof Exception ?
+                        (Exception) e.getCause() : e);
+                    logMsg(Logger.ERROR, Logger.MSG_BACKUP_BACKUPERROR,
+                            LogString.fileArchivingFailed((data != null ? data.getUID() : "null"),
+                            (data != null ? data.getStorageObjectDescription() : "null"), cause.toString()));
+                    Logger.logdebug(cause);
+                }
+                workDone();
             }
+        } finally {
+            executor.shutdownNow();
         }
         return successful;
     }
 
+    // Returns the meta data of the most recent backup of the same project in backupDir
+    private BackupMetaData getPreviousBackupMetaData() {
+        String[] files = new File(backupDir.length() > 0 ? backupDir : ".").list();
+        if (files == null) {
+            return null;
+        }
+        Arrays.sort(files);
+        for (int i = files.length - 1; i >= 0; i--) {
+            if (!files[i].startsWith("efaBackup_") || !files[i].endsWith(".zip") ||
+                (backupDir + files[i]).equals(zipFile)) {
+                continue;
+            }
+            BackupMetaData meta = new BackupMetaData(null);
+            if (meta.read(backupDir + files[i])) {
+                String pName = (backupProject ? currentProjectName : null);
+                if ((pName == null && meta.getProjectName() == null) ||
+                    (pName != null && pName.equals(meta.getProjectName()))) {
+                    return meta;
+                }
+            }
+        }
+        return null;
+    }
+
     public static boolean isProjectDataAccess(String type) {
         return !type.equals(EfaConfig.DATATYPE) &&
                !type.equals(Admins.DATATYPE) &&
@@ -188,6 +288,9 @@ public class Backup {
                 International.getMessage("Wiederherstellung von {description} '{name}' ...",
                 meta.getDescription(), meta.getNameAndType()));
         try {
+            if (meta.getArchive() != null) {
+                zip = getReferencedArchive(meta.getArchive());
+            }
             ZipEntry entry = zip.getEntry(meta.getFileName());
             if (entry == null) {
                 entry = zip.getEntry(meta.getFileNameWithSlash()); // should never happen (only if backup.meta has been manipulated manually)
@@ -200,6 +303,7 @@ public class Backup {
                         LogString.fileRestoreFailed(meta.getFileName(),
                         meta.getNameAndType(),
                         "File not found in ZIP Archive"));
+                return false;
             }
             InputStream in = zip.getInputStream(entry);
 
@@ -255,9 +359,7 @@ public class Backup {
                     LogString.fileSuccessfullyRestored(meta.getNameAndType(),
                     meta.getDescription()) +
                     " [new SCN=" + dataAccess.getSCN() + ", Records=" + dataAccess.getNumberOfRecords() + "]");
-            if (backupTask != null) {
-                backupTask.setCurrentWorkDone(++totalWorkDone);
-            }
+            workDone();
         } catch (Exception e) {
             logMsg(Logger.ERROR, Logger.MSG_BACKUP_RESTOREERROR,
                     LogString.fileRestoreFailed(meta.getNameAndType(),
@@ -308,6 +410,11 @@ public class Backup {
                 backupFile = backupName + ".zip";
             }
             zipFile = backupDir + backupFile;
+            previousBackupMetaData = (incremental ? getPreviousBackupMetaData() : null);
+            if (previousBackupMetaData != null) {
+                logMsg(Logger.INFO, Logger.MSG_BACKUP_BACKUPINFO,
+                        "Incremental backup based on " + previousBackupMetaData.getZipFileName());
+            }
 
             FileOutputStream outFile = new FileOutputStream(zipFile);
             ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(outFile));
@@ -407,14 +514,11 @@ public class Backup {
                         zipFile));
 
             ZipFile zip = new ZipFile(zipFile);
+            ArrayList<BackupMetaDataItem> items = new ArrayList<BackupMetaDataItem>();
             if (restoreObjects == null || restoreObjects.length == 0) {
                 totalWork = backupMetaData.size();
                 for (int i=0; i<backupMetaData.size(); i++) {
-                    if (restoreStorageObject(backupMetaData.getItem(i), isRemoteProject, zip)) {
-                        successful++;
-                    } else {
-                        errors++;
-                    }
+                    items.add(backupMetaData.getItem(i));
                 }
             } else {
                 totalWork = restoreObjects.length;
@@ -429,12 +533,7 @@ public class Backup {
                         continue; // this object was not selected to be restored
                     }
                     restoreObjectsHash.remove(meta.getNameAndType());
-                    if (restoreStorageObject(meta,
-                            isRemoteProject, zip)) {
-                        successful++;
-                    } else {
-                        errors++;
-                    }
+                    items.add(meta);
                 }
                 // if there were objects selected that we have not restored, print an error
                 if (restoreObjectsHash.size() > 0) {
@@ -448,6 +547,14 @@ public class Backup {
                     }
                 }
             }
+            int cnt = restoreStorageObjects(items, isRemoteProject, zip);
+            successful += cnt;
+            errors += items.size() - cnt;
+            zip.close();
+            for (ZipFile z : referencedArchives.values()) {
+                z.close();
+            }
+            referencedArchives.clear();
 
             logMsg(Logger.INFO, Logger.MSG_BACKUP_RESTOREFINISHEDINFO,
                     International.getMessage("{n} Objekte wiederhergestellt.",
@@ -483,6 +590,54 @@ public class Backup {
         return errors;
     }
 
+    // Restores the first object on its own (it may open or create the project, and
+    // is usually the project itself), and all other objects in parallel.
+    private int restoreStorageObjects(ArrayList<BackupMetaDataItem> items,
+            final boolean isRemoteProject, final ZipFile zip) throws Exception {
+        int successful = 0;
+        if (items.isEmpty()) {
+            return successful;
+        }
+        if (restoreStorageObject(items.get(0), isRemoteProject, zip)) {
+            successful++;
+        }
+        if (items.size() == 1) {
+            return successful;
+        }
+        int threads = Math.max(1, Math.min(items.size() - 1,
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+            for (int i = 1; i < items.size(); i++) {
+                final BackupMetaDataItem meta = items.get(i);
+                tasks.add(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return restoreStorageObject(meta, isRemoteProject, zip);
+                    }
+                });
+            }
+            for (Future<Boolean> f : executor.invokeAll(tasks)) {
+                if (f.get()) {
+                    successful++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return successful;
+    }
+
+    private synchronized ZipFile getReferencedArchive(String archive) throws Exception {
+        ZipFile zip = referencedArchives.get(archive);
+        if (zip == null) {
+            File f = new File(new File(zipFile).getAbsoluteFile().getParentFile(), archive);
+            zip = new ZipFile(f);
+            referencedArchives.put(archive, zip);
+        }
+        return zip;
+    }
+
     private void openOrCreateProject(String newProjectName) {
         try {
             // close project, if a wrong project is open
@@ -535,7 +690,14 @@ public class Backup {
         return zipFile;
     }
 
-    private void logMsg(String type, String key, String msg) {
+    private synchronized void workDone() {
+        totalWorkDone++;
+        if (backupTask != null) {
+            backupTask.setCurrentWorkDone(totalWorkDone);
+        }
+    }
+
+    private synchronized void logMsg(String type, String key, String msg) {
         Logger.log(type, key, msg);
         if (backupTask != null && !type.equals(Logger.DEBUG)) {
             backupTask.logInfo(msg + "\n");
@@ -37,6 +37,7 @@ public class BackupMetaData extends XMLWriter {
     public static final String FIELD_DESCRIPTION = "Description";
     public static final String FIELD_RECORDS     = "Records";
     public static final String FIELD_SCN         = "Scn";
+    public static final String FIELD_ARCHIVE     = "Archive";
 
     private ArrayList<BackupMetaDataItem> data = new ArrayList<BackupMetaDataItem>();
     private String zipFileName;
@@ -123,6 +124,9 @@ public class BackupMetaData extends XMLWriter {
                 xmltag(FIELD_DESCRIPTION, object.getDescription());
                 xmltag(FIELD_RECORDS, Long.toString(object.getNumberOfRecords()));
                 xmltag(FIELD_SCN, Long.toString(object.getScn()));
+                if (object.getArchive() != null) {
+                    xmltag(FIELD_ARCHIVE, object.getArchive());
+                }
                 xmltagEnd(FIELD_OBJECT);
             }
             xmltagEnd(FIELD_GLOBAL);
@@ -208,6 +212,9 @@ class BackupMetaDataParser extends XmlHandler {
             if (localName.equals(BackupMetaData.FIELD_SCN)) {
                 item.setScn(Long.parseLong(getFieldValue()));
             }
+            if (localName.equals(BackupMetaData.FIELD_ARCHIVE)) {
+                item.setArchive(getFieldValue());
+            }
         }
     }
 
@@ -23,6 +23,7 @@ public class BackupMetaDataItem {
     private String description;
     private long records;
     private long scn;
+    private String archive; // archive containing the data, if not this one (incremental backups)
 
     public BackupMetaDataItem() {
     }
@@ -61,6 +62,10 @@ public class BackupMetaDataItem {
         this.records = records;
     }
 
+    public void setArchive(String archive) {
+        this.archive = archive;
+    }
+
     public String getName() {
         return name;
     }
@@ -104,4 +109,13 @@ public class BackupMetaDataItem {
     public long getNumberOfRecords() {
         return records;
     }
+
+    /**
+     * Returns the file name (without path) of the archive in the same directory
+     * which contains the data of this object, or null if the data is contained
+     * in the archive of this meta data itself.
+     */
+    public String getArchive() {
+        return archive;
+    }
 }
@@ -209,6 +209,7 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 	private ItemTypeStringList defaultDistanceUnit;
 	private ItemTypeStringList dateFormat;
 	private ItemTypeBoolean debugLogging;
+	private ItemTypeBoolean debugAsyncLogging;
 	private ItemTypeString traceTopic;
 	private ItemTypeInteger traceLevel;
 	private ItemTypeLong efaVersionLastCheck;
@@ -394,6 +395,8 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 	private ItemTypeLong dataFileSaveInterval;
 	private ItemTypeLong dataFileLockTimeout;
 	private ItemTypeBoolean dataFileSynchronousJournal;
+	private ItemTypeBoolean dataFileIncrementalSave;
+	private ItemTypeBoolean dataFileParallelOpen;
 	private ItemTypeFile dataBackupDirectory;
 	private ItemTypeFile dataMirrorDirectory;
 	private ItemTypeBoolean dataRemoteEfaServerEnabled;
@@ -628,6 +631,9 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 					BaseTabbedDialog.makeCategory(CATEGORY_COMMON), International.getString("Trace-Topic")));
 			addParameter(traceLevel = new ItemTypeInteger("DebugTraceLevel", 1, 1, 9, IItemType.TYPE_EXPERT,
 					BaseTabbedDialog.makeCategory(CATEGORY_COMMON), International.getString("Trace-Level")));
+			addParameter(debugAsyncLogging = new ItemTypeBoolean("DebugAsyncLogging", false, IItemType.TYPE_EXPERT,
+					BaseTabbedDialog.makeCategory(CATEGORY_COMMON),
+					International.getString("Logdatei asynchron schreiben")));
 
 			// ============================= COMMON:INPUT =============================
 			addHeader("efaCommonInputCommon", IItemType.TYPE_PUBLIC,
@@ -1784,6 +1790,12 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 			addParameter(dataFileSynchronousJournal = new ItemTypeBoolean("DataFileSynchronousJournal", true,
 					IItemType.TYPE_EXPERT, BaseTabbedDialog.makeCategory(CATEGORY_DATAACCESS, CATEGORY_DATAXML),
 					"Flush Journal synchronously"));
+			addParameter(dataFileIncrementalSave = new ItemTypeBoolean("DataFileIncrementalSave", false,
+					IItemType.TYPE_EXPERT, BaseTabbedDialog.makeCategory(CATEGORY_DATAACCESS, CATEGORY_DATAXML),
+					"Save only changed records (append to segment file)"));
+			addParameter(dataFileParallelOpen = new ItemTypeBoolean("DataFileParallelOpen", false,
+					IItemType.TYPE_EXPERT, BaseTabbedDialog.makeCategory(CATEGORY_DATAACCESS, CATEGORY_DATAXML),
+					"Open project data in parallel (rarely used data on demand)"));
 			addParameter(dataBackupDirectory = new ItemTypeFile("DataBackupDirectory", "",
 					International.getString("Backup-Verzeichnis"), International.getString("Verzeichnisse"), null,
 					ItemTypeFile.MODE_OPEN, ItemTypeFile.TYPE_DIR, IItemType.TYPE_PUBLIC,
@@ -2194,6 +2206,10 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 		return debugLogging.getValue();
 	}
 
+	public boolean getValueDebugAsyncLogging() {
+		return debugAsyncLogging.getValue();
+	}
+
 	public String getValueTraceTopic() {
 		return traceTopic.getValue();
 	}
@@ -2893,6 +2909,14 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 		return dataFileSynchronousJournal.getValue();
 	}
 
+	public boolean getValueDataFileIncrementalSave() {
+		return dataFileIncrementalSave.getValue();
+	}
+
+	public boolean getValueDataFileParallelOpen() {
+		return dataFileParallelOpen.getValue();
+	}
+
 	public String getValueDataBackupDirectory() {
 		return dataBackupDirectory.getValue();
 	}
@@ -3146,6 +3170,7 @@ public class EfaConfig extends StorageObject implements IItemFactory {
 		Logger.setDebugLogging(debugLogging.getValue(), false);
 		Logger.setTraceTopic(traceTopic.getValue(), false);
 		Logger.setTraceLevel(traceLevel.getValue(), false);
+		Logger.setAsyncLogging(debugAsyncLogging.getValue());
 
 		DataLocks.setLockTimeout(dataFileLockTimeout.getValue());
 
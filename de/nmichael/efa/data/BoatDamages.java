@@ -81,10 +81,11 @@ public class BoatDamages extends StorageObject {
                 return null;
             }
 
+            DataRecord[] records = data().get(keys); // remotely: a single round trip for all records
             Vector<BoatDamageRecord> damages = new Vector<BoatDamageRecord>();
             for (int severe=2; severe>=0; severe--) {
                 for (int i=0; i<keys.length; i++) {
-                    BoatDamageRecord r = (BoatDamageRecord)data().get(keys[i]);
+                    BoatDamageRecord r = (BoatDamageRecord)records[i];
                     if (!mostSevereFirst ||
                         (severe == 2 && BoatDamageRecord.SEVERITY_NOTUSEABLE.equals(r.getSeverity())) ||
                         (severe == 1 && BoatDamageRecord.SEVERITY_LIMITEDUSEABLE.equals(r.getSeverity())) ||
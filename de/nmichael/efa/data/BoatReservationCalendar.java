@@ -0,0 +1,172 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data;
+
+import java.util.*;
+
+import de.nmichael.efa.data.storage.DataKey;
+import de.nmichael.efa.data.storage.DataKeyIterator;
+import de.nmichael.efa.data.storage.IDataAccess;
+import de.nmichael.efa.data.types.DataTypeDate;
+
+// @i18n complete
+
+/**
+ * Calendar index of boat reservations: the keys of all reservations, sorted
+ * into buckets per day. Weekly and weekly limited reservations are put into a
+ * bucket for their day of week, one-time reservations into a bucket for each
+ * day they cover. One-time reservations covering more than MAX_DAYS days, and
+ * reservations with incomplete dates, are put into a bucket which is always
+ * included. Since the boat id is part of the key, reservations of a single boat
+ * can be filtered without reading any records.
+ * The buckets may contain more reservations than actually apply to a day (e.g.
+ * expired weekly limited reservations); callers have to check the records.
+ */
+class BoatReservationCalendar {
+
+    static final int MAX_DAYS = 31;
+
+    private static final String BUCKET_ALWAYS = "*";
+
+    private final Hashtable<String, LinkedHashSet<DataKey>> buckets = new Hashtable<String, LinkedHashSet<DataKey>>();
+    private final Hashtable<DataKey, String[]> bucketsOfKey = new Hashtable<DataKey, String[]>();
+    private long scn = -1;
+
+    /**
+     * Returns the keys of all reservations which may apply to any day between
+     * from and to (both inclusive), optionally only those of one boat.
+     * @return the keys, or null if the period is too long to be looked up in
+     * the calendar
+     */
+    synchronized DataKey[] getReservations(IDataAccess data, DataTypeDate from, DataTypeDate to,
+            UUID boatId) throws Exception {
+        if (from == null || to == null || !from.isSet() || !to.isSet() ||
+                from.getDifferenceDays(to) > MAX_DAYS) {
+            return null;
+        }
+        update(data);
+        LinkedHashSet<DataKey> keys = new LinkedHashSet<DataKey>();
+        addKeys(keys, BUCKET_ALWAYS, boatId);
+        DataTypeDate day = new DataTypeDate(from);
+        for (int i = 0; i <= MAX_DAYS && day.compareTo(to) <= 0; i++) {
+            addKeys(keys, getBucket(day), boatId);
+            if (i < 7) {
+                addKeys(keys, getBucket(day.getWeekdayAsEfaType()), boatId);
+            }
+            day.addDays(1);
+        }
+        return keys.toArray(new DataKey[0]);
+    }
+
+    private void addKeys(LinkedHashSet<DataKey> keys, String bucket, UUID boatId) {
+        LinkedHashSet<DataKey> b = buckets.get(bucket);
+        if (b == null) {
+            return;
+        }
+        for (DataKey k : b) {
+            if (boatId == null || boatId.equals(k.getKeyPart1())) {
+                keys.add(k);
+            }
+        }
+    }
+
+    // Brings the calendar up-to-date with the current SCN of the storage object. If the
+    // storage object knows which records have changed, only these are re-sorted into the
+    // buckets; otherwise, the calendar is rebuilt.
+    private void update(IDataAccess data) throws Exception {
+        long currentScn = data.getSCN();
+        if (currentScn == scn) {
+            return;
+        }
+        DataKey[] changedKeys = (scn >= 0 ? data.getChangesSince(scn) : null);
+        if (changedKeys != null) {
+            for (DataKey k : changedKeys) {
+                remove(k);
+                BoatReservationRecord r = (BoatReservationRecord) data.get(k);
+                if (r != null) {
+                    add(r);
+                }
+            }
+        } else {
+            buckets.clear();
+            bucketsOfKey.clear();
+            DataKeyIterator it = data.getStaticIterator();
+            for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+                BoatReservationRecord r = (BoatReservationRecord) data.get(k);
+                if (r != null) {
+                    add(r);
+                }
+            }
+        }
+        scn = currentScn;
+    }
+
+    private void add(BoatReservationRecord r) {
+        String[] bucketNames = getBuckets(r);
+        DataKey k = r.getKey();
+        for (String bucket : bucketNames) {
+            LinkedHashSet<DataKey> b = buckets.get(bucket);
+            if (b == null) {
+                b = new LinkedHashSet<DataKey>();
+                buckets.put(bucket, b);
+            }
+            b.add(k);
+        }
+        bucketsOfKey.put(k, bucketNames);
+    }
+
+    private void remove(DataKey k) {
+        String[] bucketNames = bucketsOfKey.remove(k);
+        for (int i = 0; bucketNames != null && i < bucketNames.length; i++) {
+            LinkedHashSet<DataKey> b = buckets.get(bucketNames[i]);
+            if (b != null) {
+                b.remove(k);
+                if (b.isEmpty()) {
+                    buckets.remove(bucketNames[i]);
+                }
+            }
+        }
+    }
+
+    private static String[] getBuckets(BoatReservationRecord r) {
+        String type = r.getType();
+        if (BoatReservationRecord.TYPE_WEEKLY.equals(type) ||
+            BoatReservationRecord.TYPE_WEEKLY_LIMITED.equals(type)) {
+            if (r.getDayOfWeek() != null) {
+                return new String[] { getBucket(r.getDayOfWeek()) };
+            }
+        }
+        if (BoatReservationRecord.TYPE_ONETIME.equals(type)) {
+            DataTypeDate from = r.getDateFrom();
+            DataTypeDate to = r.getDateTo();
+            if (from != null && to != null && from.isSet() && to.isSet() &&
+                from.compareTo(to) <= 0 && from.getDifferenceDays(to) <= MAX_DAYS) {
+                ArrayList<String> bucketNames = new ArrayList<String>();
+                DataTypeDate day = new DataTypeDate(from);
+                while (day.compareTo(to) <= 0) {
+                    bucketNames.add(getBucket(day));
+                    day.addDays(1);
+                }
+                return bucketNames.toArray(new String[0]);
+            }
+        }
+        return new String[] { BUCKET_ALWAYS };
+    }
+
+    private static String getBucket(DataTypeDate day) {
+        return "D" + (day.getYear() * 10000 + day.getMonth() * 100 + day.getDay());
+    }
+
+    private static String getBucket(String dayOfWeek) {
+        return "W" + dayOfWeek;
+    }
+
+}
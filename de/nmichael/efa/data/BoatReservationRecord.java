@@ -71,6 +71,7 @@ public class BoatReservationRecord extends DataRecord {
     public static final String CONTACT             = "Contact";
 
     public static final String[] IDX_BOATID = new String[] { BOATID };
+    public static final String[] IDX_BOATID_TYPE_DATETO = new String[] { BOATID, TYPE, DATETO };
 
     public static void initialize() {
         Vector<String> f = new Vector<String>();
@@ -94,6 +95,7 @@ public class BoatReservationRecord extends DataRecord {
         MetaData metaData = constructMetaData(BoatReservations.DATATYPE, f, t, false);
         metaData.setKey(new String[] { BOATID, RESERVATION });
         metaData.addIndex(IDX_BOATID);
+        metaData.addSortedIndex(IDX_BOATID_TYPE_DATETO);
     }
 
     public BoatReservationRecord(BoatReservations boatReservation, MetaData metaData) {
@@ -31,6 +31,8 @@ public class BoatReservations extends StorageObject {
 
     public static final String DATATYPE = "efa2boatreservations";
 
+    private final BoatReservationCalendar calendar = new BoatReservationCalendar();
+
     public BoatReservations(int storageType, 
             String storageLocation,
             String storageUsername,
@@ -85,9 +87,10 @@ public class BoatReservations extends StorageObject {
             if (keys == null || keys.length == 0) {
                 return null;
             }
+            DataRecord[] records = data().get(keys); // remotely: a single round trip for all records
             BoatReservationRecord[] recs = new BoatReservationRecord[keys.length];
             for (int i=0; i<keys.length; i++) {
-                recs[i] = (BoatReservationRecord)data().get(keys[i]);
+                recs[i] = (BoatReservationRecord)records[i];
             }
             return recs;
         } catch(Exception e) {
@@ -96,13 +99,78 @@ public class BoatReservations extends StorageObject {
         }
     }
 
+    // Returns all reservations of a boat which have not yet expired before today, using
+    // the sorted index: weekly reservations of any date, and one-time or limited weekly
+    // reservations ending today or later.
+    private BoatReservationRecord[] getBoatReservationsNotExpired(UUID boatId, long now) {
+        try {
+            DataTypeDate today = new DataTypeDate(now);
+            ArrayList<DataKey> keys = new ArrayList<DataKey>();
+            addKeys(keys, data().getByFieldsRange(BoatReservationRecord.IDX_BOATID_TYPE_DATETO,
+                    new Object[] { boatId, BoatReservationRecord.TYPE_WEEKLY, null },
+                    new Object[] { boatId, BoatReservationRecord.TYPE_WEEKLY, null }));
+            addKeys(keys, data().getByFieldsRange(BoatReservationRecord.IDX_BOATID_TYPE_DATETO,
+                    new Object[] { boatId, BoatReservationRecord.TYPE_ONETIME, today },
+                    new Object[] { boatId, BoatReservationRecord.TYPE_ONETIME, null }));
+            addKeys(keys, data().getByFieldsRange(BoatReservationRecord.IDX_BOATID_TYPE_DATETO,
+                    new Object[] { boatId, BoatReservationRecord.TYPE_WEEKLY_LIMITED, today },
+                    new Object[] { boatId, BoatReservationRecord.TYPE_WEEKLY_LIMITED, null }));
+            DataRecord[] records = data().get(keys.toArray(new DataKey[0]));
+            BoatReservationRecord[] recs = new BoatReservationRecord[records.length];
+            for (int i=0; i<recs.length; i++) {
+                recs[i] = (BoatReservationRecord)records[i];
+            }
+            return recs;
+        } catch(Exception e) {
+            Logger.logdebug(e);
+            return getBoatReservations(boatId);
+        }
+    }
+
+    /**
+     * Returns all reservations which may apply to any day between from and to (both
+     * inclusive), looked up in the reservation calendar. The result may contain
+     * reservations which don't actually apply (e.g. expired weekly limited reservations),
+     * so callers still have to check each reservation.
+     * @param boatId the boat, or null for reservations of all boats
+     * @return the reservations, or null if the period is too long for a calendar lookup
+     */
+    public BoatReservationRecord[] getReservations(DataTypeDate from, DataTypeDate to, UUID boatId) {
+        try {
+            DataKey[] keys = calendar.getReservations(data(), from, to, boatId);
+            if (keys == null) {
+                return null;
+            }
+            ArrayList<BoatReservationRecord> recs = new ArrayList<BoatReservationRecord>(keys.length);
+            for (DataRecord r : data().get(keys)) {
+                if (r != null) {
+                    recs.add((BoatReservationRecord)r);
+                }
+            }
+            return recs.toArray(new BoatReservationRecord[0]);
+        } catch(Exception e) {
+            Logger.logdebug(e);
+            return null;
+        }
+    }
+
+    private static void addKeys(ArrayList<DataKey> list, DataKey[] keys) {
+        for (int i=0; keys != null && i<keys.length; i++) {
+            list.add(keys[i]);
+        }
+    }
+
     public BoatReservationRecord[] getBoatReservations(UUID boatId, long now, long lookAheadMinutes) {
-        BoatReservationRecord[] reservations = getBoatReservations(boatId);
+        BoatReservationRecord[] reservations = getReservations(new DataTypeDate(now),
+                new DataTypeDate(now + lookAheadMinutes * 60 * 1000), boatId);
+        if (reservations == null) {
+            reservations = getBoatReservationsNotExpired(boatId, now);
+        }
 
         Vector<BoatReservationRecord> activeReservations = new Vector<BoatReservationRecord>();
         for (int i = 0; reservations != null && i < reservations.length; i++) {
             BoatReservationRecord r = reservations[i];
-            if (r.getReservationValidInMinutes(now, lookAheadMinutes) >= 0) {
+            if (r != null && r.getReservationValidInMinutes(now, lookAheadMinutes) >= 0) {
                 activeReservations.add(r);
             }
         }
@@ -199,7 +267,15 @@ public class BoatReservations extends StorageObject {
     public void checkOverlappingReservationsFor(DataRecord record) throws EfaModifyException {
     	
     	   BoatReservationRecord r = ((BoatReservationRecord)record);
-           BoatReservationRecord[] br = this.getBoatReservations(r.getBoatId());
+           // one-time reservations can only overlap with reservations on the days they cover;
+           // weekly reservations may overlap with one-time reservations on any date
+           BoatReservationRecord[] br = null;
+           if (BoatReservationRecord.TYPE_ONETIME.equals(r.getType())) {
+               br = this.getReservations(r.getDateFrom(), r.getDateTo(), r.getBoatId());
+           }
+           if (br == null) {
+               br = this.getBoatReservations(r.getBoatId());
+           }
            for (int i=0; br != null && i<br.length; i++) {
                // are reservations identical records? then ignore.
            	if (br[i].getReservation() == r.getReservation()) {
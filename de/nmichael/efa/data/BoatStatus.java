@@ -22,6 +22,14 @@ public class BoatStatus extends StorageObject {
 
     public static final String DATATYPE = "efa2boatstatus";
 
+    // materialized views for getBoats(): all boat status records as of viewScn, and for
+    // each combination of getBoats() parameters requested so far the matching records.
+    // Whether a boat is hidden or deleted is taken from Boats as of viewBoatsScn.
+    private final Hashtable<DataKey, BoatStatusRecord> viewRecords = new Hashtable<DataKey, BoatStatusRecord>();
+    private final Hashtable<String, TreeMap<DataKey, BoatStatusRecord>> views = new Hashtable<String, TreeMap<DataKey, BoatStatusRecord>>();
+    private long viewScn = -1;
+    private long viewBoatsScn = -1;
+
     public BoatStatus(int storageType, 
             String storageLocation,
             String storageUsername,
@@ -86,26 +94,22 @@ public class BoatStatus extends StorageObject {
                     "BoatStatus.getBoats(" + status + "," + getBoatsForLists + ") for boathouse=" + boathouseId);
             }
             Vector<BoatStatusRecord> v = new Vector<BoatStatusRecord>();
-            DataKeyIterator it = data().getStaticIterator();
-            DataKey k = it.getFirst();
-            while (k != null) {
-                BoatStatusRecord r = (BoatStatusRecord) data().get(k);
-                if (r != null && !r.getDeletedOrInvisible()) {
-                    if (Logger.isTraceOn(Logger.TT_GUI, 9)) {
-                        Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_BOATLISTS,
-                                "  Boat: " + r.getQualifiedName() + 
-                                " (boathouse " + r.getOnlyInBoathouseIdAsInt() + ": " +
-                                r.getOnlyInBoathouseId() + ")");
-                    }
-                    if (r.getOnlyInBoathouseIdAsInt() < 0
-                            || r.getOnlyInBoathouseIdAsInt() == boathouseId) {
-                        String s = (getBoatsForLists ? r.getShowInList() : r.getCurrentStatus());
-                        if (s != null && s.equals(status)) {
-                            v.add(r);
+            synchronized (views) {
+                updateViews();
+                String viewKey = status + "|" + getBoatsForLists + "|" + boathouseId;
+                TreeMap<DataKey, BoatStatusRecord> view = views.get(viewKey);
+                if (view == null) {
+                    view = new TreeMap<DataKey, BoatStatusRecord>();
+                    for (BoatStatusRecord r : viewRecords.values()) {
+                        if (isInView(r, status, getBoatsForLists, boathouseId)) {
+                            view.put(r.getKey(), r);
                         }
                     }
+                    views.put(viewKey, view);
+                }
+                for (BoatStatusRecord r : view.values()) {
+                    v.add((BoatStatusRecord) r.cloneRecord());
                 }
-                k = it.getNext();
             }
             return v;
         } catch (Exception e) {
@@ -114,6 +118,77 @@ public class BoatStatus extends StorageObject {
         }
     }
 
+    private static boolean isInView(BoatStatusRecord r, String status, boolean getBoatsForLists, int boathouseId) {
+        if (r.getDeletedOrInvisible()) {
+            return false;
+        }
+        if (Logger.isTraceOn(Logger.TT_GUI, 9)) {
+            Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_BOATLISTS,
+                    "  Boat: " + r.getQualifiedName() + 
+                    " (boathouse " + r.getOnlyInBoathouseIdAsInt() + ": " +
+                    r.getOnlyInBoathouseId() + ")");
+        }
+        if (r.getOnlyInBoathouseIdAsInt() < 0
+                || r.getOnlyInBoathouseIdAsInt() == boathouseId) {
+            String s = (getBoatsForLists ? r.getShowInList() : r.getCurrentStatus());
+            return s != null && s.equals(status);
+        }
+        return false;
+    }
+
+    // Brings the views up-to-date with the current SCN. If the storage object knows which
+    // records have changed since the views were last updated, only these records are
+    // re-read and re-sorted into the views; otherwise, all views are rebuilt.
+    // If Boats has changed, boats may have been hidden or deleted, so all views are rebuilt
+    // from the (still current) records.
+    // Must be called while holding the monitor of views.
+    private void updateViews() throws Exception {
+        long scn = data().getSCN();
+        Boats boats = getProject().getBoats(false);
+        long boatsScn = (boats != null ? boats.data().getSCN() : -1);
+        if (scn != viewScn) {
+            updateViewRecords(scn);
+        }
+        if (boatsScn != viewBoatsScn) {
+            views.clear();
+            viewBoatsScn = boatsScn;
+        }
+    }
+
+    private void updateViewRecords(long scn) throws Exception {
+        DataKey[] changedKeys = (viewScn >= 0 ? data().getChangesSince(viewScn) : null);
+        if (changedKeys != null) {
+            for (DataKey k : changedKeys) {
+                BoatStatusRecord r = (BoatStatusRecord) data().get(k);
+                for (String viewKey : views.keySet()) {
+                    TreeMap<DataKey, BoatStatusRecord> view = views.get(viewKey);
+                    view.remove(k);
+                    String[] viewParams = viewKey.split("\\|");
+                    if (r != null && isInView(r, viewParams[0], Boolean.parseBoolean(viewParams[1]),
+                            Integer.parseInt(viewParams[2]))) {
+                        view.put(k, r);
+                    }
+                }
+                if (r != null) {
+                    viewRecords.put(k, r);
+                } else {
+                    viewRecords.remove(k);
+                }
+            }
+        } else {
+            viewRecords.clear();
+            views.clear();
+            DataKeyIterator it = data().getStaticIterator();
+            for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+                BoatStatusRecord r = (BoatStatusRecord) data().get(k);
+                if (r != null) {
+                    viewRecords.put(k, r);
+                }
+            }
+        }
+        viewScn = scn;
+    }
+
     public boolean areBoatsOutOnTheWater() {
         Vector v = getBoats(BoatStatusRecord.STATUS_ONTHEWATER, true);
         return (v != null && v.size() > 0);
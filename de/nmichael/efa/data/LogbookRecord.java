@@ -132,6 +132,8 @@ public class LogbookRecord extends DataRecord {
     public static final int CREW_MAX = 24;
     public static final String WATERS_SEPARATORS = ",;+";
 
+    public static final String[] IDX_DATE = new String[] { DATE };
+
     // =========================================================================
     // Temporary Fields for Evaluation (not stored in the persistent record!)
     // =========================================================================
@@ -228,6 +230,7 @@ public class LogbookRecord extends DataRecord {
         f.add(OPEN);                t.add(IDataAccess.DATA_BOOLEAN);
         MetaData metaData = constructMetaData(Logbook.DATATYPE, f, t, false);
         metaData.setKey(new String[] { ENTRYID });
+        metaData.addSortedIndex(IDX_DATE);
     }
 
     public LogbookRecord(Logbook logbook, MetaData metaData) {
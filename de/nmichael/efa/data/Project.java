@@ -10,9 +10,14 @@ package de.nmichael.efa.data;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import de.nmichael.efa.Daten;
 import de.nmichael.efa.core.config.AdminRecord;
@@ -63,6 +68,11 @@ public class Project extends StorageObject {
     public static final String STORAGEOBJECT_MESSAGES = "messages";
     public static final String STORAGEOBJECT_EFACLOUDUSERS = "efacloudusers";
     private Hashtable<String, StorageObject> persistenceCache = new Hashtable<String, StorageObject>();
+    private final Hashtable<String, Object> persistenceLocks = new Hashtable<String, Object>();
+    // storage objects which are opened in the background or on first access (and
+    // then created if they don't exist yet, as openAllData() would have done)
+    private final Set<String> deferredStorageObjects = Collections.synchronizedSet(new HashSet<String>());
+    private volatile Thread openDeferredDataThread;
     protected IDataAccess remoteDataAccess; // used for ClubRecord and LogbookRecord, if TYPE_EFA_REMOTE
     private String myIdentifier = null;
     private String myBoathouseName = null;
@@ -140,7 +150,8 @@ public class Project extends StorageObject {
             Daten.project = p;
             p.openAllData();
             Audit auditTask = null;
-            if (p.getProjectStorageType() == IDataAccess.TYPE_FILE_XML && runAudit) {
+            if ((p.getProjectStorageType() == IDataAccess.TYPE_FILE_XML ||
+                 p.getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY) && runAudit) {
                 auditTask = new Audit(p);
             }
             if (p.getProjectStorageType() == IDataAccess.TYPE_EFA_REMOTE) {
@@ -370,6 +381,13 @@ public class Project extends StorageObject {
                 open(false);
             }
             getAutoIncrement(true);
+            if (Daten.efaConfig != null && Daten.efaConfig.getValueDataFileParallelOpen()) {
+                openAllDataParallel();
+                if (Logger.isTraceOn(Logger.TT_CORE, 3)) {
+                    Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_DATA, "All Project Data opened (in parallel).");
+                }
+                return true;
+            }
             getSessionGroups(true);
             getPersons(true);
             getStatus(true);
@@ -399,6 +417,126 @@ public class Project extends StorageObject {
         }
     }
 
+    // Opens all storage objects needed right after startup in parallel, and returns
+    // once all of them are open. Rarely used storage objects are opened afterwards in
+    // the background, or on first access if this happens earlier.
+    private void openAllDataParallel() throws Exception {
+        ArrayList<Callable<StorageObject>> tasks = new ArrayList<Callable<StorageObject>>();
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getSessionGroups(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getPersons(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getStatus(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getGroups(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getBoats(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getCrews(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getBoatStatus(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getBoatReservations(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getBoatDamages(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getDestinations(true);
+            }
+        });
+        tasks.add(new Callable<StorageObject>() {
+            public StorageObject call() {
+                return getWaters(true);
+            }
+        });
+        if (getProjectStorageType() == IDataAccess.TYPE_EFA_CLOUD) {
+            tasks.add(new Callable<StorageObject>() {
+                public StorageObject call() {
+                    return getEfaCloudUsers(true);
+                }
+            });
+        }
+        deferredStorageObjects.add(getPersistenceCacheKey(STORAGEOBJECT_FAHRTENABZEICHEN, Fahrtenabzeichen.DATATYPE));
+        deferredStorageObjects.add(getPersistenceCacheKey(STORAGEOBJECT_STATISTICS, Statistics.DATATYPE));
+        deferredStorageObjects.add(getPersistenceCacheKey(STORAGEOBJECT_MESSAGES, Messages.DATATYPE));
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tasks.size(), Runtime.getRuntime().availableProcessors() + 1));
+        try {
+            executor.invokeAll(tasks); // errors have already been logged by getPersistence()
+        } finally {
+            executor.shutdown();
+        }
+
+        Thread t = new Thread() {
+            public void run() {
+                if (!deferredStorageObjects.isEmpty() && Daten.project == Project.this && isOpen()) {
+                    getFahrtenabzeichen(true);
+                }
+                if (!deferredStorageObjects.isEmpty() && Daten.project == Project.this && isOpen()) {
+                    getStatistics(true);
+                }
+                if (!deferredStorageObjects.isEmpty() && Daten.project == Project.this && isOpen()) {
+                    getMessages(true);
+                }
+            }
+        };
+        t.setName("OpenDeferredData");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        openDeferredDataThread = t;
+        t.start();
+    }
+
+    // stops opening deferred storage objects in the background and waits until a storage
+    // object which is being opened right now is open, so that it will be closed as well
+    private void stopOpenDeferredData() {
+        deferredStorageObjects.clear();
+        Thread t = openDeferredDataThread;
+        openDeferredDataThread = null;
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Logger.logdebug(e);
+            }
+        }
+    }
+
+    // persistenceCache may be modified concurrently by the OpenDeferredData thread, so
+    // callers iterate over a snapshot
+    private StorageObject[] getCachedStorageObjects() {
+        return persistenceCache.values().toArray(new StorageObject[0]);
+    }
+
     public boolean isInOpeningProject() {
         return _inOpeningProject;
     }
@@ -429,7 +567,8 @@ public class Project extends StorageObject {
 
             setPreModifyRecordCallbackEnabled(false);
             _inDeleteProject = true;
-            if (getProjectStorageType() == IDataAccess.TYPE_FILE_XML) {
+            if (getProjectStorageType() == IDataAccess.TYPE_FILE_XML ||
+                getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY) {
                 String[] keys = persistenceCache.keySet().toArray(new String[0]);
                 for (String key : keys) {
                     StorageObject p = persistenceCache.get(key);
@@ -899,9 +1038,9 @@ public class Project extends StorageObject {
 
     public void closeAllStorageObjects() throws Exception {
         // close all of this project's storage objects
-        Set<String> keys = persistenceCache.keySet();
-        for (String key : keys) {
-            closePersistence(persistenceCache.get(key));
+        stopOpenDeferredData();
+        for (StorageObject p : getCachedStorageObjects()) {
+            closePersistence(p);
         }
         // Close the message queue to the efacloud server
         if ((getProjectStorageType() == IDataAccess.TYPE_EFA_CLOUD) && (TxRequestQueue.getInstance() != null)) {
@@ -919,7 +1058,9 @@ public class Project extends StorageObject {
         return getPersistence(c, storageObjectName, storageObjectType, createNewIfDoesntExist, description, false);
     }
 
-    private synchronized StorageObject getPersistence(Class c, String storageObjectName, String storageObjectType,
+    // Storage objects are opened while holding a lock for this storage object only, so
+    // that different storage objects can be opened in parallel.
+    private StorageObject getPersistence(Class c, String storageObjectName, String storageObjectType,
             boolean createNewIfDoesntExist, String description, boolean silent) {
         if (_inDeleteProject) {
             return null;
@@ -930,9 +1071,32 @@ public class Project extends StorageObject {
                     + "Persistence for "
                     + storageObjectName + "." + storageObjectType + " ...");
         }
+        String key = getPersistenceCacheKey(storageObjectName, storageObjectType);
+        StorageObject p = persistenceCache.get(key);
+        if (p != null && p.isOpen()) {
+            return p;
+        }
+        Object lock;
+        synchronized (persistenceLocks) {
+            lock = persistenceLocks.get(key);
+            if (lock == null) {
+                lock = new Object();
+                persistenceLocks.put(key, lock);
+            }
+        }
+        synchronized (lock) {
+            if (deferredStorageObjects.remove(key)) {
+                createNewIfDoesntExist = true;
+            }
+            return getPersistence(c, key, storageObjectName, storageObjectType,
+                    createNewIfDoesntExist, description, silent);
+        }
+    }
+
+    private StorageObject getPersistence(Class c, String key, String storageObjectName, String storageObjectType,
+            boolean createNewIfDoesntExist, String description, boolean silent) {
         StorageObject p = null;
         try {
-            String key = getPersistenceCacheKey(storageObjectName, storageObjectType);
             p = persistenceCache.get(key);
             if (p != null) {
                 if (!p.isOpen()) {
@@ -1869,6 +2033,7 @@ public class Project extends StorageObject {
     // set the storageLocation for this project's content
     public void setProjectStorageLocation(String storageLocation) {
         if (getProjectStorageType() == IDataAccess.TYPE_FILE_XML ||
+            getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY ||
             getProjectStorageType() == IDataAccess.TYPE_EFA_CLOUD) {
             // for file-based projects: storageLocation of content is always relative to this project file!
             storageLocation = null;
@@ -2006,6 +2171,8 @@ public class Project extends StorageObject {
         switch (getProjectStorageType()) {
             case IDataAccess.TYPE_FILE_XML:
                 return IDataAccess.TYPESTRING_FILE_XML;
+            case IDataAccess.TYPE_FILE_BINARY:
+                return IDataAccess.TYPESTRING_FILE_BINARY;
             case IDataAccess.TYPE_EFA_REMOTE:
                 return IDataAccess.TYPESTRING_EFA_REMOTE;
             case IDataAccess.TYPE_EFA_CLOUD:
@@ -2016,7 +2183,8 @@ public class Project extends StorageObject {
 
     // get the storageLocation for this project's content
     public String getProjectStorageLocation() {
-        if (getProjectStorageType() == IDataAccess.TYPE_FILE_XML) {
+        if (getProjectStorageType() == IDataAccess.TYPE_FILE_XML ||
+            getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY) {
             // for file-based projects: storageLocation of content is always relative to this project file!
             return dataAccess.getStorageLocation() + getProjectName() + Daten.fileSep;
         }
@@ -2244,9 +2412,8 @@ public class Project extends StorageObject {
 
     public synchronized void setPreModifyRecordCallbackEnabled(boolean enabled) {
         this.data().setPreModifyRecordCallbackEnabled(enabled);
-        Set<String> keys = persistenceCache.keySet();
-        for (String key : keys) {
-            persistenceCache.get(key).data().setPreModifyRecordCallbackEnabled(enabled);
+        for (StorageObject p : getCachedStorageObjects()) {
+            p.data().setPreModifyRecordCallbackEnabled(enabled);
         }
     }
 
@@ -293,6 +293,9 @@ public class ProjectRecord extends DataRecord  {
             case IDataAccess.TYPE_FILE_XML:
                 setString(STORAGETYPE, IDataAccess.TYPESTRING_FILE_XML);
                 break;
+            case IDataAccess.TYPE_FILE_BINARY:
+                setString(STORAGETYPE, IDataAccess.TYPESTRING_FILE_BINARY);
+                break;
             case IDataAccess.TYPE_EFA_REMOTE:
                 setString(STORAGETYPE, IDataAccess.TYPESTRING_EFA_REMOTE);
                 break;
@@ -523,6 +526,9 @@ public class ProjectRecord extends DataRecord  {
         if (s != null && s.equals(IDataAccess.TYPESTRING_FILE_XML)) {
             return IDataAccess.TYPE_FILE_XML;
         }
+        if (s != null && s.equals(IDataAccess.TYPESTRING_FILE_BINARY)) {
+            return IDataAccess.TYPE_FILE_BINARY;
+        }
         if (s != null && s.equals(IDataAccess.TYPESTRING_EFA_REMOTE)) {
             return IDataAccess.TYPE_EFA_REMOTE;
         }
@@ -538,7 +544,8 @@ public class ProjectRecord extends DataRecord  {
 
     public String getStorageLocation() {
         try {
-            if (getStorageType() == IDataAccess.TYPE_FILE_XML || getStorageType() == IDataAccess.TYPE_EFA_CLOUD) {
+            if (getStorageType() == IDataAccess.TYPE_FILE_XML || getStorageType() == IDataAccess.TYPE_FILE_BINARY ||
+                    getStorageType() == IDataAccess.TYPE_EFA_CLOUD) {
                 // for file-based projects: storageLocation of content is always relative to this project file!
                 return getPersistence().data().getStorageLocation() + getProjectName() + Daten.fileSep;
             }
@@ -799,7 +806,8 @@ public class ProjectRecord extends DataRecord  {
             if (subtype == GUIITEMS_SUBTYPE_ALL || subtype == 3) {
 
                 if (!newProject ||
-                     (getStorageType() != IDataAccess.TYPE_FILE_XML && getStorageType() != IDataAccess.TYPE_EFA_CLOUD)) {
+                     (getStorageType() != IDataAccess.TYPE_FILE_XML && getStorageType() != IDataAccess.TYPE_FILE_BINARY &&
+                      getStorageType() != IDataAccess.TYPE_EFA_CLOUD)) {
                     v.add(item = new ItemTypeString(ProjectRecord.STORAGELOCATION, getStorageLocation(),
                             IItemType.TYPE_PUBLIC, category,
                             (getStorageType() == IDataAccess.TYPE_EFA_REMOTE
@@ -807,10 +815,11 @@ public class ProjectRecord extends DataRecord  {
                                     + International.getString("remote") + ")"
                                     : International.getString("Speicherort"))));
                     ((ItemTypeString) item).setEnabled(getStorageType() != IDataAccess.TYPE_FILE_XML &&
+                            getStorageType() != IDataAccess.TYPE_FILE_BINARY &&
                             getStorageType() != IDataAccess.TYPE_EFA_CLOUD);
                 }
 
-                if (getStorageType() != IDataAccess.TYPE_FILE_XML) {
+                if (getStorageType() != IDataAccess.TYPE_FILE_XML && getStorageType() != IDataAccess.TYPE_FILE_BINARY) {
                     v.add(item = new ItemTypeString(ProjectRecord.STORAGEUSERNAME, getStorageUsername(),
                             IItemType.TYPE_PUBLIC, category,
                             (getStorageType() == IDataAccess.TYPE_EFA_REMOTE
@@ -1135,7 +1144,8 @@ public class ProjectRecord extends DataRecord  {
                 new String[]{
                 IDataAccess.TYPESTRING_FILE_XML,
                 IDataAccess.TYPESTRING_EFA_REMOTE,
-                IDataAccess.TYPESTRING_EFA_CLOUD
+                IDataAccess.TYPESTRING_EFA_CLOUD,
+                IDataAccess.TYPESTRING_FILE_BINARY
         } :
                 new String[]{
                 IDataAccess.TYPESTRING_FILE_XML,
@@ -1148,7 +1158,8 @@ public class ProjectRecord extends DataRecord  {
                 new String[]{
                 International.getString("lokales Dateisystem"),
                 Daten.EFA_REMOTE,
-                Daten.EFA_CLOUD
+                Daten.EFA_CLOUD,
+                International.getString("lokales Dateisystem (binär)")
         } :
                 new String[]{
                 International.getString("lokales Dateisystem"),
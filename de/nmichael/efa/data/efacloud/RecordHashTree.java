@@ -0,0 +1,187 @@
+/*
+ * <pre>
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael, Martin Glade
+ * @version 2</pre>
+ */
+package de.nmichael.efa.data.efacloud;
+
+import de.nmichael.efa.data.storage.DataKey;
+import de.nmichael.efa.data.storage.DataRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A Merkle-style hash tree over the content of the records of a table.</p>
+ * <p>The records are distributed into BUCKETS leaf buckets by ranges of their key hash. Each bucket holds the content
+ * hash of each of its records, the bucket hash combines these independent of their order. The inner nodes combine the
+ * hashes of their two children, up to the root. Adding, changing or removing a record thus updates one bucket and the
+ * log2(BUCKETS) nodes above it.</p>
+ * <p>Two trees of the same table, e.g. the current one and a copy taken at the last synchronisation, are compared by
+ * descending from the root only into differing nodes. Unchanged buckets are never looked at.</p>
+ */
+public class RecordHashTree {
+
+    private static final int BUCKETS = 256;  // must be a power of 2
+
+    // nodes[1] is the root, nodes[i] has the children nodes[2i] and nodes[2i+1], the leaves are
+    // nodes[BUCKETS] .. nodes[2 * BUCKETS - 1]
+    private final long[] nodes = new long[2 * BUCKETS];
+    private final ArrayList<HashMap<DataKey, Long>> buckets = new ArrayList<HashMap<DataKey, Long>>(BUCKETS);
+
+    public RecordHashTree() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.add(new HashMap<DataKey, Long>());
+    }
+
+    /**
+     * Create a copy of a tree which is independent of later changes of the original.
+     *
+     * @param tree the tree to copy
+     */
+    public RecordHashTree(RecordHashTree tree) {
+        System.arraycopy(tree.nodes, 0, nodes, 0, nodes.length);
+        for (HashMap<DataKey, Long> bucket : tree.buckets)
+            buckets.add(new HashMap<DataKey, Long>(bucket));
+    }
+
+    /**
+     * Get the content hash of a record. Covers all stored fields of the record.
+     *
+     * @param dataRecord the record to hash
+     * @return the 64 bit FNV-1a hash of the encoded record
+     */
+    public static long getRecordHash(DataRecord dataRecord) {
+        String s = dataRecord.encodeAsString();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int getBucketIndex(DataKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return h & (BUCKETS - 1);
+    }
+
+    // the contribution of a record to its bucket hash. Buckets sum up these values, so that
+    // a record can be added or removed without rehashing the whole bucket.
+    private static long getEntryHash(DataKey key, long recordHash) {
+        long h = (key.hashCode() * 0x9e3779b97f4a7c15L) ^ recordHash;
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    private static long combine(long left, long right) {
+        long h = left * 31 + right;
+        h ^= (h >>> 29);
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= (h >>> 32);
+        return h;
+    }
+
+    /**
+     * Set the content hash of a record.
+     *
+     * @param key        the key of the record
+     * @param recordHash the content hash of the record, see getRecordHash(). Set null, if the record was deleted.
+     */
+    public void put(DataKey key, Long recordHash) {
+        int b = getBucketIndex(key);
+        HashMap<DataKey, Long> bucket = buckets.get(b);
+        Long oldHash = (recordHash == null) ? bucket.remove(key) : bucket.put(key, recordHash);
+        if ((oldHash == null) ? (recordHash == null) : oldHash.equals(recordHash))
+            return;
+        int node = BUCKETS + b;
+        if (oldHash != null)
+            nodes[node] -= getEntryHash(key, oldHash);
+        if (recordHash != null)
+            nodes[node] += getEntryHash(key, recordHash);
+        for (node = node / 2; node >= 1; node = node / 2)
+            nodes[node] = combine(nodes[2 * node], nodes[2 * node + 1]);
+    }
+
+    /**
+     * Get the content hash of a record.
+     *
+     * @param key the key of the record
+     * @return the content hash, null if the record is not contained.
+     */
+    public Long get(DataKey key) {
+        return buckets.get(getBucketIndex(key)).get(key);
+    }
+
+    /**
+     * Get the keys of all records contained.
+     *
+     * @return the keys in no particular order
+     */
+    public ArrayList<DataKey> getKeys() {
+        ArrayList<DataKey> keys = new ArrayList<DataKey>();
+        for (HashMap<DataKey, Long> bucket : buckets)
+            keys.addAll(bucket.keySet());
+        return keys;
+    }
+
+    /**
+     * Remove all records.
+     */
+    public void clear() {
+        for (HashMap<DataKey, Long> bucket : buckets)
+            bucket.clear();
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = 0;
+    }
+
+    /**
+     * @return the root hash of the tree
+     */
+    public long getRootHash() {
+        return nodes[1];
+    }
+
+    /**
+     * Get the keys of all records which differ between this tree and another one, i.e. records with a different
+     * content hash or contained in only one of the trees. Only the buckets with differing hashes are compared.
+     *
+     * @param tree the tree to compare with
+     * @return the keys of all differing records
+     */
+    public ArrayList<DataKey> getDifferingKeys(RecordHashTree tree) {
+        ArrayList<DataKey> keys = new ArrayList<DataKey>();
+        addDifferingKeys(tree, 1, keys);
+        return keys;
+    }
+
+    private void addDifferingKeys(RecordHashTree tree, int node, ArrayList<DataKey> keys) {
+        if (nodes[node] == tree.nodes[node])
+            return;
+        if (node < BUCKETS) {
+            addDifferingKeys(tree, 2 * node, keys);
+            addDifferingKeys(tree, 2 * node + 1, keys);
+            return;
+        }
+        HashMap<DataKey, Long> bucket = buckets.get(node - BUCKETS);
+        HashMap<DataKey, Long> otherBucket = tree.buckets.get(node - BUCKETS);
+        for (Map.Entry<DataKey, Long> entry : bucket.entrySet())
+            if (!entry.getValue().equals(otherBucket.get(entry.getKey())))
+                keys.add(entry.getKey());
+        for (DataKey key : otherBucket.keySet())
+            if (!bucket.containsKey(key))
+                keys.add(key);
+    }
+
+}
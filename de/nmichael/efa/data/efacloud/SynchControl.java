@@ -20,12 +20,14 @@ import de.nmichael.efa.data.storage.EfaCloudStorage;
 import de.nmichael.efa.data.types.DataTypeIntString;
 import de.nmichael.efa.ex.EfaException;
 import de.nmichael.efa.util.International;
+import de.nmichael.efa.util.LogString;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import static de.nmichael.efa.data.LogbookRecord.*;
 import static de.nmichael.efa.data.efacloud.TxRequestQueue.*;
@@ -63,9 +65,35 @@ class SynchControl {
     private final HashMap<DataKey, DataRecord> serverRecordsReturned = new HashMap<DataKey, DataRecord>();
     private final ArrayList<DataRecord> localRecordsToInsertAtServer = new ArrayList<DataRecord>();
     private final ArrayList<DataRecord> localRecordsToUpdateAtServer = new ArrayList<DataRecord>();
+    // the hash trees of the tables as agreed with the server, i.e. as of their last upload synchronization and
+    // updated with all records exchanged since. Records which differ from the current hash tree of a table have been
+    // changed locally after that. Also the time since which server side changes may not yet be known locally.
+    // Both are stored in a file next to the data file of the table, so that they survive a restart.
+    private static final String SYNCHED_HASH_TREE_FILE_SUFFIX = ".efacloudsynch";
+    private final HashMap<String, RecordHashTree> synchedHashTrees = new HashMap<String, RecordHashTree>();
+    private final HashMap<String, Long> synchedHashTreesSince = new HashMap<String, Long>();
+    private final HashMap<String, String> synchedHashTreeFiles = new HashMap<String, String>();
+    private final HashMap<String, String> synchedHashTreesStored = new HashMap<String, String>();
+    // the uploads of the synchronization not yet completed by the server, by transaction ID
+    private final HashMap<Integer, PendingUpload> pendingUploads = new HashMap<Integer, PendingUpload>();
 
     private final TxRequestQueue txq;
 
+    /**
+     * A record uploaded by the synchronization together with the content hash of the uploaded version.
+     */
+    private static class PendingUpload {
+        final String tablename;
+        final DataKey key;
+        final Long recordHash;
+
+        PendingUpload(String tablename, DataKey key, Long recordHash) {
+            this.tablename = tablename;
+            this.key = key;
+            this.recordHash = recordHash;
+        }
+    }
+
     /**
      * Constructor. Initializes the queue reference set the time of last synch to 0L, forcing a full resynch on every
      * program restart.
@@ -341,22 +369,22 @@ class SynchControl {
             if (efaCloudStorage != null) {
 
                 // if it is a full synch collect all local data Keys to find unmatched local records
-                HashMap<String, DataRecord> unmatchedLocalKeys = new HashMap<String, DataRecord>();
+                HashSet<DataKey> unmatchedLocalKeys = new HashSet<DataKey>();
                 if (synch_download_all) {
                     try {
                         DataKeyIterator localTableIterator = efaCloudStorage.getStaticIterator();
-                        DataKey dataKey = localTableIterator.getFirst();
-                        DataRecord cachedRecord = efaCloudStorage.get(dataKey);
-                        while (dataKey != null) {
-                            unmatchedLocalKeys.put(dataKey.encodeAsString(), cachedRecord);
-                            dataKey = localTableIterator.getNext();
-                            cachedRecord = efaCloudStorage.get(dataKey);
-                        }
+                        for (DataKey dataKey = localTableIterator.getFirst(); dataKey != null;
+                             dataKey = localTableIterator.getNext())
+                            unmatchedLocalKeys.add(dataKey);
                     } catch (EfaException ignored) {
                         // if combined upload fails by whatever reason, ignore it.
                     }
                 }
 
+                // local modifications are collected and applied as one batch after the comparison
+                ArrayList<EfaCloudStorage.LocalModification> localModifications =
+                        new ArrayList<EfaCloudStorage.LocalModification>();
+                ArrayList<String> localModificationTypes = new ArrayList<String>();
                 ArrayList<DataRecord> returnedRecords = efaCloudStorage.parseCsvTable(tx.getResultMessage());
                 for (DataRecord returnedRecord : returnedRecords) {
                     // get the local record for comparison
@@ -375,7 +403,7 @@ class SynchControl {
 
                         // remove the reference to this record from the cached list
                         if (synch_download_all && (localRecord != null))
-                            unmatchedLocalKeys.put(returnedKey.encodeAsString(), null);
+                            unmatchedLocalKeys.remove(returnedKey);
 
                         // identify which record is to be used.
                         long serverLastModified = returnedRecord.getLastModified();
@@ -427,25 +455,9 @@ class SynchControl {
                         // Run update. This update will use the LastModified and ChangeCount of the record to make
                         // it a true copy of the server side record.
                         else if (insert || update || delete) {
-                            long globalLock = 0;
-                            try {
-                                // any add modification requires a global lock.
-                                globalLock = efaCloudStorage.acquireGlobalLock();
-                                efaCloudStorage.modifyLocalRecord(returnedRecord, globalLock, insert, update, delete);
-                                efaCloudStorage.releaseGlobalLock(globalLock);
-                                logSynchMessage(International.getMessage(
-                                        "Lokale Replikation des Datensatzes nach {modification} auf dem Server.",
-                                        lastModification), tx.tablename, returnedRecord.getKey(), false);
-                            } catch (EfaException e) {
-                                String errorMessage = International.getMessage(
-                                        "Ausnahmefehler bei der lokalen Modifikation eines Datensatzes in {Tabelle} ",
-                                        tx.tablename) + "\n" + returnedRecord.encodeAsString() + "\n" + e.getMessage() +
-                                        "\n" + e.getStackTraceAsString();
-                                txq.logApiMessage(errorMessage, 1);
-                                logSynchMessage(errorMessage, tx.tablename, returnedRecord.getKey(), false, true);
-                            } finally {
-                                efaCloudStorage.releaseGlobalLock(globalLock);
-                            }
+                            localModifications.add(
+                                    new EfaCloudStorage.LocalModification(returnedRecord, insert, update, delete));
+                            localModificationTypes.add(lastModification);
                         }
                         // local copy is more recent, upload it, if a full download was requested
                         else if (synch_download_all && localMoreRecent && localRecentChange && (localRecord != null)) {
@@ -455,10 +467,19 @@ class SynchControl {
                         }
                     }
                 }
+                applyLocalModifications(efaCloudStorage, tx.tablename, localModifications, localModificationTypes);
+                // all server side changes up to the start of this synchronization are now known locally
+                if (getSynchedHashTree(tx.tablename) != null)
+                    synchedHashTreesSince.put(tx.tablename, timeOfLastSynch);
+
                 // if a full download is executed, use this to also upload recent local changes
                 if (synch_download_all) {
-                    for (String unmatched : unmatchedLocalKeys.keySet()) {
-                        DataRecord cachedRecord = unmatchedLocalKeys.get(unmatched);
+                    for (DataKey unmatched : unmatchedLocalKeys) {
+                        DataRecord cachedRecord = null;
+                        try {
+                            cachedRecord = efaCloudStorage.get(unmatched);
+                        } catch (EfaException ignored) {
+                        }
                         if (cachedRecord != null) {
                             boolean localRecentChange = ((System.currentTimeMillis() - cachedRecord.getLastModified()) >
                                     synch_upload_look_back_ms);
@@ -484,6 +505,219 @@ class SynchControl {
             txq.registerStateChangeRequest(TxRequestQueue.RQ_QUEUE_STOP_SYNCH);
     }
 
+    /**
+     * Apply the local modifications collected for a table during download synchronization in one batch, i.e. with a
+     * single global lock, and log the result for each record. Any add modification requires a global lock.
+     *
+     * @param efaCloudStorage   the table to modify
+     * @param tablename         the name of the table
+     * @param modifications     the modifications to apply
+     * @param modificationTypes for each modification the server side LastModification value
+     */
+    private void applyLocalModifications(EfaCloudStorage efaCloudStorage, String tablename,
+                                         ArrayList<EfaCloudStorage.LocalModification> modifications,
+                                         ArrayList<String> modificationTypes) {
+        EfaException lockError = null;
+        try {
+            efaCloudStorage.modifyLocalRecords(modifications);
+        } catch (EfaException e) {
+            lockError = e;
+        }
+        for (int i = 0; i < modifications.size(); i++) {
+            EfaCloudStorage.LocalModification modification = modifications.get(i);
+            DataRecord returnedRecord = modification.dataRecord;
+            EfaException e = (lockError != null) ? lockError : modification.error;
+            if (e == null) {
+                setRecordSynched(efaCloudStorage, tablename, returnedRecord.getKey());
+                logSynchMessage(International.getMessage(
+                        "Lokale Replikation des Datensatzes nach {modification} auf dem Server.",
+                        modificationTypes.get(i)), tablename, returnedRecord.getKey(), false);
+            } else {
+                String errorMessage = International.getMessage(
+                        "Ausnahmefehler bei der lokalen Modifikation eines Datensatzes in {Tabelle} ",
+                        tablename) + "\n" + returnedRecord.encodeAsString() + "\n" + e.getMessage() +
+                        "\n" + e.getStackTraceAsString();
+                txq.logApiMessage(errorMessage, 1);
+                logSynchMessage(errorMessage, tablename, returnedRecord.getKey(), false, true);
+            }
+        }
+    }
+
+    /**
+     * Check whether a local record which is more recent than its server side version shall be uploaded as update, or
+     * log an update conflict.
+     *
+     * @param localRecord  the local record
+     * @param serverRecord the server side version of the record
+     * @param tablename    the name of the table
+     */
+    private void checkUpdateAtServer(DataRecord localRecord, DataRecord serverRecord, String tablename) {
+        String preUpdateRecordsCompareResult = preUpdateRecordsCompare(localRecord, serverRecord, tablename);
+        if (!preUpdateRecordsCompareResult.isEmpty())
+            localRecordsToUpdateAtServer.add(localRecord);
+        else {
+            logSynchMessage(International.getMessage(
+                    "Update-Konflikt bei Datensatz in der {type}-Synchronisation. Unterschiedlich sind: {fields}",
+                    "Upload", preUpdateRecordsCompareResult) +
+                    " " + International.getString("Bitte bereinige den Datensatz manuell."), tablename,
+                    localRecord.getKey(), false);
+        }
+    }
+
+    /**
+     * Get the LastModified limit for the select of an upload synchronization. If the state agreed with the server is
+     * known for the table, the select must cover all server side changes since then, even if that is longer ago than
+     * the look back period.
+     *
+     * @param tablename the name of the table
+     * @return the LastModified limit to use
+     */
+    private long getUploadSelectLimit(String tablename) {
+        RecordHashTree synchedTree = getSynchedHashTree(tablename);
+        Long synchedSince = synchedHashTreesSince.get(tablename);
+        if (synch_upload_all || (synchedSince == null) || (synchedTree == null))
+            return LastModifiedLimit;
+        return Math.min(LastModifiedLimit, synchedSince - clockoffsetBuffer);
+    }
+
+    /**
+     * Mark the current local version of a record as agreed with the server, if an agreed state is known for the table.
+     *
+     * @param efaCloudStorage the table of the record
+     * @param tablename       the name of the table
+     * @param key             the key of the record
+     */
+    private void setRecordSynched(EfaCloudStorage efaCloudStorage, String tablename, DataKey key) {
+        RecordHashTree synchedTree = getSynchedHashTree(tablename);
+        if ((synchedTree == null) || (key == null))
+            return;
+        try {
+            synchedTree.put(key, efaCloudStorage.getHashTree().get(key));
+        } catch (EfaException e) {
+            // the agreed state can no longer be maintained, fall back to a full comparison
+            synchedHashTrees.remove(tablename);
+        }
+    }
+
+    /**
+     * Remember a record uploaded by the synchronization. It is marked as agreed with the server only once the server
+     * has completed the transaction, see confirmUpload().
+     *
+     * @param uploadTx    the upload transaction, may be null if the queue did not accept it
+     * @param tablename   the name of the table
+     * @param key         the key of the uploaded record
+     * @param currentTree the current hash tree of the table
+     */
+    private void registerUpload(Transaction uploadTx, String tablename, DataKey key, RecordHashTree currentTree) {
+        if ((uploadTx != null) && (currentTree != null))
+            pendingUploads.put(uploadTx.ID, new PendingUpload(tablename, key, currentTree.get(key)));
+    }
+
+    /**
+     * Mark a record uploaded by the synchronization as agreed with the server, because the server completed the
+     * transaction. The version agreed is the uploaded one, so local changes made after the upload are still
+     * detected. Transactions which are not uploads of the synchronization are ignored.
+     *
+     * @param tx the completed transaction
+     */
+    void confirmUpload(Transaction tx) {
+        PendingUpload upload = pendingUploads.remove(tx.ID);
+        if (upload == null)
+            return;
+        RecordHashTree synchedTree = synchedHashTrees.get(upload.tablename);
+        if (synchedTree != null)
+            synchedTree.put(upload.key, upload.recordHash);
+    }
+
+    /**
+     * Get the hash tree of a table as agreed with the server. If it is not yet known in this program run, it is read
+     * from the file stored with the data file of the table.
+     *
+     * @param tablename the name of the table
+     * @return the agreed hash tree, null if no agreed state is known.
+     */
+    private RecordHashTree getSynchedHashTree(String tablename) {
+        EfaCloudStorage persistence = Daten.tableBuilder.getPersistence(tablename);
+        if (persistence == null)
+            return null;
+        // for logbooks and clubworkbooks the table maps to the data file currently open, which may change
+        String filename = persistence.getFilename() + SYNCHED_HASH_TREE_FILE_SUFFIX;
+        if (!filename.equals(synchedHashTreeFiles.get(tablename))) {
+            synchedHashTrees.remove(tablename);
+            synchedHashTreesSince.remove(tablename);
+            synchedHashTreeFiles.put(tablename, filename);
+            loadSynchedHashTree(persistence, tablename, filename);
+        }
+        return synchedHashTrees.get(tablename);
+    }
+
+    /**
+     * Read the agreed hash tree of a table. The file holds the time since which server side changes may not be known
+     * locally in its first line, followed by one line "hash;key" per record. Only records which still exist locally
+     * are taken over, the others are irrelevant for the upload.
+     *
+     * @param persistence the table
+     * @param tablename   the name of the table
+     * @param filename    the file to read
+     */
+    private void loadSynchedHashTree(EfaCloudStorage persistence, String tablename, String filename) {
+        File f = new File(filename);
+        if (!f.exists())
+            return;
+        try {
+            String[] lines = TextResource.getContents(f, "UTF-8").split("\n");
+            HashMap<String, Long> recordHashes = new HashMap<String, Long>();
+            for (int i = 1; i < lines.length; i++) {
+                String[] hashAndKey = lines[i].trim().split(";", 2);
+                if (hashAndKey.length == 2)
+                    recordHashes.put(hashAndKey[1], Long.parseLong(hashAndKey[0]));
+            }
+            RecordHashTree synchedTree = new RecordHashTree();
+            DataKeyIterator it = persistence.getStaticIterator();
+            for (DataKey key = it.getFirst(); key != null; key = it.getNext()) {
+                Long recordHash = recordHashes.get(key.encodeAsString());
+                if (recordHash != null)
+                    synchedTree.put(key, recordHash);
+            }
+            long since = Long.parseLong(lines[0].trim());
+            synchedHashTrees.put(tablename, synchedTree);
+            synchedHashTreesSince.put(tablename, since);
+            synchedHashTreesStored.put(tablename, synchedTree.getRootHash() + ";" + since);
+        } catch (Exception e) {
+            // the table falls back to a full comparison
+            logSynchMessage(LogString.fileReadFailed(filename, tablename, e.toString()), tablename, null, false, true);
+        }
+    }
+
+    /**
+     * Store the hash trees agreed with the server next to the data files of their tables. Called at the end of each
+     * synchronization. Uploads not completed until then are no longer expected, their records will be checked again
+     * by the next upload synchronization.
+     */
+    void saveSynchedHashTrees() {
+        pendingUploads.clear();
+        for (String tablename : synchedHashTreeFiles.keySet()) {
+            String filename = synchedHashTreeFiles.get(tablename);
+            RecordHashTree synchedTree = synchedHashTrees.get(tablename);
+            Long since = synchedHashTreesSince.get(tablename);
+            if ((synchedTree == null) || (since == null)) {
+                if (synchedHashTreesStored.remove(tablename) != null)
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(filename).delete();
+                continue;
+            }
+            String state = synchedTree.getRootHash() + ";" + since;
+            if (state.equals(synchedHashTreesStored.get(tablename)))
+                continue;
+            StringBuilder contents = new StringBuilder();
+            contents.append(since).append("\n");
+            for (DataKey key : synchedTree.getKeys())
+                contents.append(synchedTree.get(key)).append(";").append(key.encodeAsString()).append("\n");
+            if (TextResource.writeContents(filename, contents.toString(), false))
+                synchedHashTreesStored.put(tablename, state);
+        }
+    }
+
     /**
      * Compares two records whether it is probable that one is the update of the other. If three or more data fields
      * differ, it is not believed that one is an update of the other and a data update conflict is created instead of
@@ -579,30 +813,46 @@ class SynchControl {
                 localRecordsToUpdateAtServer.clear();
                 for (DataRecord returnedRecord : returnedRecords)
                     serverRecordsReturned.put(returnedRecord.getKey(), returnedRecord);
-                // compile the list of actionable records
+                // compile the list of actionable records. If the state agreed with the server is known, only the
+                // records changed since then need to be checked, else all.
+                RecordHashTree currentTree = null;
                 try {
-                    DataKeyIterator it = persistence.getStaticIterator();
-                    DataKey toCheck = it.getFirst();
-                    while (toCheck != null) {
-                        DataRecord localRecord = persistence.get(toCheck);
-                        DataRecord serverRecord = serverRecordsReturned.get(toCheck);
-                        long localLastModified = localRecord.getLastModified();
-                        if (serverRecord == null) {
-                            if (localLastModified > LastModifiedLimit)
-                                localRecordsToInsertAtServer.add(localRecord);
-                        } else if (localLastModified > serverRecord.getLastModified()) {
-                            String preUpdateRecordsCompareResult = preUpdateRecordsCompare(localRecord, serverRecord, tx.tablename);
-                            if (!preUpdateRecordsCompareResult.isEmpty())
-                                localRecordsToUpdateAtServer.add(localRecord);
-                            else {
-                                logSynchMessage(International.getMessage(
-                                        "Update-Konflikt bei Datensatz in der {type}-Synchronisation. Unterschiedlich sind: {fields}",
-                                        "Upload", preUpdateRecordsCompareResult) +
-                                        " " + International.getString("Bitte bereinige den Datensatz manuell."), tx.tablename,
-                                        toCheck, false);
-                            }
+                    currentTree = persistence.getHashTree();
+                } catch (EfaException ignored) {
+                }
+                RecordHashTree knownTree = getSynchedHashTree(tx.tablename);
+                RecordHashTree synchedTree = (synch_upload_all || (currentTree == null)) ? null : knownTree;
+                try {
+                    if (synchedTree != null) {
+                        for (DataKey toCheck : currentTree.getDifferingKeys(synchedTree)) {
+                            DataRecord localRecord = persistence.get(toCheck);
+                            if (localRecord == null)
+                                continue;  // local deletions are not uploaded
+                            DataRecord serverRecord = serverRecordsReturned.get(toCheck);
+                            // the select covers all server side changes since the agreed state. If the record is
+                            // not returned, the server still has the agreed version of it.
+                            if (serverRecord == null) {
+                                if (synchedTree.get(toCheck) == null)
+                                    localRecordsToInsertAtServer.add(localRecord);
+                                else
+                                    localRecordsToUpdateAtServer.add(localRecord);
+                            } else if (localRecord.getLastModified() > serverRecord.getLastModified())
+                                checkUpdateAtServer(localRecord, serverRecord, tx.tablename);
+                        }
+                    } else {
+                        DataKeyIterator it = persistence.getStaticIterator();
+                        DataKey toCheck = it.getFirst();
+                        while (toCheck != null) {
+                            DataRecord localRecord = persistence.get(toCheck);
+                            DataRecord serverRecord = serverRecordsReturned.get(toCheck);
+                            long localLastModified = localRecord.getLastModified();
+                            if (serverRecord == null) {
+                                if (localLastModified > LastModifiedLimit)
+                                    localRecordsToInsertAtServer.add(localRecord);
+                            } else if (localLastModified > serverRecord.getLastModified())
+                                checkUpdateAtServer(localRecord, serverRecord, tx.tablename);
+                            toCheck = it.getNext();
                         }
-                        toCheck = it.getNext();
                     }
                 } catch (EfaException e) {
                     txq.logApiMessage(International
@@ -611,23 +861,41 @@ class SynchControl {
                 // append all relevant transactions to the queue. This may be quite a lot and take a while to
                 // be worked through.
                 for (DataRecord localRecordToInsertAtServer : localRecordsToInsertAtServer) {
-                    persistence.modifyServerRecord(localRecordToInsertAtServer, true, false, false, true);
+                    registerUpload(persistence.modifyServerRecord(localRecordToInsertAtServer, true, false, false, true),
+                            tx.tablename, localRecordToInsertAtServer.getKey(), currentTree);
                     logSynchMessage(International.getString("Füge Datensatz auf Server ein für Tabelle") + " ", tx.tablename,
                             localRecordToInsertAtServer.getKey(), false);
                 }
                 for (DataRecord localRecordToUpdateAtServer : localRecordsToUpdateAtServer) {
-                    persistence.modifyServerRecord(localRecordToUpdateAtServer, false, true, false, true);
+                    registerUpload(persistence.modifyServerRecord(localRecordToUpdateAtServer, false, true, false, true),
+                            tx.tablename, localRecordToUpdateAtServer.getKey(), currentTree);
                     logSynchMessage(International.getString("Aktualisiere Datensatz auf Server für Tabelle") + " ",
                             tx.tablename, localRecordToUpdateAtServer.getKey(), false);
                 }
+                // the uploaded records become agreed with the server once the server confirms them, see
+                // confirmUpload(). Without a previously agreed state, the current state is taken as agreed, except
+                // for the records to upload: these still have the server side version, if any.
+                if ((currentTree != null) && (synchedTree == null)) {
+                    RecordHashTree newTree = new RecordHashTree(currentTree);
+                    for (DataRecord toInsert : localRecordsToInsertAtServer)
+                        newTree.put(toInsert.getKey(), null);
+                    for (DataRecord toUpdate : localRecordsToUpdateAtServer) {
+                        DataRecord serverRecord = serverRecordsReturned.get(toUpdate.getKey());
+                        newTree.put(toUpdate.getKey(),
+                                (serverRecord == null) ? null : RecordHashTree.getRecordHash(serverRecord));
+                    }
+                    synchedHashTrees.put(tx.tablename, newTree);
+                    synchedHashTreesSince.put(tx.tablename, timeOfLastSynch);
+                }
             }
         }
         table_synching_index++;
         if (table_synching_index < tables_to_synchronize.size()) {
+            long lastModifiedLimit = getUploadSelectLimit(tables_to_synchronize.get(table_synching_index));
             txq.appendTransaction(TX_SYNCH_QUEUE_INDEX, Transaction.TX_TYPE.SELECT,
-                    tables_to_synchronize.get(table_synching_index), "LastModified;" + LastModifiedLimit, "?;>");
+                    tables_to_synchronize.get(table_synching_index), "LastModified;" + lastModifiedLimit, "?;>");
             SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String dateString = format.format(new Date(LastModifiedLimit));
+            String dateString = format.format(new Date(lastModifiedLimit));
             logSynchMessage(International.getMessage("Hole Datensätze vom Server mit Modifikation nach {date}", dateString),
                     tables_to_synchronize.get(table_synching_index), null, false);
         } else {
@@ -21,7 +21,6 @@ import java.io.UnsupportedEncodingException;
 
 import java.util.HashMap;
 import java.util.ArrayList;
-import java.util.Vector;
 
 /**
  * A container class for data modifications passed to the efaClod Server.
@@ -124,7 +123,7 @@ public class Transaction {
      * @param credentials the credentials which shall be used.
      * @return the properly formatted IAM message.
      */
-    static TaskManager.RequestMessage createIamRequest(Vector<Transaction> txs, String credentials) {
+    static TaskManager.RequestMessage createIamRequest(TxQueue txs, String credentials) {
 
         if (txs == null || txs.size() == 0)
             return null;
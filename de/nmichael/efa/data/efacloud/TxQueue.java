@@ -0,0 +1,161 @@
+/*
+ * <pre>
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael, Martin Glade
+ * @version 2</pre>
+ */
+package de.nmichael.efa.data.efacloud;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A single transaction queue of the TxRequestQueue.</p>
+ * <p>The transactions are kept in a concurrent deque with an index by transaction ID, so that reading the queue (size,
+ * head, iteration, lookup by ID) never blocks and adding or removing the head transaction takes constant time.
+ * Modifications are serialized by a fair lock, which callers may also hold to perform a sequence of modifications
+ * atomically, e.g. a shift between two queues.</p>
+ */
+class TxQueue implements Iterable<Transaction> {
+
+    private final ConcurrentLinkedDeque<Transaction> txs = new ConcurrentLinkedDeque<Transaction>();
+    private final ConcurrentHashMap<Integer, Transaction> txsById = new ConcurrentHashMap<Integer, Transaction>();
+    // ConcurrentLinkedDeque.size() traverses the deque, so the size is counted separately.
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /**
+     * Wait for the queue lock.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return true, if the lock was obtained, false if the timeout expired.
+     */
+    boolean tryLock(long timeout) {
+        try {
+            return lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Release the queue lock. Must only be called by the thread holding the lock.
+     */
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Append a transaction to the end of the queue.
+     *
+     * @param tx transaction to append
+     */
+    void add(Transaction tx) {
+        lock.lock();
+        try {
+            txs.addLast(tx);
+            txsById.put(tx.ID, tx);
+            size.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a transaction from the queue. Takes constant time, if the transaction is the queue head.
+     *
+     * @param tx transaction to remove
+     * @return true, if the transaction was contained in the queue.
+     */
+    boolean remove(Transaction tx) {
+        lock.lock();
+        try {
+            if (!txs.removeFirstOccurrence(tx))
+                return false;
+            txsById.remove(tx.ID, tx);
+            size.decrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the first transaction of the queue.
+     *
+     * @return the removed transaction, null if the queue is empty.
+     */
+    Transaction removeFirst() {
+        lock.lock();
+        try {
+            Transaction tx = txs.pollFirst();
+            if (tx != null) {
+                txsById.remove(tx.ID, tx);
+                size.decrementAndGet();
+            }
+            return tx;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all transactions from the queue.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            txs.clear();
+            txsById.clear();
+            size.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the first transaction of the queue.
+     *
+     * @return the first transaction, null if the queue is empty.
+     */
+    Transaction firstElement() {
+        return txs.peekFirst();
+    }
+
+    /**
+     * Get the transaction for the given ID.
+     *
+     * @param txID ID of the transaction
+     * @return transaction with this ID. If within the queue there is no such ID, null is returned.
+     */
+    Transaction get(int txID) {
+        return txsById.get(txID);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    boolean isEmpty() {
+        return txs.isEmpty();
+    }
+
+    /**
+     * Iterate over the queue in order. The iterator is weakly consistent, i.e. it never fails on concurrent
+     * modifications of the queue.
+     */
+    @Override
+    public Iterator<Transaction> iterator() {
+        return txs.iterator();
+    }
+
+}
@@ -88,7 +88,7 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
     // issue a new internet access request.
     public static final int RETRY_PERIOD = 120000; // = 120 seconds = 2 minutes
 
-    // timeout for holding a queue locked for manipulation.
+    // timeout for waiting on a queue lock, after which the wait is logged.
     private static final long QUEUE_LOCK_TIMEOUT = 5000;
     // Maximum number of transactions shifted into the pending queue, i. e. of transactions per
     // internet access request. If the internet access is blocked, this will pile upt internet
@@ -199,8 +199,7 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
 
     // the request queues and their size, locks and file paths.
     private final Vector<Integer> stateTransitionRequests = new Vector<Integer>();
-    final ArrayList<Vector<Transaction>> queues = new ArrayList<Vector<Transaction>>();
-    private final long[] locks = new long[TX_QUEUE_COUNT];
+    final ArrayList<TxQueue> queues = new ArrayList<TxQueue>();
     private String storageLocationRoot;
     protected String efacloudLogDir;
     private long logLastModified;
@@ -516,11 +515,8 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
         // initialize the queue indices
         txID = 42;
         txcID = 42;
-        for (int i = 0; i < TX_QUEUE_COUNT; i++) {
-            Vector<Transaction> queue = new Vector<Transaction>();
-            queues.add(queue);
-            releaseQueueLock(i);
-        }
+        for (int i = 0; i < TX_QUEUE_COUNT; i++)
+            queues.add(new TxQueue());
     }
 
     /**
@@ -901,6 +897,7 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
                                     stateTransitionRequests.remove(0);
                                     txq.setState(QUEUE_IS_WORKING);
                                     showStatusAtGUI();
+                                    txq.synchControl.saveSynchedHashTrees();
                                     txq.synchControl.logSynchMessage(
                                             International.getString("Synchronisationstransaktionen abgeschlossen"),
                                             "", null, false);
@@ -969,9 +966,9 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
                                 (polltime - synchControl.timeOfLastSynch > synch_period)) {
                             // use the opportunity to clear the done and dropped queue, which will else be a memory leak
                             while (queues.get(TX_DONE_QUEUE_INDEX).size() > DONE_QUEUE_MAX_TXS)
-                                queues.get(TX_DONE_QUEUE_INDEX).remove(0);
+                                queues.get(TX_DONE_QUEUE_INDEX).removeFirst();
                             while (queues.get(TX_DROPPED_QUEUE_INDEX).size() > DROPPED_QUEUE_MAX_TXS)
-                                queues.get(TX_DROPPED_QUEUE_INDEX).remove(0);
+                                queues.get(TX_DROPPED_QUEUE_INDEX).removeFirst();
                             // The synch transactions queue is never stored, so it needs not to be read from file.
                             queues.get(TX_SYNCH_QUEUE_INDEX).clear();
                             registerStateChangeRequest(RQ_QUEUE_START_SYNCH_DOWNLOAD);
@@ -1039,25 +1036,13 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
     /**
      * Get the current transaction for the given ID
      *
-     * @param txID         ID of the transaction to get
-     * @param queueIndex   index of queue to be searched.
-     * @param getQueueLock Set true, if the lock of the queue was already obtained.
+     * @param txID       ID of the transaction to get
+     * @param queueIndex index of queue to be searched.
      * @return transaction with this ID. If within the queue there is no such ID, null is returned.
      */
-    Transaction getTxForID(int txID, int queueIndex, boolean getQueueLock) {
-        // try to get the queues lock. This will exit with a release lock exception after lock timeout.
-        if (getQueueLock)
-            //noinspection StatementWithEmptyBody
-            while (refuseQueueLock(queueIndex))
-                // wait
-                ;
-        Transaction txForID = null;
-        for (Transaction tx : queues.get(queueIndex))
-            if (tx.ID == txID)
-                txForID = tx;
-        if (getQueueLock)
-            releaseQueueLock(queueIndex);
-        return txForID;
+    Transaction getTxForID(int txID, int queueIndex) {
+        // the queue has an ID index which may be read without holding the queue lock.
+        return queues.get(queueIndex).get(txID);
     }
 
     /**
@@ -1085,56 +1070,54 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
      */
     void shiftTx(int sourceQueueIndex, int destinationQueueIndex, int action, int txID, int maxNumber) {
 
-        Vector<Transaction> src = queues.get(sourceQueueIndex);
-        Vector<Transaction> dest = queues.get(destinationQueueIndex);
+        TxQueue src = queues.get(sourceQueueIndex);
+        TxQueue dest = queues.get(destinationQueueIndex);
         boolean registerActionOnly = (sourceQueueIndex == destinationQueueIndex);
-        // try to get the queues lock. This will exit with a release lock exception after lock timeout.
-        //noinspection StatementWithEmptyBody
-        while (refuseQueueLock(sourceQueueIndex))
-            // wait
-            ;
+        // get the queues locks. Always lock the lower index first to avoid a deadlock of two opposite shifts.
+        getQueueLock(Math.min(sourceQueueIndex, destinationQueueIndex));
         if (!registerActionOnly)
-            //noinspection StatementWithEmptyBody
-            while (refuseQueueLock(destinationQueueIndex))
-                // wait
-                ;
-
-        // fix the count of elements to be shifted, before starting the shift. This will create
-        // predictable results, if during the shift a transaction is appended.
-        int chunkSize = src.size();
-        if ((chunkSize > maxNumber) && (maxNumber > 0))
-            chunkSize = maxNumber;
-
-        int i = 0;
-        while (((txID > 0) && (i == 0))  // single transaction shift
-                || ((txID == 0) && !src.isEmpty() && (i < chunkSize))) {
-            Transaction tx = (txID > 0) ? getTxForID(txID, sourceQueueIndex, false) : src.get(0);
-            if (tx != null) {
-                registerAction(tx, action);
-                if (!registerActionOnly) {
-                    // Before moving the transaction check whether this is pausing or stopping the queue. When
-                    // pausing write actions and key fixing confirmations shall stay, when stopping only key fixing
-                    // confirmations .
-                    boolean isKeyFixingConfirmation = ((tx.type == Transaction.TX_TYPE.KEYFIXING) && tx.hasRecord());
-                    boolean keepOnPause = (action == ACTION_TX_PAUSE) &&
-                            ((sourceQueueIndex == TX_SYNCH_QUEUE_INDEX) ? isKeyFixingConfirmation : (
-                                    isKeyFixingConfirmation || tx.type.isWriteAction));
-                    boolean keepOnStop = (action == ACTION_TX_STOP) && isKeyFixingConfirmation;
-                    if (!keepOnPause && !keepOnStop) {
-                        if (destinationQueueIndex == TX_DROPPED_QUEUE_INDEX)
-                            txq.logApiMessage("#" + tx.ID + ", " + tx.type + " [" + tx.tablename + "]: " + "Transaction dropped", 1);
-                        dest.add(tx);
-                        // cut failed transactions length to avoid log overload
-                        if (destinationQueueIndex == TX_FAILED_QUEUE_INDEX)
-                            tx.shortenRecord(1024);
-                        src.remove(tx);
+            getQueueLock(Math.max(sourceQueueIndex, destinationQueueIndex));
+
+        try {
+            // fix the count of elements to be shifted, before starting the shift. This will create
+            // predictable results, if during the shift a transaction is appended.
+            int chunkSize = src.size();
+            if ((chunkSize > maxNumber) && (maxNumber > 0))
+                chunkSize = maxNumber;
+
+            int i = 0;
+            while (((txID > 0) && (i == 0))  // single transaction shift
+                    || ((txID == 0) && !src.isEmpty() && (i < chunkSize))) {
+                Transaction tx = (txID > 0) ? getTxForID(txID, sourceQueueIndex) : src.firstElement();
+                if (tx != null) {
+                    registerAction(tx, action);
+                    if (!registerActionOnly) {
+                        // Before moving the transaction check whether this is pausing or stopping the queue. When
+                        // pausing write actions and key fixing confirmations shall stay, when stopping only key fixing
+                        // confirmations .
+                        boolean isKeyFixingConfirmation = ((tx.type == Transaction.TX_TYPE.KEYFIXING) && tx.hasRecord());
+                        boolean keepOnPause = (action == ACTION_TX_PAUSE) &&
+                                ((sourceQueueIndex == TX_SYNCH_QUEUE_INDEX) ? isKeyFixingConfirmation : (
+                                        isKeyFixingConfirmation || tx.type.isWriteAction));
+                        boolean keepOnStop = (action == ACTION_TX_STOP) && isKeyFixingConfirmation;
+                        if (!keepOnPause && !keepOnStop) {
+                            if (destinationQueueIndex == TX_DROPPED_QUEUE_INDEX)
+                                txq.logApiMessage("#" + tx.ID + ", " + tx.type + " [" + tx.tablename + "]: " + "Transaction dropped", 1);
+                            dest.add(tx);
+                            // cut failed transactions length to avoid log overload
+                            if (destinationQueueIndex == TX_FAILED_QUEUE_INDEX)
+                                tx.shortenRecord(1024);
+                            src.remove(tx);
+                        }
                     }
                 }
+                i++;
             }
-            i++;
+        } finally {
+            if (!registerActionOnly)
+                releaseQueueLock(destinationQueueIndex);
+            releaseQueueLock(sourceQueueIndex);
         }
-        releaseQueueLock(sourceQueueIndex);
-        releaseQueueLock(destinationQueueIndex);
         if (!registerActionOnly)
             showStatusAtGUI();
     }
@@ -1146,20 +1129,18 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
      * @param cresultMessage the result message for the container result
      */
     void registerContainerResult(int cresultCode, String cresultMessage) {
-        // try to get the queues lock. This will exit with a release lock exception after lock timeout.
-        //noinspection StatementWithEmptyBody
-        while (refuseQueueLock(TX_BUSY_QUEUE_INDEX))
-            // wait
-            ;
-        Vector<Transaction> src = queues.get(TX_BUSY_QUEUE_INDEX);
-        for (Transaction tx : src) {
-            if (tx != null) {
-                tx.setCresultCode(cresultCode);
-                tx.setCresultMessage(cresultMessage);
+        getQueueLock(TX_BUSY_QUEUE_INDEX);
+        try {
+            for (Transaction tx : queues.get(TX_BUSY_QUEUE_INDEX)) {
+                if (tx != null) {
+                    tx.setCresultCode(cresultCode);
+                    tx.setCresultMessage(cresultMessage);
+                }
             }
+            // size didn't change, so no change to queueSizes
+        } finally {
+            releaseQueueLock(TX_BUSY_QUEUE_INDEX);
         }
-        // size didn't change, so no change to queueSizes
-        releaseQueueLock(TX_BUSY_QUEUE_INDEX);
     }
 
     /**
@@ -1201,25 +1182,17 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
     }
 
     /**
-     * get a lock for a queue, i.e. prevent all others to use it.
+     * get a lock for a queue, i.e. prevent all others to modify it. Blocks until the lock is available. The lock is
+     * fair, i.e. waiting threads get it in the order of their request. If waiting takes longer than the lock timeout,
+     * this is logged and the wait continues.
      *
      * @param queueIndex index of queue, for which the lock shall be provided
      */
-    private boolean refuseQueueLock(int queueIndex) {
-        long now = System.currentTimeMillis();
-        if (locks[queueIndex] == -1) {
-            locks[queueIndex] = now;
-            return false;
-        } else {
-            if ((now - locks[queueIndex]) > QUEUE_LOCK_TIMEOUT) {
-                releaseQueueLock(queueIndex);
-                logApiMessage(International
-                        .getMessage("efaCloud Transaktions-Timeout für {Typ} Queue. Lock wurde zurückgenommen.",
-                                TX_QUEUE_NAMES[queueIndex]), 1);
-                return false;
-            } else
-                return true;
-        }
+    private void getQueueLock(int queueIndex) {
+        while (!queues.get(queueIndex).tryLock(QUEUE_LOCK_TIMEOUT))
+            logApiMessage(International
+                    .getMessage("efaCloud Transaktions-Timeout für {Typ} Queue. Warte weiter auf Lock.",
+                            TX_QUEUE_NAMES[queueIndex]), 1);
     }
 
     /**
@@ -1227,7 +1200,7 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
      * activation.
      */
     public void clearAllQueues() {
-        for (Vector<Transaction> queue : queues)
+        for (TxQueue queue : queues)
             queue.clear();
     }
 
@@ -1237,7 +1210,7 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
      * @param queueIndex index of queue, for which the lock shall be released
      */
     private void releaseQueueLock(int queueIndex) {
-        locks[queueIndex] = -1;
+        queues.get(queueIndex).unlock();
     }
 
     /**
@@ -1271,13 +1244,7 @@ public class TxRequestQueue implements TaskManager.RequestDispatcherIF {
         if (!allowedTransaction)
             return null;
         Transaction tx = new Transaction(-1, type, tablename, record);
-        // try to get the queues lock. This will exit with a release lock exception after lock timeout.
-        //noinspection StatementWithEmptyBody
-        while (refuseQueueLock(queueIndex))
-            // wait
-            ;
         queues.get(queueIndex).add(tx);
-        releaseQueueLock(queueIndex);
         return tx;
     }
 
@@ -190,6 +190,9 @@ public class TxResponseHandler {
 
         // handle a positive response.  
         if (tx.getResultCode() >= 300) {
+            // an upload of the synchronization is only agreed with the server once it is completed
+            if (tx.getResultCode() == 300)
+                txq.synchControl.confirmUpload(tx);
             // handle synchronization responses
             if (txq.getState() == TxRequestQueue.QUEUE_IS_SYNCHRONIZING) {
                 try {
@@ -346,7 +349,7 @@ public class TxResponseHandler {
                         resultCode = Integer.parseInt(txRespParts[1]);
                     } catch (NumberFormatException ignored) {
                     }
-                    Transaction tx = txq.getTxForID(txID, TX_BUSY_QUEUE_INDEX, true);
+                    Transaction tx = txq.getTxForID(txID, TX_BUSY_QUEUE_INDEX);
                     if (tx != null) {
                         tx.setResultCode(resultCode);
                         tx.setCresultCode(txrc.cresultCode);
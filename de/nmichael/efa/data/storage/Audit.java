@@ -20,11 +20,20 @@ import de.nmichael.efa.util.EfaUtil;
 import de.nmichael.efa.util.International;
 import de.nmichael.efa.util.LogString;
 import de.nmichael.efa.util.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Hashtable;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Audit extends Thread {
 
@@ -40,6 +49,11 @@ public class Audit extends Thread {
     private StringBuilder auditMessages;
     private boolean auditMessagesMaxReached = false;
 
+    // state of the last clean run of each check (see AuditCheck), saved between audits
+    private Properties state = new Properties();
+    // number of messages logged by the check currently running in this thread
+    private final ThreadLocal<int[]> messageCount = new ThreadLocal<int[]>();
+
     public Audit(Project project) {
         this.project = project;
         this.correctErrors = Daten.efaConfig.getValueDataAuditCorrectErrors();
@@ -69,24 +83,250 @@ public class Audit extends Thread {
         }
     }
 
-    private void auditInfo(String key, String msg) {
+    private synchronized void auditInfo(String key, String msg) {
         String s = Logger.log(Logger.INFO, key, msg, false);
         infos++;
+        countMessage();
         addMessageToBuffer(s);
     }
 
-    private void auditWarning(String key, String msg) {
+    private synchronized void auditWarning(String key, String msg) {
         String s = Logger.log(Logger.WARNING, key, msg, false);
         warnings++;
+        countMessage();
         addMessageToBuffer(s);
     }
 
-    private void auditError(String key, String msg) {
+    private synchronized void auditError(String key, String msg) {
         String s = Logger.log(Logger.ERROR, key, msg, false);
         errors++;
+        countMessage();
         addMessageToBuffer(s);
     }
 
+    private void countMessage() {
+        int[] count = messageCount.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+
+    /**
+     * An independent audit check. Checks run in parallel on a worker pool.
+     * A check is skipped if all storage objects it depends on are unchanged (same SCN)
+     * since its last clean run (without any messages) on the same day. If only the
+     * first dependency (the checked storage object itself) has changed and its changes
+     * are known, getChangedKeys() returns the keys of the records to be re-checked.
+     */
+    private abstract class AuditCheck implements Callable<Integer> {
+
+        final String name;
+        boolean clean = true; // may be reset by check() if the check must not be skipped next time
+        private StorageObject[] dependencies;
+        private String lastBase;
+        private String lastScn;
+
+        AuditCheck(String name) {
+            this.name = name;
+        }
+
+        // storage objects this check depends on; null if the check must always run
+        StorageObject[] getDependencies() {
+            return null;
+        }
+
+        abstract int check();
+
+        void finish() {
+        }
+
+        DataKey[] getChangedKeys() {
+            try {
+                if (lastBase != null && lastScn != null &&
+                    lastBase.equals(getFingerprint(dependencies, 1))) {
+                    return dependencies[0].data().getChangesSince(Long.parseLong(lastScn));
+                }
+            } catch (Exception e) {
+                Logger.logdebug(e);
+            }
+            return null;
+        }
+
+        public Integer call() {
+            try {
+                dependencies = getDependencies();
+                String fingerprint = getFingerprint(dependencies, 0);
+                if (fingerprint != null && fingerprint.equals(state.getProperty(name))) {
+                    Logger.log(Logger.DEBUG, Logger.MSG_DATA_AUDIT,
+                            "Audit " + name + ": unchanged since last audit, skipped.");
+                    return 0;
+                }
+                lastBase = state.getProperty(name + ".base");
+                lastScn = state.getProperty(name + ".scn");
+                state.remove(name);
+                state.remove(name + ".base");
+                state.remove(name + ".scn");
+                messageCount.set(new int[1]);
+                int err = check();
+                if (err == 0 && clean && messageCount.get()[0] == 0 && fingerprint != null &&
+                    fingerprint.equals(getFingerprint(dependencies, 0))) {
+                    state.setProperty(name, fingerprint);
+                    state.setProperty(name + ".base", getFingerprint(dependencies, 1));
+                    state.setProperty(name + ".scn", Long.toString(dependencies[0].data().getSCN()));
+                }
+                return err;
+            } catch (Exception e) {
+                auditError(Logger.MSG_DATA_AUDIT,
+                        "Audit " + name + " Caught Exception: " + e.toString());
+                Logger.log(e);
+                return 1;
+            } finally {
+                messageCount.remove();
+                finish();
+            }
+        }
+    }
+
+    private class LogbookAuditCheck extends AuditCheck {
+
+        private String logbookName;
+        private boolean wasLogbookOpen;
+        private Logbook logbook;
+
+        LogbookAuditCheck(String logbookName) {
+            super("logbook." + logbookName);
+            this.logbookName = logbookName;
+        }
+
+        StorageObject[] getDependencies() {
+            wasLogbookOpen = project.isLogbookOpen(logbookName);
+            logbook = project.getLogbook(logbookName, false);
+            return new StorageObject[] { logbook,
+                project.getBoats(false), project.getPersons(false), project.getDestinations(false),
+                project.getSessionGroups(false), project };
+        }
+
+        int check() {
+            int[] openSessions = new int[1];
+            int err = runAuditLogbook(logbookName, getChangedKeys(), openSessions);
+            // open sessions depend on boat status, so they have to be checked again next time
+            clean = (openSessions[0] == 0);
+            return err;
+        }
+
+        void finish() {
+            if (logbook != null && !wasLogbookOpen && logbook != project.getCurrentLogbook()) {
+                Logger.log(Logger.DEBUG, Logger.MSG_DATA_AUDIT,
+                        "runAuditLogbook(" + logbookName + "): Closing Logbook after Audit.");
+                try {
+                    logbook.close();
+                } catch (Exception e) {
+                    Logger.logdebug(e);
+                }
+            }
+        }
+    }
+
+    private class PurgeAuditCheck extends AuditCheck {
+
+        private StorageObject so;
+        private String itemDescription;
+
+        PurgeAuditCheck(StorageObject so, String itemDescription) {
+            super("purge." + so.data().getStorageObjectType());
+            this.so = so;
+            this.itemDescription = itemDescription;
+        }
+
+        StorageObject[] getDependencies() {
+            return new StorageObject[] { so };
+        }
+
+        int check() {
+            return runAuditPurgeDeletedRecords(so, itemDescription);
+        }
+    }
+
+    // Fingerprint of the SCNs of storage objects (starting at index from) and of today's
+    // date, or null if it can't be determined.
+    private static String getFingerprint(StorageObject[] storageObjects, int from) {
+        if (storageObjects == null) {
+            return null;
+        }
+        try {
+            StringBuilder s = new StringBuilder(DataTypeDate.today().toString());
+            for (int i = from; i < storageObjects.length; i++) {
+                StorageObject so = storageObjects[i];
+                if (so == null || !so.isOpen()) {
+                    return null;
+                }
+                s.append("|" + so.data().getUID() + "=" + so.data().getSCN());
+            }
+            return s.toString();
+        } catch (Exception e) {
+            Logger.logdebug(e);
+            return null;
+        }
+    }
+
+    private int runAuditChecks(ArrayList<AuditCheck> checks) throws Exception {
+        int threads = Math.max(1, Math.min(checks.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int err = 0;
+        try {
+            for (Future<Integer> f : executor.invokeAll(checks)) {
+                err += f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return err;
+    }
+
+    private String getStateFilename() {
+        if (Daten.efaCfgDirectory == null) {
+            return null;
+        }
+        return Daten.efaCfgDirectory + "audit." + project.getProjectName() + ".properties";
+    }
+
+    private void loadState() {
+        state = new Properties();
+        String filename = getStateFilename();
+        if (filename == null || !(new File(filename)).exists()) {
+            return;
+        }
+        try {
+            FileInputStream in = new FileInputStream(filename);
+            try {
+                state.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            Logger.logdebug(e);
+            state = new Properties();
+        }
+    }
+
+    private void saveState() {
+        String filename = getStateFilename();
+        if (filename == null) {
+            return;
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(filename);
+            try {
+                state.store(out, "efa Audit State for Project " + project.getProjectName());
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            Logger.log(Logger.WARNING, Logger.MSG_DATA_AUDIT,
+                    LogString.fileWritingFailed(filename, "Audit State", e.toString()));
+        }
+    }
+
     private int runAuditPersistence(StorageObject p, String dataType) {
         if (p != null && p.isOpen()) {
             Logger.log(Logger.DEBUG, Logger.MSG_DATA_AUDIT, dataType + " open (" + p.toString() + ")");
@@ -1015,6 +1255,7 @@ public class Audit extends Thread {
         try {
             Messages messages = project.getMessages(false);
             if ((messages.data().getStorageType() == IDataAccess.TYPE_FILE_XML)
+                 || (messages.data().getStorageType() == IDataAccess.TYPE_FILE_BINARY)
                  || (messages.data().getStorageType() == IDataAccess.TYPE_EFA_CLOUD))
             {
                 long size = ((DataFile)messages.data()).getFileSize();
@@ -1104,7 +1345,8 @@ public class Audit extends Thread {
         }
     }
 
-    private int runAuditLogbook(String logbookName) {
+    // keys: the records to be checked, or null for all records
+    private int runAuditLogbook(String logbookName, DataKey[] keys, int[] openSessions) {
         int logbookErr = 0;
         try {
             Boats boats = project.getBoats(false);
@@ -1120,12 +1362,18 @@ public class Audit extends Thread {
             }
             UUID id;
 
-            boolean wasLogbookOpen = project.isLogbookOpen(logbookName);
             Logbook logbook = project.getLogbook(logbookName, false);
-            DataKeyIterator it = logbook.dataAccess.getStaticIterator();
-            DataKey k = it.getFirst();
-            while (k != null) {
+            if (keys == null) {
+                keys = logbook.dataAccess.getAllKeys();
+            } else {
+                Logger.log(Logger.DEBUG, Logger.MSG_DATA_AUDIT,
+                        "runAuditLogbook(" + logbookName + "): checking " + keys.length + " changed records only.");
+            }
+            for (DataKey k : keys) {
                 LogbookRecord r = (LogbookRecord)logbook.dataAccess.get(k);
+                if (r == null) {
+                    continue; // deleted
+                }
                 long validAt = r.getValidAtTimestamp();
                 boolean updated = false;
 
@@ -1363,14 +1611,9 @@ public class Audit extends Thread {
                         logbook.dataAccess.update(r);
                     }
                 }
-
-                k = it.getNext();
-            }
-
-            if (!wasLogbookOpen && logbook != project.getCurrentLogbook()) {
-                Logger.log(Logger.DEBUG, Logger.MSG_DATA_AUDIT,
-                        "runAuditLogbook("+logbookName+"): Closing Logbook after Audit.");
-                logbook.close();
+                if (r.getSessionIsOpen()) {
+                    openSessions[0]++;
+                }
             }
 
             return logbookErr;
@@ -1458,6 +1701,7 @@ public class Audit extends Thread {
             warnings = 0;
             infos = 0;
             auditMessages = new StringBuilder();
+            loadState();
             Logger.log(Logger.DEBUG, Logger.MSG_DATA_AUDIT,
                     "Starting Project Audit for Project: " + project.getProjectName());
             addMessageToBuffer("Audit Report for Project: " + project.getProjectName());
@@ -1477,29 +1721,105 @@ public class Audit extends Thread {
                 runAuditPersistence(project.getMessages(false), Messages.DATATYPE);
 
                 errors += runAuditProject();
-                errors += runAuditBoats();
-                errors += runAuditCrews();
-                errors += runAuditGroups();
-                errors += runAuditDestinations();
-                errors += runAuditWaters();
-                errors += runAuditStatus();
-                errors += runAuditPersons();
-                errors += runAuditFahrtenabzeichen();
-                errors += runAuditMessages();
-                errors += runAuditStatistics();
+
+                // the checks of different tables are independent of each other (each check
+                // only modifies its own storage objects), so they run in parallel
+                ArrayList<AuditCheck> checks = new ArrayList<AuditCheck>();
+                checks.add(new AuditCheck("boats") {
+                    // boat status, reservations and damages change frequently: always run
+                    int check() {
+                        return runAuditBoats();
+                    }
+                });
+                checks.add(new AuditCheck("crews") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getCrews(false), project.getPersons(false) };
+                    }
+                    int check() {
+                        return runAuditCrews();
+                    }
+                });
+                checks.add(new AuditCheck("groups") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getGroups(false), project.getPersons(false) };
+                    }
+                    int check() {
+                        return runAuditGroups();
+                    }
+                });
+                checks.add(new AuditCheck("destinations") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getDestinations(false), project.getWaters(false), project };
+                    }
+                    int check() {
+                        return runAuditDestinations();
+                    }
+                });
+                checks.add(new AuditCheck("waters") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getWaters(false) };
+                    }
+                    int check() {
+                        return runAuditWaters();
+                    }
+                });
+                checks.add(new AuditCheck("status") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getStatus(false) };
+                    }
+                    int check() {
+                        return runAuditStatus();
+                    }
+                });
+                checks.add(new AuditCheck("persons") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getPersons(false), project.getBoats(false), project.getStatus(false) };
+                    }
+                    int check() {
+                        return runAuditPersons();
+                    }
+                });
+                checks.add(new AuditCheck("fahrtenabzeichen") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getFahrtenabzeichen(false), project.getPersons(false) };
+                    }
+                    int check() {
+                        return runAuditFahrtenabzeichen();
+                    }
+                });
+                checks.add(new AuditCheck("messages") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getMessages(false) };
+                    }
+                    int check() {
+                        return runAuditMessages();
+                    }
+                });
+                checks.add(new AuditCheck("statistics") {
+                    StorageObject[] getDependencies() {
+                        return new StorageObject[] { project.getStatistics(false) };
+                    }
+                    int check() {
+                        return runAuditStatistics();
+                    }
+                });
                 String[] logbookNames = project.getAllLogbookNames();
                 for (int i = 0; logbookNames != null && i < logbookNames.length; i++) {
-                    errors += runAuditLogbook(logbookNames[i]);
+                    checks.add(new LogbookAuditCheck(logbookNames[i]));
                 }
+                errors += runAuditChecks(checks);
+
                 if (errors == 0) {
-                    runAuditPurgeDeletedRecords(project.getBoats(false),
-                            International.getString("Boot"));
-                    runAuditPurgeDeletedRecords(project.getPersons(false),
-                            International.getString("Person"));
-                    runAuditPurgeDeletedRecords(project.getDestinations(false),
-                            International.getString("Ziel"));
-                    runAuditPurgeDeletedRecords(project.getGroups(false),
-                            International.getString("Gruppe"));
+                    checks = new ArrayList<AuditCheck>();
+                    checks.add(new PurgeAuditCheck(project.getBoats(false),
+                            International.getString("Boot")));
+                    checks.add(new PurgeAuditCheck(project.getPersons(false),
+                            International.getString("Person")));
+                    checks.add(new PurgeAuditCheck(project.getDestinations(false),
+                            International.getString("Ziel")));
+                    checks.add(new PurgeAuditCheck(project.getGroups(false),
+                            International.getString("Gruppe")));
+                    runAuditChecks(checks);
                 }
                 errors += runAuditClubworks();
             } catch (Exception e) {
@@ -1507,6 +1827,7 @@ public class Audit extends Thread {
                         "runAudit() Caught Exception: " + e.toString());
                 Logger.log(e);
             }
+            saveState();
             boolean logEnd = (errors > 0 || warnings > 0 || infos > 0);
             String s = Logger.log((errors == 0 ? (logEnd ? Logger.INFO : Logger.DEBUG) : Logger.ERROR),
                     Logger.MSG_DATA_AUDIT,
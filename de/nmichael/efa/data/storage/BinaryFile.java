@@ -0,0 +1,298 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data.storage;
+
+import de.nmichael.efa.Daten;
+import de.nmichael.efa.data.types.*;
+import de.nmichael.efa.util.*;
+import de.nmichael.efa.ex.EfaException;
+import java.io.*;
+import java.util.*;
+
+// @i18n complete
+
+/**
+ * Storage Object with a compact binary file format.
+ *
+ * File Layout:
+ *   int     MAGIC
+ *   short   FORMAT_VERSION
+ *   string  program, efa version, storage object name, storage object type
+ *   long    scn
+ *   short   number of fields, followed by (string name, int type) for each field
+ *   records, each as int length followed by length bytes of record data;
+ *           a length of -1 marks the end of the data
+ * Record Data:
+ *   short   number of values, followed by (short field number, value) for each value
+ * Strings are stored as int length followed by their UTF-8 bytes. Values are stored
+ * in a binary representation of their field type; types without a binary representation
+ * are stored as strings. Unset (default) values are not stored at all.
+ *
+ * Field numbers refer to the field list in the file header (not to the current MetaData),
+ * so files remain readable if fields are added, removed or reordered.
+ * For backups and exports, data is still written in XML (see DataAccess.saveToZipFile()).
+ * Files in XML format are read as well, so existing XML storage objects are converted
+ * into binary format the next time they are saved.
+ */
+public class BinaryFile extends XMLFile {
+
+    public static final int MAGIC = 0x45464142; // "EFAB"
+    public static final short FORMAT_VERSION = 1;
+
+    private static final int END_OF_DATA = -1;
+
+    public BinaryFile(String directory, String filename, String extension, String description) {
+        super(directory, filename, extension, description);
+    }
+
+    public int getStorageType() {
+        return IDataAccess.TYPE_FILE_BINARY;
+    }
+
+    protected synchronized void readFile(InputStream in) throws EfaException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        boolean binary = false;
+        try {
+            bin.mark(4);
+            DataInputStream din = new DataInputStream(bin);
+            binary = din.readInt() == MAGIC;
+            bin.reset();
+        } catch(IOException e) {
+            // file too short: can't be binary
+            try {
+                bin.reset();
+            } catch(IOException eignore) {
+            }
+        }
+        if (binary) {
+            readBinaryFile(new DataInputStream(bin));
+        } else {
+            // file still in XML format (will be converted when saved)
+            super.readFile(bin);
+        }
+    }
+
+    private void readBinaryFile(DataInputStream in) throws EfaException {
+        isOpen = true;
+        long lock = -1;
+        try {
+            lock = acquireGlobalLock();
+        } finally {
+            isOpen = false;
+        }
+        if (lock < 0) {
+            throw new EfaException(Logger.MSG_DATA_READFAILED, LogString.fileReadFailed(filename, storageLocation, "Cannot get Global Lock for File Reading"), Thread.currentThread().getStackTrace());
+        }
+        try {
+            clearAllData();
+            inOpeningStorageObject = true; // don't update LastModified Timestamps, don't increment SCN, don't check assertions!
+
+            // header
+            if (in.readInt() != MAGIC || in.readShort() > FORMAT_VERSION) {
+                throw new EfaException(Logger.MSG_DATA_INVALIDHEADER, filename + ": Unsupported File Format", Thread.currentThread().getStackTrace());
+            }
+            String program = readString(in);
+            String version = readString(in);
+            String name = readString(in);
+            String type = readString(in);
+            if (!Daten.EFA.equals(program)) {
+                throw new EfaException(Logger.MSG_DATA_INVALIDHEADER, filename + ": Unexpected Value for Header Field " + FIELD_HEADER_PROGRAM + ": " + program, Thread.currentThread().getStackTrace());
+            }
+            if (!getStorageObjectName().equals(name)) {
+                throw new EfaException(Logger.MSG_DATA_INVALIDHEADER, filename + ": Unexpected Value for Header Field " + FIELD_HEADER_NAME + ": " + name, Thread.currentThread().getStackTrace());
+            }
+            if (!getStorageObjectType().equals(type)) {
+                throw new EfaException(Logger.MSG_DATA_INVALIDHEADER, filename + ": Unexpected Value for Header Field " + FIELD_HEADER_TYPE + ": " + type, Thread.currentThread().getStackTrace());
+            }
+            setSCN(in.readLong());
+
+            // fields (mapped onto the current MetaData)
+            int fieldCount = in.readShort();
+            String[] fieldNames = new String[fieldCount];
+            int[] fieldTypes = new int[fieldCount];
+            for (int i=0; i<fieldCount; i++) {
+                fieldNames[i] = getPersistence().transformFieldName(readString(in));
+                fieldTypes[i] = in.readInt();
+            }
+
+            // records
+            int length;
+            byte[] buf = new byte[1024];
+            while ((length = in.readInt()) != END_OF_DATA) {
+                if (length > buf.length) {
+                    buf = new byte[length];
+                }
+                in.readFully(buf, 0, length);
+                DataRecord r = getPersistence().createNewRecord();
+                DataInputStream rin = new DataInputStream(new ByteArrayInputStream(buf, 0, length));
+                int valueCount = rin.readShort();
+                for (int i=0; i<valueCount; i++) {
+                    int f = rin.readShort();
+                    Object value = readValue(rin, fieldTypes[f]);
+                    try {
+                        int currentType = r.getFieldType(fieldNames[f]);
+                        if (currentType != IDataAccess.DATA_UNKNOWN && currentType != fieldTypes[f]) {
+                            // field type has changed since file was written
+                            value = value.toString();
+                        }
+                        r.set(fieldNames[f], value, false);
+                    } catch(Exception e) {
+                        Logger.log(Logger.ERROR, Logger.MSG_FILE_PARSEERROR,
+                                filename + ": Parse Error for Field " + fieldNames[f] + " = " + value + ": " + e.toString());
+                    }
+                }
+                try {
+                    add(r, lock);
+                } catch(Exception e) {
+                    Logger.log(Logger.ERROR, Logger.MSG_FILE_PARSEERROR, filename + ": Parse Error for Data Record " + r.toString() + ": " + e.toString());
+                    Logger.logdebug(e);
+                }
+            }
+        } catch(EfaException e) {
+            throw e;
+        } catch(Exception e) {
+            Logger.logdebug(e);
+            throw new EfaException(Logger.MSG_DATA_READFAILED, LogString.fileReadFailed(filename, storageLocation, e.toString()), Thread.currentThread().getStackTrace());
+        } finally {
+            inOpeningStorageObject = false;
+            releaseGlobalLock(lock);
+        }
+    }
+
+    protected synchronized void writeFile(OutputStream out) throws EfaException {
+        try {
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+            dout.writeInt(MAGIC);
+            dout.writeShort(FORMAT_VERSION);
+            writeString(dout, Daten.EFA);
+            writeString(dout, Daten.VERSIONID);
+            writeString(dout, getStorageObjectName());
+            writeString(dout, getStorageObjectType());
+            dout.writeLong(getSCN());
+
+            String[] fields = getFieldNames();
+            int[] types = new int[fields.length];
+            dout.writeShort(fields.length);
+            for (int i=0; i<fields.length; i++) {
+                types[i] = getFieldType(fields[i]);
+                writeString(dout, fields[i]);
+                dout.writeInt(types[i]);
+            }
+
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+            DataOutputStream rout = new DataOutputStream(buf);
+            DataKeyIterator it = getStaticIterator();
+            for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+                DataRecord r = getSnapshot(k); // immutable, no need to clone
+                if (r == null) {
+                    continue;
+                }
+                buf.reset();
+                int valueCount = 0;
+                for (int i=0; i<fields.length; i++) {
+                    if (r.get(fields[i]) != null && types[i] != IDataAccess.DATA_VIRTUAL && !r.isDefaultValue(fields[i])) {
+                        valueCount++;
+                    }
+                }
+                rout.writeShort(valueCount);
+                for (int i=0; i<fields.length; i++) {
+                    Object o = r.get(fields[i]);
+                    if (o != null && types[i] != IDataAccess.DATA_VIRTUAL && !r.isDefaultValue(fields[i])) {
+                        rout.writeShort(i);
+                        writeValue(rout, types[i], o);
+                    }
+                }
+                rout.flush();
+                dout.writeInt(buf.size());
+                buf.writeTo(dout);
+            }
+            dout.writeInt(END_OF_DATA);
+            dout.flush(); // don't close out, this is done by the caller
+        } catch(Exception e) {
+            Logger.log(e);
+            throw new EfaException(Logger.MSG_DATA_WRITEFAILED,
+                    LogString.fileWritingFailed(getUID(), getStorageObjectDescription(), e.toString()), Thread.currentThread().getStackTrace());
+        }
+    }
+
+    // ============== encoding of values ==============
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(ENCODING);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, ENCODING);
+    }
+
+    private static void writeValue(DataOutputStream out, int type, Object o) throws IOException {
+        switch(type) {
+            case IDataAccess.DATA_INTEGER:
+                out.writeInt(((Integer)o).intValue());
+                break;
+            case IDataAccess.DATA_LONGINT:
+                out.writeLong(((Long)o).longValue());
+                break;
+            case IDataAccess.DATA_DOUBLE:
+                out.writeDouble(((Double)o).doubleValue());
+                break;
+            case IDataAccess.DATA_BOOLEAN:
+                out.writeBoolean(((Boolean)o).booleanValue());
+                break;
+            case IDataAccess.DATA_UUID:
+                out.writeLong(((UUID)o).getMostSignificantBits());
+                out.writeLong(((UUID)o).getLeastSignificantBits());
+                break;
+            case IDataAccess.DATA_DATE:
+                out.writeByte(((DataTypeDate)o).getDay());
+                out.writeByte(((DataTypeDate)o).getMonth());
+                out.writeShort(((DataTypeDate)o).getYear());
+                break;
+            case IDataAccess.DATA_TIME:
+                out.writeByte(((DataTypeTime)o).getHour());
+                out.writeByte(((DataTypeTime)o).getMinute());
+                out.writeByte(((DataTypeTime)o).getSecond());
+                break;
+            default:
+                writeString(out, o.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in, int type) throws IOException {
+        switch(type) {
+            case IDataAccess.DATA_INTEGER:
+                return in.readInt();
+            case IDataAccess.DATA_LONGINT:
+                return in.readLong();
+            case IDataAccess.DATA_DOUBLE:
+                return in.readDouble();
+            case IDataAccess.DATA_BOOLEAN:
+                return in.readBoolean();
+            case IDataAccess.DATA_UUID:
+                return new UUID(in.readLong(), in.readLong());
+            case IDataAccess.DATA_DATE:
+                int day = in.readByte();
+                int month = in.readByte();
+                return new DataTypeDate(day, month, in.readShort());
+            case IDataAccess.DATA_TIME:
+                int hour = in.readByte();
+                int minute = in.readByte();
+                return new DataTypeTime(hour, minute, in.readByte());
+            default:
+                return readString(in);
+        }
+    }
+
+}
@@ -17,6 +17,7 @@ import de.nmichael.efa.ex.EfaException;
 import de.nmichael.efa.util.LogString;
 import de.nmichael.efa.util.Logger;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -41,6 +42,9 @@ public abstract class DataAccess implements IDataAccess {
     protected boolean inOpeningStorageObject = false;
     protected boolean isPreModifyRecordCallbackEnabled = true;
 
+    private final ArrayList<IDataChangeListener> changeListeners = new ArrayList<IDataChangeListener>();
+    private long changeListenersScn = -1; // SCN up to which changes have been notified
+
     public static IDataAccess createDataAccess(StorageObject persistence,
             int type,
             String storageLocation,
@@ -55,6 +59,10 @@ public abstract class DataAccess implements IDataAccess {
                 dataAccess = (IDataAccess)new XMLFile(storageLocation, storageObjectName, storageObjectType, storageObjectDescription);
                 dataAccess.setPersistence(persistence);
                 return dataAccess;
+            case IDataAccess.TYPE_FILE_BINARY:
+                dataAccess = (IDataAccess)new BinaryFile(storageLocation, storageObjectName, storageObjectType, storageObjectDescription);
+                dataAccess.setPersistence(persistence);
+                return dataAccess;
             case IDataAccess.TYPE_EFA_CLOUD:
                 Project p = Daten.project;
                 try {
@@ -174,6 +182,10 @@ public abstract class DataAccess implements IDataAccess {
             for (int i=0; i<indexFields.length; i++) {
                 createIndex(indexFields[i]);
             }
+            indexFields = meta.getSortedIndices();
+            for (int i=0; i<indexFields.length; i++) {
+                createSortedIndex(indexFields[i]);
+            }
             referenceRecord = persistence.createNewRecord();
         } catch(Exception e) {
             e.printStackTrace();
@@ -270,6 +282,51 @@ public abstract class DataAccess implements IDataAccess {
         return new DataKey(key,bUnversionized); // this is the corresponding "unversionized" key (i.e. key with only unversionized fields)
     }
 
+    public DataRecord[] get(DataKey[] keys) throws EfaException {
+        DataRecord[] records = new DataRecord[keys.length];
+        for (int i=0; i<keys.length; i++) {
+            records[i] = get(keys[i]);
+        }
+        return records;
+    }
+
+    public DataKey[] getByFieldsRange(String[] fieldNames, Object[] fromValues, Object[] toValues) throws EfaException {
+        return getByFieldsRangeWithoutIndex(fieldNames,
+                DataIndexSorted.getBound(fromValues, fieldNames.length, true),
+                DataIndexSorted.getBound(toValues, fieldNames.length, false));
+    }
+
+    public DataKey[] getByFieldsPrefix(String[] fieldNames, Object[] values) throws EfaException {
+        Object[][] bounds = DataIndexSorted.getPrefixBounds(values, fieldNames.length);
+        return getByFieldsRangeWithoutIndex(fieldNames, bounds[0], bounds[1]);
+    }
+
+    // Search all records for the ones within [from, to] (bounds as built by DataIndexSorted).
+    // Used if the storage object has no sorted index on fieldNames.
+    protected DataKey[] getByFieldsRangeWithoutIndex(String[] fieldNames, Object[] from, Object[] to) throws EfaException {
+        int[] fieldIdx = new int[fieldNames.length];
+        for (int i=0; i<fieldNames.length; i++) {
+            fieldIdx[i] = meta.getFieldIndex(fieldNames[i]);
+        }
+        ArrayList<DataKey> matches = new ArrayList<DataKey>();
+        Object[] values = new Object[fieldIdx.length];
+        DataKeyIterator it = getStaticIterator();
+        DataKey key = it.getFirst();
+        while (key != null) {
+            DataRecord rec = get(key);
+            if (rec != null && !rec.getDeleted()) {
+                for (int i=0; i<fieldIdx.length; i++) {
+                    values[i] = rec.get(fieldIdx[i]);
+                }
+                if (DataIndexSorted.isInRange(values, from, to)) {
+                    matches.add(key);
+                }
+            }
+            key = it.getNext();
+        }
+        return (matches.size() > 0 ? matches.toArray(new DataKey[0]) : null);
+    }
+
     public String getTypeName(int type) {
         switch(type) {
             case DATA_STRING:
@@ -343,15 +400,33 @@ public abstract class DataAccess implements IDataAccess {
         if (!isStorageObjectOpen()) {
             throw new EfaException(Logger.MSG_DATA_SAVEFAILED, LogString.fileWritingFailed("ZIP Buffer", storageLocation, "Storage Object is not open"), Thread.currentThread().getStackTrace());
         }
+        String zipFileEntry = getZipFileEntryName(dir);
+        try {
+            ZipEntry entry = new ZipEntry(zipFileEntry);
+            zipOut.putNextEntry(entry);
+        } catch(Exception e) {
+            throw new EfaException(Logger.MSG_DATA_SAVEFAILED,
+                    LogString.fileWritingFailed("ZIP Buffer", storageLocation, e.toString()), Thread.currentThread().getStackTrace());
+        }
+        return saveToStream(zipFileEntry, zipOut);
+    }
+
+    public String getZipFileEntryName(String dir) {
         if (dir.length() > 0 && !dir.endsWith(Daten.fileSep)) {
             dir += Daten.fileSep;
         }
-        String zipFileEntry = dir + getStorageObjectName() + "." + getStorageObjectType();
+        return dir + getStorageObjectName() + "." + getStorageObjectType();
+    }
+
+    // Writes all data in XML format as for a ZIP file entry zipFileEntry (e.g. into
+    // a buffer, so that several storage objects can be serialized in parallel)
+    public BackupMetaDataItem saveToStream(String zipFileEntry, OutputStream out) throws EfaException {
+        if (!isStorageObjectOpen()) {
+            throw new EfaException(Logger.MSG_DATA_SAVEFAILED, LogString.fileWritingFailed("ZIP Buffer", storageLocation, "Storage Object is not open"), Thread.currentThread().getStackTrace());
+        }
         long lock = -1;
         BackupMetaDataItem metaData = null;
         try {
-            ZipEntry entry = new ZipEntry(zipFileEntry);
-            zipOut.putNextEntry(entry);
             lock = acquireGlobalLock();
             metaData = new BackupMetaDataItem(getStorageObjectName(),
                     getStorageObjectType(),
@@ -359,7 +434,7 @@ public abstract class DataAccess implements IDataAccess {
                     getStorageObjectDescription(),
                     getNumberOfRecords(),
                     getSCN());
-            XMLFile.writeFile(this, zipOut);
+            XMLFile.writeFile(this, out);
         } catch(Exception e) {
             throw new EfaException(Logger.MSG_DATA_SAVEFAILED,
                     LogString.fileWritingFailed("ZIP Buffer", storageLocation, e.toString()), Thread.currentThread().getStackTrace());
@@ -395,4 +470,62 @@ public abstract class DataAccess implements IDataAccess {
             setInOpeningStorageObject(false);
         }
     }
+
+    public DataKey[] getChangesSince(long scn) {
+        return null; // changes are not tracked, unless overridden
+    }
+
+    public void addChangeListener(IDataChangeListener listener) {
+        synchronized (changeListeners) {
+            if (changeListeners.isEmpty()) {
+                try {
+                    changeListenersScn = getSCN();
+                } catch (Exception e) {
+                    Logger.logdebug(e);
+                    changeListenersScn = -1;
+                }
+            }
+            changeListeners.add(listener);
+        }
+    }
+
+    public void removeChangeListener(IDataChangeListener listener) {
+        synchronized (changeListeners) {
+            changeListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Notifies all change listeners of the changes since the previous notification.
+     * To be called after changes have been completed (without holding any locks on
+     * the data). Notifications are serialized, so listeners see them in SCN order.
+     */
+    protected void fireDataChanged() {
+        synchronized (changeListeners) {
+            if (changeListeners.isEmpty()) {
+                return;
+            }
+            long scn;
+            try {
+                scn = getSCN();
+            } catch (Exception e) {
+                Logger.logdebug(e);
+                return;
+            }
+            if (scn == changeListenersScn) {
+                return; // already notified by a concurrent caller
+            }
+            DataKey[] changedKeys = (changeListenersScn >= 0 && scn > changeListenersScn ?
+                getChangesSince(changeListenersScn) : null);
+            changeListenersScn = scn;
+            for (IDataChangeListener listener : changeListeners.toArray(new IDataChangeListener[0])) {
+                try {
+                    listener.dataChanged(this, scn, changedKeys);
+                } catch (Exception e) {
+                    Logger.logdebug(e);
+                }
+            }
+        }
+    }
+
 }
@@ -23,6 +23,8 @@ public class DataCache {
     private long scn = -1;
     private long totalNumberOfRecords = -1;
     private Hashtable<DataKey,DataRecord> cache = new Hashtable<DataKey,DataRecord>();
+    // for versionized data: all cached versions of a record (by unversionized key), sorted by ValidFrom
+    private Hashtable<DataKey,ArrayList<DataKey>> versions = new Hashtable<DataKey,ArrayList<DataKey>>();
 
     public DataCache(IDataAccess dataAccess, long cacheExpiryTime) {
         this.dataAccess = dataAccess;
@@ -33,18 +35,76 @@ public class DataCache {
         if (scn != -1 && totalNumberOfRecords != -1) {
             updateScn(scn, totalNumberOfRecords);
         }
-        cache.put(record.getKey(), record);
+        putRecord(record);
+    }
+
+    private void putRecord(DataRecord record) {
+        DataKey key = record.getKey();
+        if (cache.put(key, record) == null && dataAccess.getMetaData() != null && dataAccess.getMetaData().versionized) {
+            DataKey keyUnversionized = dataAccess.getUnversionizedKey(key);
+            ArrayList<DataKey> list = versions.get(keyUnversionized);
+            if (list == null) {
+                list = new ArrayList<DataKey>();
+                versions.put(keyUnversionized, list);
+            }
+            DataVersionChain.insert(list, key, dataAccess.getKeyFieldNames().length - 1);
+        }
+    }
+
+    private void removeRecord(DataKey key) {
+        if (cache.remove(key) != null && dataAccess.getMetaData() != null && dataAccess.getMetaData().versionized) {
+            DataKey keyUnversionized = dataAccess.getUnversionizedKey(key);
+            ArrayList<DataKey> list = versions.get(keyUnversionized);
+            if (list != null) {
+                list.remove(key);
+                if (list.size() == 0) {
+                    versions.remove(keyUnversionized);
+                }
+            }
+        }
     }
 
     public synchronized void updateScn(long newScn, long newTotalNumberOfRecords){
         lastScnUpdate = System.currentTimeMillis();
         if (scn != newScn) {
-            cache.clear();
+            // if possible, only fetch the records which have changed since our SCN
+            // (this will update scn as well); otherwise, all cached data is invalid
+            if (scn < 0 || newScn < scn || !(dataAccess instanceof RemoteEfaClient) ||
+                !((RemoteEfaClient)dataAccess).fetchChanges(scn, 0)) {
+                cache.clear();
+                versions.clear();
+                scn = newScn;
+            }
         }
+        scn = Math.max(scn, newScn);
+        totalNumberOfRecords = newTotalNumberOfRecords;
+    }
+
+    /**
+     * Applies changes as received from the server.
+     * @param newScn the SCN after all changes
+     * @param changedRecords all records added or updated since the current SCN
+     * @param deletedKeys all keys deleted since the current SCN
+     */
+    public synchronized void applyChanges(long newScn, long newTotalNumberOfRecords,
+            DataRecord[] changedRecords, DataKey[] deletedKeys) {
+        for (int i=0; changedRecords != null && i<changedRecords.length; i++) {
+            if (changedRecords[i] != null) {
+                putRecord(changedRecords[i]);
+            }
+        }
+        for (int i=0; deletedKeys != null && i<deletedKeys.length; i++) {
+            removeRecord(deletedKeys[i]);
+        }
+        lastScnUpdate = System.currentTimeMillis();
         scn = newScn;
         totalNumberOfRecords = newTotalNumberOfRecords;
     }
 
+    synchronized long getScn() {
+        return scn;
+    }
+
     private boolean isTooOld() {
         return (scn < 0 || System.currentTimeMillis() - lastScnUpdate > MAX_AGE);
     }
@@ -107,26 +167,15 @@ public class DataCache {
             // wrong call: not versionized
             return null;
         }
-        DataKey[] keys = cache.keySet().toArray(new DataKey[0]);
-        if (keys == null) {
+        ArrayList<DataKey> list = versions.get(dataAccess.getUnversionizedKey(key));
+        if (list == null) {
             return null;
         }
-        for (DataKey k : keys) {
-            boolean sameRecord = true;
-            for (int i=0; i<validFromField; i++) {
-                if (k.getKeyPart(i) == null || !k.getKeyPart(i).equals(key.getKeyPart(i))) {
-                    sameRecord = false;
-                }
-            }
-            if (!sameRecord) {
-                continue;
-            }
-            long validFrom = (Long) k.getKeyPart(validFromField);
-            if (t >= validFrom) {
-                DataRecord rec = get(k);
-                if (rec != null && t >= rec.getValidFrom() && t < rec.getInvalidFrom()) {
-                    return rec;
-                }
+        // start with the latest version with validFrom <= t (usually the one we're looking for)
+        for (int i = DataVersionChain.floor(list, t, validFromField); i >= 0; i--) {
+            DataRecord rec = cache.get(list.get(i));
+            if (rec != null && t >= rec.getValidFrom() && t < rec.getInvalidFrom()) {
+                return rec;
             }
         }
         return null;
@@ -140,29 +189,17 @@ public class DataCache {
     }
 
     private synchronized DataRecord[] getValidAnyFromCache(DataKey key) {
-        int validFromField;
-        if (dataAccess.getMetaData().versionized) {
-            validFromField = dataAccess.getKeyFieldNames().length - 1; // VALID_FROM is always the last key field!
-        } else {
+        if (!dataAccess.getMetaData().versionized) {
             // wrong call: not versionized
             return null;
         }
-        DataKey[] keys = cache.keySet().toArray(new DataKey[0]);
-        if (keys == null) {
+        ArrayList<DataKey> list = versions.get(dataAccess.getUnversionizedKey(key));
+        if (list == null) {
             return null;
         }
         ArrayList<DataRecord> recordList = new ArrayList<DataRecord>();
-        for (DataKey k : keys) {
-            boolean sameRecord = true;
-            for (int i=0; i<validFromField; i++) {
-                if (k.getKeyPart(i) == null || !k.getKeyPart(i).equals(key.getKeyPart(i))) {
-                    sameRecord = false;
-                }
-            }
-            if (!sameRecord) {
-                continue;
-            }
-            DataRecord r = get(k);
+        for (DataKey k : list) {
+            DataRecord r = cache.get(k);
             if (r != null) {
                 recordList.add(r);
             }
@@ -181,40 +218,20 @@ public class DataCache {
     }
 
     private synchronized DataRecord getValidLatestFromCache(DataKey key) {
-        int validFromField;
-        if (dataAccess.getMetaData().versionized) {
-            validFromField = dataAccess.getKeyFieldNames().length - 1; // VALID_FROM is always the last key field!
-        } else {
+        if (!dataAccess.getMetaData().versionized) {
             // wrong call: not versionized
             return null;
         }
-        DataKey[] keys = cache.keySet().toArray(new DataKey[0]);
-        if (keys == null) {
+        ArrayList<DataKey> list = versions.get(dataAccess.getUnversionizedKey(key));
+        if (list == null) {
             return null;
         }
-        DataKey latestVersionKey = null;
-        DataRecord latestVersionRec = null;
-        for (DataKey k : keys) {
-            boolean sameRecord = true;
-            for (int i=0; i<validFromField; i++) {
-                if (k.getKeyPart(i) == null || !k.getKeyPart(i).equals(key.getKeyPart(i))) {
-                    sameRecord = false;
-                }
-            }
-            if (!sameRecord) {
-                continue;
+        // list is sorted by validFrom, so the first non-deleted record from the end is the latest
+        for (int i = list.size() - 1; i >= 0; i--) {
+            DataRecord r = cache.get(list.get(i));
+            if (r != null && !r.getDeleted()) {
+                return r;
             }
-            long validFrom = (Long) k.getKeyPart(validFromField);
-            if (latestVersionKey == null || validFrom > (Long) latestVersionKey.getKeyPart(validFromField)) {
-                DataRecord r = get(k);
-                if (!r.getDeleted()) {
-                    latestVersionKey = k;
-                    latestVersionRec = r;
-                }
-            }
-        }
-        if (latestVersionRec != null) {
-            return latestVersionRec;
         }
         return null;
     }
@@ -0,0 +1,109 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data.storage;
+
+import java.util.*;
+
+// @i18n complete
+
+/**
+ * In-memory log of the keys of the most recent changes of a storage object,
+ * ordered by SCN. It allows to find out which records have changed since a
+ * given SCN, as long as this SCN is not too far in the past, and to wait for
+ * changes.
+ */
+class DataChangeLog {
+
+    private static final int MAX_CHANGES = 1000;
+
+    static class Change {
+        final long scn;
+        final DataKey key;
+
+        Change(long scn, DataKey key) {
+            this.scn = scn;
+            this.key = key;
+        }
+    }
+
+    private final LinkedList<Change> changes = new LinkedList<Change>();
+    private long baseScn = -1;  // changes after this SCN are complete in the log
+    private long lastScn = -1;
+
+    /**
+     * Logs a change. scn must be the SCN of the storage object after the change.
+     * A null key means that all records have changed (e.g. truncate).
+     */
+    synchronized void add(long scn, DataKey key) {
+        if (key == null) {
+            reset(scn);
+            return;
+        }
+        if (baseScn < 0) {
+            baseScn = scn - 1;
+        }
+        changes.add(new Change(scn, key));
+        while (changes.size() > MAX_CHANGES) {
+            baseScn = changes.removeFirst().scn;
+        }
+        lastScn = scn;
+        notifyAll();
+    }
+
+    /**
+     * Drops all changes: the log is only complete for changes after scn.
+     */
+    synchronized void reset(long scn) {
+        changes.clear();
+        baseScn = scn;
+        lastScn = scn;
+        notifyAll();
+    }
+
+    /**
+     * Returns the keys of all records changed after scn (each key only once),
+     * or null if the log doesn't contain all changes since scn.
+     */
+    synchronized DataKey[] getChangesSince(long scn) {
+        if (baseScn < 0 || scn < baseScn || scn > lastScn) {
+            return null;
+        }
+        LinkedHashSet<DataKey> keys = new LinkedHashSet<DataKey>();
+        Iterator<Change> it = changes.descendingIterator();
+        while (it.hasNext()) {
+            Change c = it.next();
+            if (c.scn <= scn) {
+                break;
+            }
+            keys.add(c.key);
+        }
+        return keys.toArray(new DataKey[0]);
+    }
+
+    /**
+     * Waits until there are changes after scn, or until timeout (in ms) expires.
+     * @return true if there are changes after scn
+     */
+    synchronized boolean waitForChanges(long scn, long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        long now;
+        while (lastScn <= scn && (now = System.currentTimeMillis()) < end) {
+            try {
+                wait(end - now);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt(); // keep the interrupt for the caller
+                break;
+            }
+        }
+        return lastScn > scn;
+    }
+
+}
@@ -14,6 +14,8 @@ import de.nmichael.efa.*;
 import de.nmichael.efa.util.*;
 import de.nmichael.efa.ex.EfaException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.io.*;
 
 // @i18n complete
@@ -27,15 +29,31 @@ public abstract class DataFile extends DataAccess {
     protected String filename;
     protected String mirrorRelativeFilename;
     protected volatile boolean isOpen = false;
-    private final HashMap<DataKey,DataRecord> data = new HashMap<DataKey,DataRecord>();
-    private final HashMap<DataKey,ArrayList<DataKey>> versionizedKeyList = new HashMap<DataKey,ArrayList<DataKey>>();
+    // Writers synchronize on data; readers access data and versionizedKeyList without
+    // locking. Lists in versionizedKeyList are never modified once they have been put
+    // into the map (copy-on-write), so readers always see a consistent list.
+    // Lists in versionizedKeyList are sorted by ValidFrom (see DataVersionChain).
+    private final ConcurrentHashMap<DataKey,DataRecord> data = new ConcurrentHashMap<DataKey,DataRecord>();
+    private final ConcurrentHashMap<DataKey,ArrayList<DataKey>> versionizedKeyList = new ConcurrentHashMap<DataKey,ArrayList<DataKey>>();
     private final ArrayList<DataIndex> indices = new ArrayList<DataIndex>();
-    protected long scn = 0;
-    private DataKey[] cachedKeys; // are only updated by getAllKeys(), not automatically when data is changed!!
-    private long cachedKeysSCN = 0;
+    protected volatile long scn = 0;
+    // all keys of data in sorted order, maintained on every add and delete
+    private final ConcurrentSkipListSet<DataKey> sortedKeys = new ConcurrentSkipListSet<DataKey>();
+    private volatile long sortedKeysVersion = 0; // incremented on every change of sortedKeys
+    private DataKey[] cachedKeys; // snapshot of sortedKeys, only updated by getAllKeys()
+    private long cachedKeysVersion = -1;
     private final DataLocks dataLocks = new DataLocks();
     private DataFileWriter fileWriter;
     private Journal journal;
+    private volatile long journalSyncPendingScn = -1; // first SCN whose journal sync is deferred until global lock is released
+    private volatile boolean changeNotificationPending = false; // same for change listeners
+    private final DataChangeLog changeLog = new DataChangeLog();
+    private DataFileSegment segment;
+    private boolean incrementalSave = false;
+    private final LinkedHashMap<DataKey,DataRecord> unsavedChanges = new LinkedHashMap<DataKey,DataRecord>();
+    private boolean fullSaveRequired = true;
+    private long snapshotScn = -1;
+    private long backupScn = -1; // SCN of the most recent backup (.s0), -1 if unknown
 
     public DataFile(String directory, String name, String extension, String description) {
         setStorageLocation(directory);
@@ -86,6 +104,15 @@ public abstract class DataFile extends DataAccess {
         }
     }
 
+    private void setupSegment() {
+        segment = new DataFileSegment(getStorageObjectName()+"."+getStorageObjectType(), filename);
+        try {
+            incrementalSave = Daten.efaConfig.getValueDataFileIncrementalSave();
+        } catch(Exception eignore) {
+            incrementalSave = false;
+        }
+    }
+
     public synchronized boolean existsStorageObject() throws EfaException {
         if (filename == null) {
             throw new EfaException(Logger.MSG_DATA_GENERICEXCEPTION, "No StorageObject name specified.", Thread.currentThread().getStackTrace());
@@ -104,6 +131,11 @@ public abstract class DataFile extends DataAccess {
             fout.close();
             scn = 0;
             setupJournal();
+            setupSegment();
+            segment.delete();
+            snapshotScn = scn;
+            backupScn = -1;
+            fullSaveRequired = false;
             isOpen = true;
             fileWriter = new DataFileWriter(this);
             fileWriter.start();
@@ -169,9 +201,14 @@ public abstract class DataFile extends DataAccess {
                         descr, filename)));
         }
         scn = 0;
-        BufferedReader fr = new BufferedReader(new InputStreamReader(new FileInputStream(filename), ENCODING));
-        readFile(fr);
-        fr.close();
+        InputStream in = new FileInputStream(filename);
+        try {
+            readFile(in);
+        } finally {
+            in.close();
+        }
+        snapshotScn = scn;
+        backupScn = -1;
         if (recover) {
             Logger.log(Logger.INFO, Logger.MSG_DATA_RECOVERYSTART,
                     LogString.fileOpened(filename, 
@@ -234,10 +271,17 @@ public abstract class DataFile extends DataAccess {
                 }
             }
             setupJournal();
+            setupSegment();
+            boolean segmentReplayed = false;
+            if (recovered) {
+                fullSaveRequired = true;
+            } else {
+                segmentReplayed = replaySegment();
+            }
             isOpen = true;
             fileWriter = new DataFileWriter(this);
             fileWriter.start();
-            if (recovered || shouldWriteMirrorFile()) {
+            if (recovered || shouldWriteMirrorFile() || (segmentReplayed && !incrementalSave)) {
                 saveStorageObject();
             }
         } catch(Exception e) {
@@ -248,6 +292,65 @@ public abstract class DataFile extends DataAccess {
         }
     }
 
+    private boolean replaySegment() throws Exception {
+        synchronized (unsavedChanges) {
+            unsavedChanges.clear();
+        }
+        fullSaveRequired = false;
+        if (!segment.exists()) {
+            return false;
+        }
+        long lock = -1;
+        long segmentScn = -1;
+        isOpen = true;
+        try {
+            lock = acquireGlobalLock();
+            inOpeningStorageObject = true; // don't update LastModified Timestamps, don't increment SCN, don't check assertions!
+            segmentScn = segment.replay(this, lock);
+        } finally {
+            inOpeningStorageObject = false;
+            isOpen = false;
+            if (lock > 0) {
+                releaseGlobalLock(lock);
+            }
+        }
+        synchronized (unsavedChanges) {
+            unsavedChanges.clear();
+        }
+        if (segmentScn < 0) {
+            // stale or empty segment: start a new one with the next save
+            fullSaveRequired = true;
+            return false;
+        }
+        if (segmentScn > scn) {
+            scn = segmentScn;
+        }
+        return true;
+    }
+
+    // called by DataFileSegment while replaying a segment; requires a global lock
+    void replaySegmentRecord(DataRecord r, boolean delete, long lockID) throws EfaException {
+        DataRecord current = get(constructKey(r));
+        if (delete) {
+            if (current != null) {
+                modifyRecord(current, lockID, false, false, true);
+            }
+        } else {
+            modifyRecord(r, lockID, current == null, current != null, false);
+        }
+    }
+
+    private void trackUnsavedChange(DataKey key, DataRecord r) {
+        if (!isOpen) {
+            return; // reading the file
+        }
+        synchronized (unsavedChanges) {
+            // re-insert to keep the order of the last modification
+            unsavedChanges.remove(key);
+            unsavedChanges.put(key, r);
+        }
+    }
+
     private boolean shouldWriteMirrorFile() {
         try {
             String mirrorDir = Daten.efaConfig.getValueDataMirrorDirectory();
@@ -283,6 +386,7 @@ public abstract class DataFile extends DataAccess {
                 return;
             }
             fileWriter.save(true, false);
+            compactStorageObject();
             clearAllData();
             isOpen = false;
             closeJournal();
@@ -340,7 +444,12 @@ public abstract class DataFile extends DataAccess {
             if (Logger.isTraceOn(Logger.TT_FILEIO)) {
                 Logger.log(Logger.DEBUG, Logger.MSG_FILE_WRITETHREAD_SAVING, "DataFileWriter[" + filename + "] got global lock, now saving ...");
             }
-            saveStorageObject();
+            if (incrementalSave && !fullSaveRequired && segment.getSize() * 2 < getFileSize()
+                    && isRecoverableFromBackup()) {
+                saveStorageObjectIncrementally();
+            } else {
+                saveStorageObject();
+            }
             if (Logger.isTraceOn(Logger.TT_FILEIO)) {
                 Logger.log(Logger.DEBUG, Logger.MSG_FILE_WRITETHREAD_SAVING, "DataFileWriter[" + filename + "] data successfully saved.");
             }
@@ -363,11 +472,75 @@ public abstract class DataFile extends DataAccess {
             FileOutputStream fout = new FileOutputStream(filename, false);
             writeFile(fout);
             fout.close();
+            if (segment != null) {
+                segment.delete(); // all changes are now part of the snapshot
+            }
+            synchronized (unsavedChanges) {
+                unsavedChanges.clear();
+            }
+            backupScn = snapshotScn; // the previous snapshot is now the most recent backup
+            snapshotScn = scn;
+            fullSaveRequired = false;
         } catch(Exception e) {
             throw new EfaException(Logger.MSG_DATA_SAVEFAILED, LogString.fileWritingFailed(filename, storageLocation, e.toString()), Thread.currentThread().getStackTrace());
         }
     }
 
+    // Recovery from the most recent backup rolls forward the journals, which only keep the
+    // most recent changes. Saving incrementally keeps that backup, so it may only be kept as
+    // long as the journals still cover all changes since, with some margin for the changes
+    // until the next save. A backup of unknown age (after opening) isn't kept at all.
+    private boolean isRecoverableFromBackup() {
+        return backupScn >= 0 && scn - backupScn <= Journal.getRetainedScns() / 2;
+    }
+
+    // Appends all records changed since the last save to the segment file instead of
+    // rewriting the entire file. Requires a global lock (no modifications while saving).
+    private void saveStorageObjectIncrementally() throws EfaException {
+        ArrayList<DataRecord> records = new ArrayList<DataRecord>();
+        ArrayList<Boolean> deleted = new ArrayList<Boolean>();
+        synchronized (data) {
+            synchronized (unsavedChanges) {
+                for (DataKey k : unsavedChanges.keySet()) {
+                    DataRecord r = data.get(k);
+                    records.add(r != null ? r : unsavedChanges.get(k));
+                    deleted.add(r == null);
+                }
+            }
+        }
+        if (records.size() == 0) {
+            return;
+        }
+        if ((segment.getBaseScn() < 0 && !segment.create(snapshotScn)) ||
+            !segment.append(scn, records, deleted)) {
+            // fall back to a full save if the segment can't be written
+            saveStorageObject();
+            return;
+        }
+        synchronized (unsavedChanges) {
+            unsavedChanges.clear();
+        }
+        if (Logger.isTraceOn(Logger.TT_FILEIO)) {
+            Logger.log(Logger.DEBUG, Logger.MSG_FILE_WRITETHREAD_SAVING, "DataFileWriter[" + filename + "] appended " +
+                    records.size() + " records to " + segment.getFilename());
+        }
+    }
+
+    // Merges the segment file into a new snapshot of the data file.
+    // This method must *not* be synchronized (see closeStorageObject())
+    private void compactStorageObject() {
+        if (segment == null || !segment.exists() || !isStorageObjectOpen()) {
+            return;
+        }
+        fullSaveRequired = true;
+        try {
+            saveStorageObject(false);
+        } catch(Exception e) {
+            Logger.log(Logger.ERROR, Logger.MSG_DATA_SAVEFAILED,
+                    LogString.fileWritingFailed(filename, storageLocation, e.toString()));
+        }
+    }
+
     public boolean isStorageObjectOpen() {
         return isOpen;
     }
@@ -389,6 +562,9 @@ public abstract class DataFile extends DataAccess {
             if (journal != null) {
                 journal.deleteAllJournals();
             }
+            if (segment != null) {
+                segment.delete();
+            }
             deleteAllBackups();
         } catch(Exception e) {
             throw new EfaException(Logger.MSG_DATA_DELETEFAILED,
@@ -425,6 +601,15 @@ public abstract class DataFile extends DataAccess {
     }
 
     protected abstract void readFile(BufferedReader fr) throws EfaException;
+
+    // to be overwritten by subclasses which don't store their data as text
+    protected void readFile(InputStream in) throws EfaException {
+        try {
+            readFile(new BufferedReader(new InputStreamReader(in, ENCODING)));
+        } catch(UnsupportedEncodingException e) {
+            throw new EfaException(Logger.MSG_DATA_READFAILED, LogString.fileReadFailed(filename, storageLocation, e.toString()), Thread.currentThread().getStackTrace());
+        }
+    }
     protected abstract void writeFile(OutputStream out) throws EfaException;
 
     private long getLock(DataKey object) throws EfaException {
@@ -449,8 +634,32 @@ public abstract class DataFile extends DataAccess {
         return getLock(key);
     }
 
+    /**
+     * Releases a global lock. Journal entries logged while holding the lock are synced
+     * to disk before the lock is released.
+     * @return false if the lock wasn't held, or if the journal entries could not be synced
+     */
     public boolean releaseGlobalLock(long lockID) {
-        return dataLocks.releaseGlobalLock(lockID);
+        boolean synced = true;
+        long fromScn = journalSyncPendingScn;
+        if (fromScn > 0 && dataLocks.hasGlobalLock(lockID)) {
+            // sync all journal entries logged while holding the global lock at once
+            journalSyncPendingScn = -1;
+            long toScn = scn;
+            if (!journal.sync(toScn)) {
+                Logger.log(Logger.ERROR, Logger.MSG_DATA_JOURNALLOGFAILED,
+                        getUID() + ": Journal entries for SCN " + fromScn + " to " + toScn + " could not be written to disk");
+                synced = false;
+            }
+        }
+        if (!dataLocks.releaseGlobalLock(lockID)) {
+            return false;
+        }
+        if (changeNotificationPending && !Thread.holdsLock(data)) {
+            changeNotificationPending = false;
+            fireDataChanged();
+        }
+        return synced;
     }
 
     public boolean releaseLocalLock(long lockID) {
@@ -465,6 +674,24 @@ public abstract class DataFile extends DataAccess {
         this.scn = scn;
     }
 
+    public DataKey[] getChangesSince(long scn) {
+        if (scn == this.scn) {
+            return new DataKey[0];
+        }
+        return changeLog.getChangesSince(scn);
+    }
+
+    /**
+     * Waits until the SCN is different from scn, or until timeout (in ms) expires.
+     * @return true if there have been changes after scn
+     */
+    public boolean waitForChanges(long scn, long timeout) {
+        if (scn != this.scn) {
+            return true;
+        }
+        return changeLog.waitForChanges(scn, timeout);
+    }
+
     public void createIndex(String[] fieldNames) throws EfaException {
         int[] idxFields = new int[fieldNames.length];
         for (int i=0; i<idxFields.length; i++) {
@@ -473,6 +700,14 @@ public abstract class DataFile extends DataAccess {
         indices.add(new DataIndex(idxFields));
     }
 
+    public void createSortedIndex(String[] fieldNames) throws EfaException {
+        int[] idxFields = new int[fieldNames.length];
+        for (int i=0; i<idxFields.length; i++) {
+            idxFields[i] = meta.getFieldIndex(fieldNames[i]);
+        }
+        indices.add(new DataIndexSorted(idxFields));
+    }
+
     private DataRecord modifyRecord(DataRecord record, long lockID, boolean add, boolean update, boolean delete) throws EfaException {
         long myLock = -1;
         DataRecord newRecord = null;
@@ -494,6 +729,7 @@ public abstract class DataFile extends DataAccess {
                 getPersistence().preModifyRecordCallback(record, add, update, delete);
         }
 
+        long startTime = Metrics.start();
         DataKey key = constructKey(record);
         if (lockID <= 0) {
             // acquire a new local lock
@@ -503,6 +739,8 @@ public abstract class DataFile extends DataAccess {
             myLock = (dataLocks.hasGlobalLock(lockID) || dataLocks.hasLocalLock(lockID, key) ? lockID : -1);
         }
         if (myLock > 0) {
+            long journalScn = -1;
+            boolean journalSynced = true;
             try {
                 synchronized (data) {
                     DataRecord currentRecord = data.get(key);
@@ -540,10 +778,16 @@ public abstract class DataFile extends DataAccess {
                     }
                     if (add || update) {
                         newRecord = record.cloneRecord();
+                        newRecord.setImmutable();
                         if (inOpeningStorageObject || journal.log(scn+1, (add ? Journal.Operation.add : Journal.Operation.update), record)) {
                             data.put(key, newRecord);
+                            if (sortedKeys.add(key)) {
+                                sortedKeysVersion++;
+                            }
+                            trackUnsavedChange(key, newRecord);
                             if (!inOpeningStorageObject) {
-                                scn++;
+                                journalScn = ++scn;
+                                changeLog.add(journalScn, key);
                             }
                         } else {
                             throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Operation failed for Data Record '"+record.toString()+"'", Thread.currentThread().getStackTrace());
@@ -561,8 +805,13 @@ public abstract class DataFile extends DataAccess {
                         if (delete) {
                             if (inOpeningStorageObject || journal.log(scn + 1, Journal.Operation.delete, record)) {
                                 data.remove(key);
+                                if (sortedKeys.remove(key)) {
+                                    sortedKeysVersion++;
+                                }
+                                trackUnsavedChange(key, record);
                                 if (!inOpeningStorageObject) {
-                                    scn++;
+                                    journalScn = ++scn;
+                                    changeLog.add(journalScn, key);
                                 }
                             } else {
                                 throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Operation failed for Data Record '" + record.toString() + "'", Thread.currentThread().getStackTrace());
@@ -581,6 +830,19 @@ public abstract class DataFile extends DataAccess {
                     releaseLocalLock(myLock);
                 }
             }
+            if (journalScn > 0) {
+                // sync outside of the data monitor, so that concurrent modifications
+                // can be logged meanwhile and are synced together (group commit).
+                // While the caller holds the global lock (bulk operations), syncing
+                // is deferred until the lock gets released.
+                if (lockID > 0 && dataLocks.hasGlobalLock(lockID)) {
+                    if (journalSyncPendingScn < 0) {
+                        journalSyncPendingScn = journalScn;
+                    }
+                } else {
+                    journalSynced = journal.sync(journalScn);
+                }
+            }
 
             // check whether an efacloud server shall also be updated, and trigger update, if
             // needed.
@@ -595,12 +857,37 @@ public abstract class DataFile extends DataAccess {
             if (fileWriter != null) { // may be null while reading (opening) a file
                 fileWriter.save(false, true);
             }
+            if (journalScn > 0) {
+                notifyChangeListeners(lockID);
+            }
+            if (!inOpeningStorageObject) {
+                Metrics.stop(Metrics.TIMER_DATA_WRITE, startTime);
+            }
+            if (!journalSynced) {
+                // the modification has been applied, but isn't safe against a crash until
+                // the data file has been saved again
+                throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Journal could not be written to disk for Data Record '"+record.toString()+"' (SCN "+journalScn+")", Thread.currentThread().getStackTrace());
+            }
         } else {
             throw new EfaException(Logger.MSG_DATA_MODIFICATIONFAILED, getUID() + ": Data Record Operation failed: No Write Access", Thread.currentThread().getStackTrace());
         }
         return newRecord;
     }
 
+    // Notifies the change listeners. While the caller holds the global lock (bulk operations),
+    // notification is deferred until the lock gets released. Operations holding the data
+    // monitor (versionized operations) notify the listeners themselves after releasing it.
+    private void notifyChangeListeners(long lockID) {
+        if (lockID > 0 && dataLocks.hasGlobalLock(lockID)) {
+            changeNotificationPending = true;
+            return;
+        }
+        if (!Thread.holdsLock(data)) {
+            changeNotificationPending = false;
+            fireDataChanged();
+        }
+    }
+
     private void modifyVersionizedKeys(DataKey key, boolean add, boolean update, boolean delete) {
         DataKey keyUnversionized = getUnversionizedKey(key);
         synchronized(data) { // always synchronize on data to ensure integrity!
@@ -615,16 +902,18 @@ public abstract class DataFile extends DataAccess {
             }
             if (add || update) {
                 if (!list.contains(key)) {
-                    list.add(key);
+                    list = new ArrayList<DataKey>(list); // copy-on-write: readers may still use the old list
+                    DataVersionChain.insert(list, key, keyFields.length - 1); // VALID_FROM is always the last key field!
                     versionizedKeyList.put(keyUnversionized, list);
                 }
             }
             if (delete) {
+                list = new ArrayList<DataKey>(list); // copy-on-write: readers may still use the old list
                 list.remove(key);
                 if (list.size() == 0) {
                     versionizedKeyList.remove(keyUnversionized); // last key removed
                 } else {
-                    // no "versionizedKeyList.put(keyUnversionized, list)" necessary (we're working on the same reference of "list")
+                    versionizedKeyList.put(keyUnversionized, list);
                 }
             }
         }
@@ -663,6 +952,7 @@ public abstract class DataFile extends DataAccess {
             myLock = (dataLocks.hasGlobalLock(lockID) ? lockID : -1);
         }
         if (myLock > 0) {
+            boolean journalSynced = true;
             try {
                 synchronized (data) {
                     if (isValidAny(record.getKey())) {
@@ -708,9 +998,13 @@ public abstract class DataFile extends DataAccess {
                 }
             } finally {
                 if (lockID <= 0 && myLock > 0) {
-                    releaseGlobalLock(myLock);
+                    journalSynced = releaseGlobalLock(myLock);
                 }
             }
+            notifyChangeListeners(lockID);
+            if (!journalSynced) {
+                throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Journal could not be written to disk for versionized Data Record '"+record.getKey().toString()+"'", Thread.currentThread().getStackTrace());
+            }
         } else {
             throw new EfaException(Logger.MSG_DATA_NOLOCKHELD, getUID() + ": Attempt to add data without holding a lock", Thread.currentThread().getStackTrace());
         }
@@ -768,11 +1062,14 @@ public abstract class DataFile extends DataAccess {
     }
 
     public DataRecord update(DataRecord record) throws EfaException {
-        return modifyRecord(record, 0, false, true, false);
+        return update(record, 0);
     }
 
     public DataRecord update(DataRecord record, long lockID) throws EfaException {
-        return modifyRecord(record, lockID, false, true, false);
+        // modifyRecord() returns the stored (immutable) snapshot; like get(), only ever
+        // hand out a modifiable copy of it to callers
+        DataRecord newRecord = modifyRecord(record, lockID, false, true, false);
+        return (newRecord != null ? newRecord.cloneRecord() : null);
     }
 
     public void delete(DataKey key) throws EfaException {
@@ -811,6 +1108,7 @@ public abstract class DataFile extends DataAccess {
             myLock = (dataLocks.hasGlobalLock(lockID) ? lockID : -1);
         }
         if (myLock > 0) {
+            boolean journalSynced = true;
             try {
                 synchronized (data) {
                     DataRecord r = getValidAt(key, (Long)key.getKeyPart(keyFields.length - 1)); // VALID_FROM is always the last key field!
@@ -837,9 +1135,13 @@ public abstract class DataFile extends DataAccess {
                 }
             } finally {
                 if (lockID <= 0 && myLock > 0) {
-                    releaseGlobalLock(myLock);
+                    journalSynced = releaseGlobalLock(myLock);
                 }
             }
+            notifyChangeListeners(lockID);
+            if (!journalSynced) {
+                throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Journal could not be written to disk for versionized Data Record '"+key.toString()+"'", Thread.currentThread().getStackTrace());
+            }
         } else {
             throw new EfaException(Logger.MSG_DATA_NOLOCKHELD, getUID() + ": Attempt to delete versionized data without holding a lock", Thread.currentThread().getStackTrace());
         }
@@ -862,6 +1164,7 @@ public abstract class DataFile extends DataAccess {
             myLock = (dataLocks.hasGlobalLock(lockID) ? lockID : -1);
         }
         if (myLock > 0) {
+            boolean journalSynced = true;
             try {
                 synchronized (data) {
                     DataRecord[] records = persistence.data().getValidAny(key);
@@ -896,9 +1199,13 @@ public abstract class DataFile extends DataAccess {
                 }
             } finally {
                 if (lockID <= 0 && myLock > 0) {
-                    releaseGlobalLock(myLock);
+                    journalSynced = releaseGlobalLock(myLock);
                 }
             }
+            notifyChangeListeners(lockID);
+            if (!journalSynced) {
+                throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Journal could not be written to disk for versionized Data Record '"+key.toString()+"'", Thread.currentThread().getStackTrace());
+            }
         } else {
             throw new EfaException(Logger.MSG_DATA_NOLOCKHELD, getUID() + ": Attempt to delete all versionized data without holding a lock", Thread.currentThread().getStackTrace());
         }
@@ -924,6 +1231,7 @@ public abstract class DataFile extends DataAccess {
             myLock = (dataLocks.hasGlobalLock(lockID) ? lockID : -1);
         }
         if (myLock > 0) {
+            boolean journalSynced = true;
             try {
                 synchronized (data) {
                     DataRecord rNext = null;
@@ -951,38 +1259,51 @@ public abstract class DataFile extends DataAccess {
                 }
             } finally {
                 if (lockID <= 0 && myLock > 0) {
-                    releaseGlobalLock(myLock);
+                    journalSynced = releaseGlobalLock(myLock);
                 }
             }
+            notifyChangeListeners(lockID);
+            if (!journalSynced) {
+                throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Journal could not be written to disk for versionized Data Record '"+record.getKey().toString()+"'", Thread.currentThread().getStackTrace());
+            }
         } else {
             throw new EfaException(Logger.MSG_DATA_NOLOCKHELD, getUID() + ": Attempt to change validity without holding a lock", Thread.currentThread().getStackTrace());
         }
     }
 
+    // Reads don't lock: records in data are immutable snapshots (modifications always
+    // store a new clone), and reads return a clone of their own.
     public DataRecord get(DataKey key) throws EfaException {
-        synchronized (data) {
-            DataRecord rec = data.get(key);
-            if (rec != null) {
-                return rec.cloneRecord();
-            }
+        if (key == null) {
             return null;
         }
+        Metrics.count(Metrics.COUNTER_DATA_READ);
+        DataRecord rec = data.get(key);
+        if (rec != null) {
+            return rec.cloneRecord();
+        }
+        return null;
+    }
+
+    // Returns the stored (immutable) record itself instead of a clone. Only to be used
+    // for reading, e.g. when serializing all records.
+    DataRecord getSnapshot(DataKey key) {
+        return (key != null ? data.get(key) : null);
     }
 
     public DataRecord[] getValidAny(DataKey key) throws EfaException {
-        DataRecord[] recs;
-        synchronized(data) { // always synchronize on data to ensure integrity!
-            ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
-            if (list == null || list.size() == 0) {
-                return null;
-            }
-            recs = new DataRecord[list.size()];
-            int i=0;
-            for (DataKey k : list) {
-                recs[i++] = get(k);
+        ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
+        if (list == null || list.size() == 0) {
+            return null;
+        }
+        ArrayList<DataRecord> recs = new ArrayList<DataRecord>(list.size());
+        for (DataKey k : list) {
+            DataRecord r = get(k);
+            if (r != null) { // may have been deleted concurrently
+                recs.add(r);
             }
         }
-        return recs;
+        return (recs.size() > 0 ? recs.toArray(new DataRecord[0]) : null);
     }
 
     public DataRecord getValidAt(DataKey key, long t) throws EfaException {
@@ -992,94 +1313,75 @@ public abstract class DataFile extends DataAccess {
         } else {
             return null;
         }
-        synchronized(data) { // always synchronize on data to ensure integrity!
-            ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
-            if (list == null) {
-                return null;
-            }
-            for (DataKey k : list) {
-                long validFrom = (Long)k.getKeyPart(validFromField);
-                if (t >= validFrom) {
-                    DataRecord rec = get(k);
-                    if (rec != null && (rec.isValidAt(t) ||
-                            // if we change both validFrom and InvalidFrom at the same time,
-                            // then for a short time during this operation, we might have a record
-                            // with invalidFrom < validFrom. Since the validity range must always be
-                            // >= 1, we accept a record as valid either if t is in it's validy range,
-                            // or if t is exactly the validity begin
-                            t == validFrom)) {
-                        return rec;
-                    }
-                }
+        ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
+        if (list == null) {
+            return null;
+        }
+        // start with the latest version with validFrom <= t (usually the one we're looking for)
+        for (int i = DataVersionChain.floor(list, t, validFromField); i >= 0; i--) {
+            DataKey k = list.get(i);
+            long validFrom = DataVersionChain.getValidFrom(k, validFromField);
+            DataRecord rec = get(k);
+            if (rec != null && (rec.isValidAt(t) ||
+                    // if we change both validFrom and InvalidFrom at the same time,
+                    // then for a short time during this operation, we might have a record
+                    // with invalidFrom < validFrom. Since the validity range must always be
+                    // >= 1, we accept a record as valid either if t is in it's validy range,
+                    // or if t is exactly the validity begin
+                    t == validFrom)) {
+                return rec;
             }
         }
         return null;
     }
 
     public DataRecord getValidLatest(DataKey key) throws EfaException {
-        int validFromField;
-        if (meta.versionized) {
-            validFromField = keyFields.length - 1; // VALID_FROM is always the last key field!
-        } else {
+        if (!meta.versionized) {
             return null;
         }
-        synchronized(data) { // always synchronize on data to ensure integrity!
-            ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
-            if (list == null) {
-                return null;
-            }
-            DataKey latestVersionKey = null;
-            DataRecord latestVersionRec = null;
-            for (DataKey k : list) {
-                long validFrom = (Long)k.getKeyPart(validFromField);
-                if (latestVersionKey == null || validFrom > (Long)latestVersionKey.getKeyPart(validFromField)) {
-                    DataRecord r = get(k);
-                    if (!r.getDeleted()) {
-                        latestVersionKey = k;
-                        latestVersionRec = r;
-                    }
-                }
-            }
-            if (latestVersionRec != null) {
-                return latestVersionRec;
+        ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
+        if (list == null) {
+            return null;
+        }
+        // list is sorted by validFrom, so the first non-deleted record from the end is the latest
+        for (int i = list.size() - 1; i >= 0; i--) {
+            DataRecord r = get(list.get(i));
+            if (r != null && !r.getDeleted()) {
+                return r;
             }
         }
         return null;
     }
 
     public DataRecord getValidNearest(DataKey key, long earliestValidAt, long latestValidAt, long preferredValidAt) throws EfaException {
-        synchronized(data) { // always synchronize on data to ensure integrity!
-            DataRecord r = getValidAt(key, preferredValidAt);
-            if (r != null) {
-                return r;
-            }
-            DataRecord[] records = getValidAny(key);
-            long minDistance = Long.MAX_VALUE;
-            for (int i=0; records != null && i<records.length; i++) {
-                if (records[i].isInValidityRange(earliestValidAt, latestValidAt)) {
-                    long myDist = Long.MAX_VALUE;
-                    if (records[i].getInvalidFrom()-1 < preferredValidAt) {
-                        myDist = preferredValidAt - records[i].getInvalidFrom()-1;
-                    }
-                    if (records[i].getValidFrom() > preferredValidAt) {
-                        myDist = records[i].getValidFrom() - preferredValidAt;
-                    }
-                    if (myDist < minDistance) {
-                        minDistance = myDist;
-                        r = records[i];
-                    }
+        DataRecord r = getValidAt(key, preferredValidAt);
+        if (r != null) {
+            return r;
+        }
+        DataRecord[] records = getValidAny(key);
+        long minDistance = Long.MAX_VALUE;
+        for (int i=0; records != null && i<records.length; i++) {
+            if (records[i].isInValidityRange(earliestValidAt, latestValidAt)) {
+                long myDist = Long.MAX_VALUE;
+                if (records[i].getInvalidFrom()-1 < preferredValidAt) {
+                    myDist = preferredValidAt - records[i].getInvalidFrom()-1;
+                }
+                if (records[i].getValidFrom() > preferredValidAt) {
+                    myDist = records[i].getValidFrom() - preferredValidAt;
+                }
+                if (myDist < minDistance) {
+                    minDistance = myDist;
+                    r = records[i];
                 }
             }
-            return r;
         }
+        return r;
     }
 
     public boolean isValidAny(DataKey key) throws EfaException {
-        synchronized(data) { // always synchronize on data to ensure integrity!
-            ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
-            if (list == null || list.size() == 0) {
-                return false;
-            }
+        ArrayList<DataKey> list = versionizedKeyList.get(getUnversionizedKey(key));
+        if (list == null || list.size() == 0) {
+            return false;
         }
         return true;
     }
@@ -1093,6 +1395,52 @@ public abstract class DataFile extends DataAccess {
         return null;
     }
 
+    // returns whether there is an index on exactly these fields
+    boolean hasIndex(String[] fieldNames) {
+        int[] idxFields = new int[fieldNames.length];
+        for (int i=0; i<idxFields.length; i++) {
+            idxFields[i] = meta.getFieldIndex(fieldNames[i]);
+        }
+        return findIndex(idxFields) != null;
+    }
+
+    // finds a sorted index whose leading index fields are idxFields
+    private DataIndexSorted findSortedIndex(int[] idxFields) {
+        for (DataIndex idx : indices) {
+            if (!(idx instanceof DataIndexSorted) || idx.getIndexFields().length < idxFields.length) {
+                continue;
+            }
+            if (Arrays.equals(idxFields, Arrays.copyOf(idx.getIndexFields(), idxFields.length))) {
+                return (DataIndexSorted)idx;
+            }
+        }
+        return null;
+    }
+
+    private DataIndexSorted findSortedIndex(String[] fieldNames) {
+        int[] idxFields = new int[fieldNames.length];
+        for (int i=0; i<idxFields.length; i++) {
+            idxFields[i] = meta.getFieldIndex(fieldNames[i]);
+        }
+        return findSortedIndex(idxFields);
+    }
+
+    public DataKey[] getByFieldsRange(String[] fieldNames, Object[] fromValues, Object[] toValues) throws EfaException {
+        DataIndexSorted idx = findSortedIndex(fieldNames);
+        if (idx != null) {
+            return idx.searchRange(fromValues, toValues);
+        }
+        return super.getByFieldsRange(fieldNames, fromValues, toValues);
+    }
+
+    public DataKey[] getByFieldsPrefix(String[] fieldNames, Object[] values) throws EfaException {
+        DataIndexSorted idx = findSortedIndex(fieldNames);
+        if (idx != null) {
+            return idx.searchPrefix(values);
+        }
+        return super.getByFieldsPrefix(fieldNames, values);
+    }
+
     public DataKey[] getByFields(String[] fieldNames, Object[] values) throws EfaException {
         return getByFields(fieldNames, values, -1);
     }
@@ -1164,31 +1512,38 @@ public abstract class DataFile extends DataAccess {
     }
 
     public long getNumberOfRecords() throws EfaException {
-        synchronized(data) {
-            return data.size();
-        }
+        return data.size();
     }
 
     protected void clearAllData() {
         if (data != null) {
             synchronized (data) {
                 data.clear();
+                sortedKeys.clear();
+                sortedKeysVersion++;
                 versionizedKeyList.clear();
                 for (DataIndex idx : indices) {
                     idx.clear();
                 }
             }
         }
+        changeLog.reset(-1);
     }
 
     public void truncateAllData() throws EfaException {
+        boolean truncated = false;
+        boolean journalSynced = true;
         long lockID = acquireGlobalLock();
         try {
             synchronized (data) {
                 if (inOpeningStorageObject || journal.log(scn + 1, Journal.Operation.truncate, null)) {
                     clearAllData();
+                    fullSaveRequired = true; // truncation can't be expressed as segment entries
                     if (!inOpeningStorageObject) {
                         scn++;
+                        changeLog.add(scn, null); // all records changed
+                        journalSyncPendingScn = scn; // synced when releasing the global lock
+                        truncated = true;
                     }
                 } else {
                     throw new EfaException(Logger.MSG_DATA_TRUNCATEFAILED, getUID() + ": Truncate failed", Thread.currentThread().getStackTrace());
@@ -1196,27 +1551,32 @@ public abstract class DataFile extends DataAccess {
             }
         } finally {
             if (lockID > 0) {
-                releaseGlobalLock(lockID);
+                journalSynced = releaseGlobalLock(lockID);
             }
         }
         if (fileWriter != null) { // may be null while reading (opening) a file
             fileWriter.save(false, true);
         }
+        if (truncated) {
+            notifyChangeListeners(-1);
+            if (!journalSynced) {
+                throw new EfaException(Logger.MSG_DATA_JOURNALLOGFAILED, getUID() + ": Journal could not be written to disk for truncate", Thread.currentThread().getStackTrace());
+            }
+        }
     }
 
+    // Returns a sorted snapshot of all keys. The snapshot is shared between callers as
+    // long as no key has been added or deleted; afterwards, a new snapshot is taken
+    // from sortedKeys (which is already sorted).
     public DataKey[] getAllKeys() throws EfaException {
-        DataKey[] keys = null;
-        synchronized(data) {
-            if (cachedKeys == null || getSCN() != cachedKeysSCN) {
-                keys = new DataKey[data.size()];
-                keys = data.keySet().toArray(keys);
+        synchronized (sortedKeys) {
+            long version = sortedKeysVersion; // read before the copy: snapshot is at least this recent
+            if (cachedKeys == null || cachedKeysVersion != version) {
+                cachedKeys = sortedKeys.toArray(new DataKey[0]);
+                cachedKeysVersion = version;
             }
+            return cachedKeys;
         }
-        if (keys != null) {
-            Arrays.sort(keys);
-            cachedKeys = keys;
-        }
-        return cachedKeys;
     }
 
     public DataKeyIterator getStaticIterator() throws EfaException {
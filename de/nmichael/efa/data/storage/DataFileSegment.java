@@ -0,0 +1,205 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data.storage;
+
+import de.nmichael.efa.*;
+import de.nmichael.efa.util.*;
+import java.io.*;
+import java.util.*;
+
+// @i18n complete
+
+/**
+ * Append-only segment file for incremental saves of a DataFile.
+ *
+ * Instead of rewriting the entire storage object, only records which have been
+ * changed since the last save are appended to this file, using the same line
+ * format as the Journal ("#scn:timestamp:Op:record"). Each save appends one batch
+ * which is terminated by a commit line; incomplete batches are ignored when the
+ * segment is replayed.
+ * The segment always belongs to the snapshot (the regular data file) with the
+ * SCN recorded in its header. A segment whose base SCN does not match the SCN of
+ * the snapshot that has been read is stale and will not be replayed.
+ */
+public class DataFileSegment {
+
+    public static final String SEGMENT_EXTENSION = ".seg";
+
+    public static final String SHEADER_SOBJECT = "###Storage Object";
+    public static final String SHEADER_BASESCN = "###Segment BaseSCN";
+    public static final String SCOMMIT         = "###Segment Commit";
+
+    private String storageObjectName;
+    private String filename;
+    private long baseScn = -1;
+
+    public DataFileSegment(String storageObjectName, String storageObjectFilename) {
+        this.storageObjectName = storageObjectName;
+        this.filename = storageObjectFilename + SEGMENT_EXTENSION;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public boolean exists() {
+        return new File(filename).exists();
+    }
+
+    public long getSize() {
+        try {
+            return (new File(filename)).length();
+        } catch(Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Starts a new (empty) segment on top of a snapshot with the given SCN.
+     * Any existing segment is discarded.
+     */
+    public boolean create(long snapshotScn) {
+        try {
+            BufferedWriter fw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, false), Daten.ENCODING_UTF));
+            fw.write(SHEADER_SOBJECT + ": " + storageObjectName + "\n");
+            fw.write(SHEADER_BASESCN + ": " + snapshotScn + "\n");
+            fw.close();
+            baseScn = snapshotScn;
+            return true;
+        } catch(Exception e) {
+            Logger.log(Logger.ERROR, Logger.MSG_DATA_WRITEFAILED,
+                    LogString.fileCreationFailed(filename, "Segment File", e.toString()));
+            baseScn = -1;
+            return false;
+        }
+    }
+
+    public long getBaseScn() {
+        return baseScn;
+    }
+
+    /**
+     * Appends one batch of changes to the segment.
+     * @param scn the SCN of the storage object after all changes of this batch
+     * @param records the current version of changed records, or the deleted record for deletions
+     * @param deleted for each record, whether it has been deleted
+     * @return true if the batch including its commit line has been written
+     */
+    public boolean append(long scn, ArrayList<DataRecord> records, ArrayList<Boolean> deleted) {
+        if (baseScn < 0) {
+            return false;
+        }
+        try {
+            BufferedWriter fw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, true), Daten.ENCODING_UTF));
+            long now = System.currentTimeMillis();
+            StringBuffer s = new StringBuffer();
+            for (int i=0; i<records.size(); i++) {
+                s.setLength(0);
+                s.append("#" + scn + ":" + now + ":");
+                Journal.encodeCommand(s, (deleted.get(i) ? Journal.Operation.delete : Journal.Operation.update), records.get(i));
+                s.append("\n");
+                fw.write(s.toString());
+            }
+            fw.write(SCOMMIT + ": " + scn + "\n");
+            fw.close();
+            return true;
+        } catch(Exception e) {
+            Logger.log(Logger.ERROR, Logger.MSG_DATA_WRITEFAILED,
+                    LogString.fileWritingFailed(filename, "Segment File", e.toString()));
+            return false;
+        }
+    }
+
+    /**
+     * Replays all committed batches of this segment into dataFile.
+     * @param dataFile the data file (snapshot already read)
+     * @param lockID a global lock held on dataFile
+     * @return the SCN of the last replayed batch, or -1 if nothing was replayed
+     */
+    public long replay(DataFile dataFile, long lockID) throws Exception {
+        if (!exists()) {
+            return -1;
+        }
+        long snapshotScn = dataFile.getSCN();
+        BufferedReader fr = new BufferedReader(new InputStreamReader(new FileInputStream(filename), Daten.ENCODING_UTF));
+        try {
+            String s;
+            long myBaseScn = -1;
+            while ((s = fr.readLine()) != null) {
+                s = s.trim();
+                if (s.startsWith(SHEADER_SOBJECT)) {
+                    if (!storageObjectName.equals(s.substring(SHEADER_SOBJECT.length() + 2))) {
+                        throw new Exception("Segment belongs to storage object " + s.substring(SHEADER_SOBJECT.length() + 2));
+                    }
+                }
+                if (s.startsWith(SHEADER_BASESCN)) {
+                    myBaseScn = Long.parseLong(s.substring(SHEADER_BASESCN.length() + 2));
+                    break;
+                }
+            }
+            if (myBaseScn != snapshotScn) {
+                Logger.log(Logger.WARNING, Logger.MSG_DATA_REPLAYINCOMPLETE,
+                        filename + ": Ignoring stale segment (segment base SCN " + myBaseScn +
+                        ", snapshot SCN " + snapshotScn + ")");
+                return -1;
+            }
+
+            long lastScn = -1;
+            int count = 0;
+            ArrayList<String> batch = new ArrayList<String>();
+            while ((s = fr.readLine()) != null) {
+                s = s.trim();
+                if (s.length() == 0) {
+                    continue;
+                }
+                if (s.startsWith(SCOMMIT)) {
+                    for (String line : batch) {
+                        Journal.Operation op = Journal.getOperationFromJournalLine(line);
+                        DataRecord r = Journal.getDataRecordFromJournalLine(line, dataFile);
+                        if (op == null || r == null) {
+                            throw new Exception("Corrupt segment entry: " + line);
+                        }
+                        dataFile.replaySegmentRecord(r, op == Journal.Operation.delete, lockID);
+                        count++;
+                    }
+                    lastScn = Long.parseLong(s.substring(SCOMMIT.length() + 2));
+                    batch.clear();
+                } else {
+                    batch.add(s);
+                }
+            }
+            if (batch.size() > 0) {
+                Logger.log(Logger.WARNING, Logger.MSG_DATA_REPLAYINCOMPLETE,
+                        filename + ": Ignoring " + batch.size() + " uncommitted segment entries");
+            }
+            if (Logger.isTraceOn(Logger.TT_FILEIO)) {
+                Logger.log(Logger.DEBUG, Logger.MSG_FILE_WRITETHREAD_SAVING,
+                        filename + ": Replayed " + count + " segment entries up to SCN " + lastScn);
+            }
+            baseScn = myBaseScn;
+            return lastScn;
+        } finally {
+            fr.close();
+        }
+    }
+
+    public boolean delete() {
+        baseScn = -1;
+        File f = new File(filename);
+        if (f.exists() && !f.delete()) {
+            Logger.log(Logger.WARNING, Logger.MSG_DATA_DELETEFAILED,
+                    LogString.fileDeletionFailed(filename, "Segment File"));
+            return false;
+        }
+        return true;
+    }
+
+}
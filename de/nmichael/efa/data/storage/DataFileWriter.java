@@ -43,7 +43,9 @@ public class DataFileWriter extends Thread {
                         Logger.log(Logger.DEBUG, Logger.MSG_FILE_WRITETHREAD_SAVING, "DataFileWriter["+dataFile.filename+"] found new data to be saved.");
                     }
                         try {
+                            long start = Metrics.start();
                             dataFile.saveStorageObject(true);
+                            Metrics.stop(Metrics.TIMER_DATA_SAVE, start);
                         } catch(Exception e) {
                             Logger.log(Logger.ERROR, Logger.MSG_FILE_WRITETHREAD_ERROR, "DataFileWriter["+dataFile.filename+"] failed to save data: "+e.toString());
                             Logger.log(e);
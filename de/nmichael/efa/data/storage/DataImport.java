@@ -13,6 +13,7 @@ package de.nmichael.efa.data.storage;
 import de.nmichael.efa.Daten;
 import de.nmichael.efa.data.Logbook;
 import de.nmichael.efa.data.LogbookRecord;
+import de.nmichael.efa.ex.EfaException;
 import de.nmichael.efa.gui.ProgressDialog;
 import de.nmichael.efa.util.*;
 import java.io.*;
@@ -53,6 +54,16 @@ public class DataImport extends ProgressTask {
     private int warningCount = 0;
     private boolean isLogbook = false;
 
+    // Bulk import (local storage objects only): rows are resolved against temporary indices
+    // instead of a table scan per row, and applied in batches of BULK_BATCH_SIZE rows with a
+    // single global lock each, so that their journal entries are synced together. Batches
+    // are kept small enough not to run into the lock timeout.
+    private static final int BULK_BATCH_SIZE = 500;
+    private boolean bulkImport;
+    private long bulkLock = 0;
+    private int bulkLockCount = 0;
+    private final Hashtable<String,ImportIndex> importIndices = new Hashtable<String,ImportIndex>();
+
 
     public DataImport(StorageObject storageObject,
             String filename, String encoding, char csvSeparator, char csvQuotes,
@@ -75,6 +86,124 @@ public class DataImport extends ProgressTask {
         this.validAt = validAt;
         this.updMode = updMode;
         this.isLogbook = storageObject.data().getStorageObjectType().equals(Logbook.DATATYPE);
+        this.bulkImport = (dataAccess instanceof DataFile);
+    }
+
+    // Temporary index from the values of some fields to the keys of all records with these
+    // values, used to resolve imported rows. It is brought up-to-date with all records changed
+    // meanwhile (including the imported ones) through the change log of the storage object.
+    // Search results are the same as those of getByFields() without an index.
+    private class ImportIndex {
+
+        private String[] fieldNames;
+        private HashMap<List<Object>,TreeSet<DataKey>> keysByValues = new HashMap<List<Object>,TreeSet<DataKey>>();
+        private HashMap<DataKey,List<Object>> valuesByKey = new HashMap<DataKey,List<Object>>();
+        private long scn = -1;
+
+        ImportIndex(String[] fieldNames) {
+            this.fieldNames = fieldNames;
+        }
+
+        private void put(DataKey k, DataRecord r) {
+            List<Object> values = valuesByKey.remove(k);
+            if (values != null) {
+                TreeSet<DataKey> keys = keysByValues.get(values);
+                if (keys != null) {
+                    keys.remove(k);
+                    if (keys.isEmpty()) {
+                        keysByValues.remove(values);
+                    }
+                }
+            }
+            if (r != null) {
+                values = new ArrayList<Object>(fieldNames.length);
+                for (String f : fieldNames) {
+                    values.add(r.get(f));
+                }
+                valuesByKey.put(k, values);
+                TreeSet<DataKey> keys = keysByValues.get(values);
+                if (keys == null) {
+                    keys = new TreeSet<DataKey>();
+                    keysByValues.put(values, keys);
+                }
+                keys.add(k);
+            }
+        }
+
+        private void update() throws EfaException {
+            long currentScn = dataAccess.getSCN();
+            if (currentScn == scn) {
+                return;
+            }
+            DataKey[] changedKeys = (scn >= 0 ? dataAccess.getChangesSince(scn) : null);
+            if (changedKeys != null) {
+                for (DataKey k : changedKeys) {
+                    put(k, dataAccess.get(k));
+                }
+            } else {
+                keysByValues.clear();
+                valuesByKey.clear();
+                DataKeyIterator it = dataAccess.getStaticIterator();
+                for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+                    put(k, dataAccess.get(k));
+                }
+            }
+            scn = currentScn;
+        }
+
+        DataKey[] search(Object[] values, long validAt) throws EfaException {
+            update();
+            TreeSet<DataKey> keys = keysByValues.get(Arrays.asList(values));
+            if (keys == null) {
+                return null;
+            }
+            ArrayList<DataKey> matches = new ArrayList<DataKey>();
+            for (DataKey k : keys) {
+                DataRecord rec = dataAccess.get(k);
+                if (rec != null && !rec.getDeleted() &&
+                    (validAt < 0 || (rec.getValidFrom() <= validAt && rec.getInvalidFrom() > validAt))) {
+                    matches.add(k);
+                }
+            }
+            return (matches.size() > 0 ? matches.toArray(new DataKey[0]) : null);
+        }
+    }
+
+    private DataKey[] getByFields(String[] fieldNames, Object[] values, long validAt) throws EfaException {
+        boolean useImportIndex = bulkImport && !((DataFile) dataAccess).hasIndex(fieldNames);
+        for (int i = 0; useImportIndex && i < values.length; i++) {
+            if (values[i] == null) {
+                useImportIndex = false; // null values match any value
+            }
+        }
+        if (!useImportIndex) {
+            return dataAccess.getByFields(fieldNames, values, validAt);
+        }
+        String indexName = EfaUtil.arr2string(fieldNames);
+        ImportIndex idx = importIndices.get(indexName);
+        if (idx == null) {
+            idx = new ImportIndex(fieldNames);
+            importIndices.put(indexName, idx);
+        }
+        return idx.search(values, validAt);
+    }
+
+    // Returns the global lock for the current batch of a bulk import, or 0 if records shall
+    // be modified with their own locks.
+    private long getBulkLock() throws EfaException {
+        if (bulkImport && bulkLock <= 0) {
+            bulkLock = dataAccess.acquireGlobalLock();
+            bulkLockCount = 0;
+        }
+        return (bulkImport ? bulkLock : 0);
+    }
+
+    // Ends the current batch of a bulk import if it is full, or in any case if all is true.
+    private void releaseBulkLock(boolean all) {
+        if (bulkLock > 0 && (all || ++bulkLockCount >= BULK_BATCH_SIZE)) {
+            dataAccess.releaseGlobalLock(bulkLock);
+            bulkLock = 0;
+        }
     }
 
     public static boolean isXmlFile(String filename) {
@@ -146,10 +275,10 @@ public class DataImport extends ProgressTask {
                     // change its validFrom to 0
                     myValidAt = 0;
                 }
-                dataAccess.addValidAt(r, myValidAt);
+                dataAccess.addValidAt(r, myValidAt, getBulkLock());
                 setCurrentWorkDone(++importCount);
             } else {
-                dataAccess.add(r);
+                dataAccess.add(r, getBulkLock());
                 setCurrentWorkDone(++importCount);
             }
         } catch (Exception e) {
@@ -197,19 +326,19 @@ public class DataImport extends ProgressTask {
                 if (!versionized || updMode.equals(UPDMODE_UPDATEVALIDVERSION)
                         || rorig.getValidFrom() == myValidAt) {
                     if (changed) {
-                        dataAccess.update(rorig);
+                        dataAccess.update(rorig, getBulkLock());
                     }
                     setCurrentWorkDone(++importCount);
                 }
                 if (versionized && updMode.equals(UPPMODE_CREATENEWVERSION)
                         && rorig.getValidFrom() != myValidAt) {
                     if (changed) {
-                        dataAccess.addValidAt(rorig, myValidAt);
+                        dataAccess.addValidAt(rorig, myValidAt, getBulkLock());
                     }
                     setCurrentWorkDone(++importCount);
                 }
             } else {
-                dataAccess.changeValidity(rorig, rorig.getValidFrom(), invalidFrom);
+                dataAccess.changeValidity(rorig, rorig.getValidFrom(), invalidFrom, getBulkLock());
                 setCurrentWorkDone(++importCount);
             }
         } catch (Exception e) {
@@ -218,6 +347,14 @@ public class DataImport extends ProgressTask {
     }
 
     private boolean importRecord(DataRecord r, ArrayList<String> fieldsInInport) {
+        try {
+            return importRecordLocked(r, fieldsInInport);
+        } finally {
+            releaseBulkLock(false);
+        }
+    }
+
+    private boolean importRecordLocked(DataRecord r, ArrayList<String> fieldsInInport) {
         try {
             if (Logger.isDebugLogging()) {
                 Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_DATA, 
@@ -247,11 +384,11 @@ public class DataImport extends ProgressTask {
                 while (true) {
                     if (overrideKeyField == null) {
                         // -> search for record by QualifiedName
-                        keys = dataAccess.getByFields(r.getQualifiedNameFields(), r.getQualifiedNameValues(r.getQualifiedName()),
+                        keys = getByFields(r.getQualifiedNameFields(), r.getQualifiedNameValues(r.getQualifiedName()),
                                 (versionized ? searchValidAt : -1));
                     } else {
                         // -> search for record by user-specified key field
-                        keys = dataAccess.getByFields(new String[]{overrideKeyField},
+                        keys = getByFields(new String[]{overrideKeyField},
                                 new String[]{r.getAsString(overrideKeyField)},
                                 (versionized ? searchValidAt : -1));
                     }
@@ -347,6 +484,8 @@ public class DataImport extends ProgressTask {
             if (Daten.isGuiAppl()) {
                 Dialog.error(e.toString());
             }
+        } finally {
+            releaseBulkLock(true);
         }
         return (responseHandler != null ? responseHandler.getImportedRecordsCount() : 0);
     }
@@ -418,6 +557,8 @@ public class DataImport extends ProgressTask {
             if (Daten.isGuiAppl()) {
                 Dialog.error(e.toString());
             }
+        } finally {
+            releaseBulkLock(true);
         }
         return count;
     }
@@ -0,0 +1,195 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data.storage;
+
+import java.util.*;
+
+// @i18n complete
+
+/**
+ * A sorted index, which in addition to exact-match searches also supports
+ * range and prefix searches on its index fields.
+ * Index entries are ordered by their index field values (in the order of the
+ * index fields), with unset (null) values sorted before all other values.
+ */
+public class DataIndexSorted extends DataIndex {
+
+    // bounds for range searches which are lower resp. higher than any value
+    private static final Object LOWEST = new Object();
+    private static final Object HIGHEST = new Object();
+
+    private static final Comparator<Object[]> comparator = new Comparator<Object[]>() {
+        public int compare(Object[] a, Object[] b) {
+            return compareValues(a, b);
+        }
+    };
+
+    private final TreeMap<Object[],ArrayList<DataKey>> index = new TreeMap<Object[],ArrayList<DataKey>>(comparator);
+
+    public DataIndexSorted(int[] indexFields) {
+        super(indexFields);
+    }
+
+    // all values of an index field are of the field's data type (UUID, String,
+    // DataTypeDate, ...), which is Comparable to itself
+    @SuppressWarnings("unchecked")
+    private static int compareValue(Object x, Object y) {
+        if (x == y) {
+            return 0;
+        }
+        if (x == LOWEST || y == HIGHEST) {
+            return -1;
+        }
+        if (x == HIGHEST || y == LOWEST) {
+            return 1;
+        }
+        if (x == null) {
+            return -1;
+        }
+        if (y == null) {
+            return 1;
+        }
+        return ((Comparable<Object>)x).compareTo(y);
+    }
+
+    static int compareValues(Object[] a, Object[] b) {
+        for (int i=0; i<a.length && i<b.length; i++) {
+            int cmp = compareValue(a[i], b[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    // Builds a lower (or upper) bound from values: a null or missing value opens the bound
+    // for this and all following fields.
+    static Object[] getBound(Object[] values, int length, boolean lower) {
+        Object[] bound = new Object[length];
+        boolean open = false;
+        for (int i=0; i<length; i++) {
+            if (!open && (values == null || i >= values.length || values[i] == null)) {
+                open = true;
+            }
+            bound[i] = (open ? (lower ? LOWEST : HIGHEST) : values[i]);
+        }
+        return bound;
+    }
+
+    // Builds the bounds for all values whose last field (a String) starts with the
+    // last element of values, and whose preceding fields match the other elements.
+    static Object[][] getPrefixBounds(Object[] values, int length) {
+        Object[] from = new Object[values.length];
+        Object[] to = new Object[values.length];
+        for (int i=0; i<values.length; i++) {
+            from[i] = values[i];
+            to[i] = values[i];
+        }
+        String prefix = (values[values.length - 1] != null ? values[values.length - 1].toString() : "");
+        from[values.length - 1] = prefix;
+        to[values.length - 1] = prefix + Character.MAX_VALUE;
+        return new Object[][] { getBound(from, length, true), getBound(to, length, false) };
+    }
+
+    static boolean isInRange(Object[] values, Object[] from, Object[] to) {
+        return compareValues(from, values) <= 0 && compareValues(values, to) <= 0;
+    }
+
+    private Object[] getValues(DataRecord r) {
+        int[] indexFields = getIndexFields();
+        Object[] values = new Object[indexFields.length];
+        for (int i=0; i<values.length; i++) {
+            values[i] = r.get(indexFields[i]);
+        }
+        return values;
+    }
+
+    public void clear() {
+        synchronized(index) {
+            index.clear();
+        }
+    }
+
+    public void add(DataRecord r) {
+        Object[] values = getValues(r);
+        DataKey key = r.getKey();
+        synchronized (index) {
+            ArrayList<DataKey> list = index.get(values);
+            if (list == null) {
+                list = new ArrayList<DataKey>();
+                index.put(values, list);
+            }
+            if (!list.contains(key)) {
+                list.add(key);
+            }
+        }
+    }
+
+    public void delete(DataRecord r) {
+        Object[] values = getValues(r);
+        DataKey key = r.getKey();
+        synchronized (index) {
+            ArrayList<DataKey> list = index.get(values);
+            if (list == null) {
+                return;
+            }
+            list.remove(key);
+            if (list.size() == 0) {
+                index.remove(values);
+            }
+        }
+    }
+
+    public DataKey[] search(Object[] values) {
+        synchronized (index) {
+            ArrayList<DataKey> list = index.get(values);
+            if (list == null || list.size() == 0) {
+                return null;
+            }
+            return list.toArray(new DataKey[0]);
+        }
+    }
+
+    /**
+     * Returns the keys of all records whose index values are within [fromValues, toValues]
+     * (both inclusive). Values may be given for a leading subset of the index fields only;
+     * a null or missing value leaves the bound open for this and all following fields.
+     * @return the matching keys in index order, or null if there are none
+     */
+    public DataKey[] searchRange(Object[] fromValues, Object[] toValues) {
+        int length = getIndexFields().length;
+        return search(getBound(fromValues, length, true), getBound(toValues, length, false));
+    }
+
+    /**
+     * Returns the keys of all records whose leading index values match values, with the
+     * last element of values being a String prefix of the respective index field.
+     * @return the matching keys in index order, or null if there are none
+     */
+    public DataKey[] searchPrefix(Object[] values) {
+        Object[][] bounds = getPrefixBounds(values, getIndexFields().length);
+        return search(bounds[0], bounds[1]);
+    }
+
+    private DataKey[] search(Object[] from, Object[] to) {
+        if (compareValues(from, to) > 0) {
+            return null;
+        }
+        ArrayList<DataKey> keys = new ArrayList<DataKey>();
+        synchronized (index) {
+            for (ArrayList<DataKey> list : index.subMap(from, true, to, true).values()) {
+                keys.addAll(list);
+            }
+        }
+        return (keys.size() > 0 ? keys.toArray(new DataKey[0]) : null);
+    }
+
+}
@@ -13,6 +13,7 @@ package de.nmichael.efa.data.storage;
 import de.nmichael.efa.util.EfaUtil;
 import java.util.*;
 import de.nmichael.efa.util.Logger;
+import de.nmichael.efa.util.Metrics;
 
 // @i18n complete
 
@@ -47,12 +48,15 @@ public class DataLocks {
      *                                                                  on this record.
      * Read Record               no Lock required                       reads will be possible at any time, but there is
      *                                                                  no level of read consistency supported.
+     *
+     * Threads waiting for a lock are blocked on the lock table and woken up as soon as any lock is
+     * released. While waiting, they periodically (every CLEAR_TIMEOUTS_INTERVAL) clear timed out locks.
      */
 
     public static final long LOCK_TIMEOUT_DEFAULT = 30000;        //  30,000 ms
     public static final long LOCK_TIMEOUT_LONG    = 120000;       // 120,000 ms
     public static       long LOCK_TIMEOUT = LOCK_TIMEOUT_DEFAULT; //  30,000 ms
-    public static final long SLEEP_RETRY  =    10; //     10 ms
+    public static final long CLEAR_TIMEOUTS_INTERVAL = 1000; // 1,000 ms
 
     private final Hashtable<DataKey,DataLock> locks = new Hashtable<DataKey,DataLock>();
     private volatile long lockID = 0;
@@ -80,10 +84,13 @@ public class DataLocks {
                             Thread.currentThread().getStackTrace());
                     Logger.logStackTrace(Logger.WARNING, Logger.MSG_DATA_LOCKTIMEOUT, "Lock Owner Thread",
                             lock.getLockOwner().getStackTrace());
-                    locks.remove(lock.getLockObject());
+                    it.remove();
                     count++;
                 }
             }
+            if (count > 0) {
+                locks.notifyAll();
+            }
         }
         return count;
     }
@@ -98,19 +105,22 @@ public class DataLocks {
     }
 
     private DataLock tryAcquireLock(DataKey object) {
+        long start = Metrics.start();
+        DataLock lock = tryAcquireLockNoMetrics(object);
+        Metrics.stop(Metrics.TIMER_DATA_LOCKWAIT, start);
+        if (lock == null) {
+            Metrics.count(Metrics.COUNTER_DATA_LOCKTIMEOUT);
+        }
+        return lock;
+    }
+
+    private DataLock tryAcquireLockNoMetrics(DataKey object) {
         boolean global = (object == null);
         try {
             long startTimestamp = System.currentTimeMillis();
-            int tries = 0;
-            do {
-                if (tries++ > 0) {
-                    try {
-                        Thread.sleep(SLEEP_RETRY);
-                    } catch (InterruptedException ie) {
-                    }
-                    clearTimeouts();
-                }
-                synchronized(locks) {
+            long lastClearTimeouts = startTimestamp;
+            synchronized(locks) {
+                while (true) {
                     if (global) {
                         // try to acquire a global lock
                         if (locks.size() == 0) {
@@ -123,9 +133,24 @@ public class DataLocks {
                             return newDataLock(object);
                         }
                     }
+                    long now = System.currentTimeMillis();
+                    if (now < startTimestamp || now - startTimestamp >= LOCK_TIMEOUT) {
+                        break;
+                    }
+                    if (now - lastClearTimeouts >= CLEAR_TIMEOUTS_INTERVAL) {
+                        clearTimeouts();
+                        lastClearTimeouts = now;
+                        continue;
+                    }
+                    // wait until a lock is released (or it's time to check for timed out locks)
+                    long wait = Math.min(LOCK_TIMEOUT - (now - startTimestamp),
+                            CLEAR_TIMEOUTS_INTERVAL - (now - lastClearTimeouts));
+                    try {
+                        locks.wait(Math.max(wait, 1));
+                    } catch (InterruptedException ie) {
+                    }
                 }
-            } while (System.currentTimeMillis() >= startTimestamp
-                    && System.currentTimeMillis() - startTimestamp < LOCK_TIMEOUT);
+            }
         } catch (Exception e) {
             Logger.logdebug(e);
         }
@@ -195,6 +220,7 @@ public class DataLocks {
             DataLock lock = locks.get(DataLock.GLOBAL_EXCLUSIVE_LOCK);
             if (lock != null && lock.getLockID() == lockID) {
                 locks.remove(DataLock.GLOBAL_EXCLUSIVE_LOCK);
+                locks.notifyAll();
                 return true;
             }
         }
@@ -206,7 +232,8 @@ public class DataLocks {
             for (Iterator<DataKey> it = locks.keySet().iterator(); it.hasNext();) {
                 DataLock lock = locks.get(it.next());
                 if (lock.getLockID() == lockID) {
-                    locks.remove(lock.getLockObject());
+                    it.remove();
+                    locks.notifyAll();
                     return true;
                 }
             }
@@ -66,7 +66,11 @@ public abstract class DataRecord implements Cloneable, Comparable {
 
     protected StorageObject persistence;
     protected MetaData metaData;
+    // Field values. Access to them is not synchronized: records stored in a storage object
+    // are immutable snapshots (see setImmutable()), and all other records belong to the
+    // thread which created them (typically as a clone returned by IDataAccess.get()).
     protected Object[] data;
+    private boolean immutable = false;
     protected String LastModification = null;    // Needed for efacloud synchronization
     protected boolean isCopyFromServer = false;  // Needed for efacloud synchronization
 
@@ -107,66 +111,64 @@ public abstract class DataRecord implements Cloneable, Comparable {
 
     public DataRecord cloneRecord() {
         DataRecord rec = createDataRecord();
-        synchronized(this.data) {
-            for (int i = 0; i < this.data.length; i++) {
-                if (this.data[i] != null) {
-                    switch (metaData.getFieldType(i)) {
-                        case IDataAccess.DATA_STRING:
-                            rec.data[i] = this.data[i];
-                            break;
-                        case IDataAccess.DATA_INTEGER:
-                            rec.data[i] = this.data[i];
-                            break;
-                        case IDataAccess.DATA_LONGINT:
-                            rec.data[i] = this.data[i];
-                            break;
-                        case IDataAccess.DATA_DOUBLE:
-                            rec.data[i] = this.data[i];
-                            Double d;
-                            break;
-                        case IDataAccess.DATA_DECIMAL:
-                            rec.data[i] = new DataTypeDecimal((DataTypeDecimal) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_DISTANCE:
-                            rec.data[i] = new DataTypeDistance((DataTypeDistance) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_BOOLEAN:
-                            rec.data[i] = this.data[i];
-                            break;
-                        case IDataAccess.DATA_DATE:
-                            rec.data[i] = new DataTypeDate((DataTypeDate) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_TIME:
-                            rec.data[i] = new DataTypeTime((DataTypeTime) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_UUID:
-                            rec.data[i] = this.data[i];
-                            break;
-                        case IDataAccess.DATA_INTSTRING:
-                            rec.data[i] = new DataTypeIntString((DataTypeIntString) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_PASSWORDH:
-                            rec.data[i] = new DataTypePasswordHashed((DataTypePasswordHashed) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_PASSWORDC:
-                            rec.data[i] = new DataTypePasswordCrypted((DataTypePasswordCrypted) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_LIST_STRING:
-                            rec.data[i] = new DataTypeList<String>((DataTypeList<String>) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_LIST_INTEGER:
-                            rec.data[i] = new DataTypeList<Integer>((DataTypeList<Integer>) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_LIST_UUID:
-                            rec.data[i] = new DataTypeList<UUID>((DataTypeList<UUID>) this.data[i]);
-                            break;
-                        case IDataAccess.DATA_VIRTUAL:
-                            // nothing to do
-                            break;
-                    }
-                } else {
-                    rec.data[i] = null;
+        for (int i = 0; i < this.data.length; i++) {
+            if (this.data[i] != null) {
+                switch (metaData.getFieldType(i)) {
+                    case IDataAccess.DATA_STRING:
+                        rec.data[i] = this.data[i];
+                        break;
+                    case IDataAccess.DATA_INTEGER:
+                        rec.data[i] = this.data[i];
+                        break;
+                    case IDataAccess.DATA_LONGINT:
+                        rec.data[i] = this.data[i];
+                        break;
+                    case IDataAccess.DATA_DOUBLE:
+                        rec.data[i] = this.data[i];
+                        Double d;
+                        break;
+                    case IDataAccess.DATA_DECIMAL:
+                        rec.data[i] = new DataTypeDecimal((DataTypeDecimal) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_DISTANCE:
+                        rec.data[i] = new DataTypeDistance((DataTypeDistance) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_BOOLEAN:
+                        rec.data[i] = this.data[i];
+                        break;
+                    case IDataAccess.DATA_DATE:
+                        rec.data[i] = new DataTypeDate((DataTypeDate) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_TIME:
+                        rec.data[i] = new DataTypeTime((DataTypeTime) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_UUID:
+                        rec.data[i] = this.data[i];
+                        break;
+                    case IDataAccess.DATA_INTSTRING:
+                        rec.data[i] = new DataTypeIntString((DataTypeIntString) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_PASSWORDH:
+                        rec.data[i] = new DataTypePasswordHashed((DataTypePasswordHashed) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_PASSWORDC:
+                        rec.data[i] = new DataTypePasswordCrypted((DataTypePasswordCrypted) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_LIST_STRING:
+                        rec.data[i] = new DataTypeList<String>((DataTypeList<String>) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_LIST_INTEGER:
+                        rec.data[i] = new DataTypeList<Integer>((DataTypeList<Integer>) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_LIST_UUID:
+                        rec.data[i] = new DataTypeList<UUID>((DataTypeList<UUID>) this.data[i]);
+                        break;
+                    case IDataAccess.DATA_VIRTUAL:
+                        // nothing to do
+                        break;
                 }
+            } else {
+                rec.data[i] = null;
             }
         }
         return rec;
@@ -317,9 +319,24 @@ public abstract class DataRecord implements Cloneable, Comparable {
                     return;
             }
         }
-        synchronized (this.data) {
-            this.data[fieldIdx] = data;
+        if (immutable) {
+            throw new IllegalStateException(persistence.toString() + ": Attempt to modify immutable Data Record (Data Field " + metaData.getFieldName(fieldIdx) + ").");
         }
+        this.data[fieldIdx] = data;
+    }
+
+    /**
+     * Marks this record as an immutable snapshot: any further attempt to modify it
+     * will fail. Records become immutable when they are stored in a storage object,
+     * before they are published to other threads; readers can then access their
+     * fields without any synchronization. Use cloneRecord() to get a modifiable copy.
+     */
+    void setImmutable() {
+        immutable = true;
+    }
+
+    public boolean isImmutable() {
+        return immutable;
     }
 
     protected void set(String fieldName, Object data, boolean updateTimestamp) {
@@ -338,13 +355,10 @@ public abstract class DataRecord implements Cloneable, Comparable {
         if (fieldIdx < 0) {
             return null;
         }
-        int type = getFieldType(fieldIdx);
-        synchronized(data) {
-            if (type != IDataAccess.DATA_VIRTUAL) {
-                return this.data[fieldIdx];
-            } else {
-                return getVirtualColumn(fieldIdx);
-            }
+        if (getFieldType(fieldIdx) != IDataAccess.DATA_VIRTUAL) {
+            return this.data[fieldIdx];
+        } else {
+            return getVirtualColumn(fieldIdx);
         }
     }
 
@@ -567,9 +581,7 @@ public abstract class DataRecord implements Cloneable, Comparable {
     }
 
     public void setLastModified() {
-        synchronized (this.data) {
-            this.data[getFieldCount() - 1] = (Long)System.currentTimeMillis(); // LastModified timestamp
-        }
+        set(getFieldCount() - 1, (Long)System.currentTimeMillis(), false); // LastModified timestamp
     }
 
     public long getLastModified() {
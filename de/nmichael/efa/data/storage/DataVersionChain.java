@@ -0,0 +1,64 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data.storage;
+
+import java.util.*;
+
+// @i18n complete
+
+/**
+ * Helper functions for version chains: lists of the keys of all versions of
+ * a versionized record, sorted by ValidFrom (always the last key field).
+ * Keeping the lists sorted allows to find the version valid at a given time
+ * through binary search instead of walking through all versions.
+ */
+class DataVersionChain {
+
+    static long getValidFrom(DataKey key, int validFromField) {
+        return (Long)key.getKeyPart(validFromField);
+    }
+
+    /**
+     * Inserts key into the sorted list (unless it's already contained).
+     * @return true if the key has been inserted
+     */
+    static boolean insert(ArrayList<DataKey> list, DataKey key, int validFromField) {
+        long validFrom = getValidFrom(key, validFromField);
+        int pos = floor(list, validFrom, validFromField) + 1;
+        // keys with identical ValidFrom are equal (they belong to the same record)
+        if (pos > 0 && getValidFrom(list.get(pos - 1), validFromField) == validFrom) {
+            if (list.get(pos - 1).equals(key)) {
+                return false;
+            }
+        }
+        list.add(pos, key);
+        return true;
+    }
+
+    /**
+     * Returns the position of the last key in the sorted list with ValidFrom <= t,
+     * or -1 if all versions are valid only after t.
+     */
+    static int floor(ArrayList<DataKey> list, long t, int validFromField) {
+        int lo = 0;
+        int hi = list.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getValidFrom(list.get(mid), validFromField) <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+}
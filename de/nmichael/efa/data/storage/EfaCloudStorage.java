@@ -32,6 +32,9 @@ public class EfaCloudStorage extends XMLFile {
     // for debugging 5.1.21 only
     public final TxRequestQueue txQueue;
     private final String tablename;
+    // hash tree over the record content, brought up-to-date on access
+    private final RecordHashTree hashTree = new RecordHashTree();
+    private long hashTreeScn = -1;
 
     /**
      * Create a Web DB access. This is a local storage (csv) for caching and offline usage and an interface to an efaDB
@@ -79,8 +82,9 @@ public class EfaCloudStorage extends XMLFile {
      * @param delete        set true, if the modify transaction is a record deletion
      * @param useSynchQueue set true, to append the transaction to the synchronization transactions queue rather than to
      *                      the pending transactions queue
+     * @return the appended transaction, null if the queue did not accept it.
      */
-    public void modifyServerRecord(DataRecord dataRecord, boolean add, boolean update, boolean delete,
+    public Transaction modifyServerRecord(DataRecord dataRecord, boolean add, boolean update, boolean delete,
                                    boolean useSynchQueue) {
         Transaction.TX_TYPE type = (add) ? Transaction.TX_TYPE.INSERT : (update) ? Transaction.TX_TYPE.UPDATE :
                 (delete) ? Transaction.TX_TYPE.DELETE : Transaction.TX_TYPE.NOP;
@@ -101,7 +105,7 @@ public class EfaCloudStorage extends XMLFile {
         }
         String[] rArray = record.toArray(new String[0]);
         int queueIndex = (useSynchQueue) ? TX_SYNCH_QUEUE_INDEX : TX_PENDING_QUEUE_INDEX;
-        txQueue.appendTransaction(queueIndex, type, tablename, rArray);
+        return txQueue.appendTransaction(queueIndex, type, tablename, rArray);
     }
 
     /**
@@ -128,6 +132,82 @@ public class EfaCloudStorage extends XMLFile {
         }
     }
 
+    /**
+     * Get the hash tree over the content of all records of this table. The tree is updated incrementally with the
+     * records changed since the last call, or rebuilt, if these are no longer known.
+     *
+     * @return the hash tree. It must only be read and not be modified by the caller.
+     * @throws EfaException if the records could not be read.
+     */
+    public synchronized RecordHashTree getHashTree() throws EfaException {
+        long currentScn = getSCN();
+        if (currentScn == hashTreeScn)
+            return hashTree;
+        DataKey[] changedKeys = (hashTreeScn >= 0) ? getChangesSince(hashTreeScn) : null;
+        if (changedKeys != null) {
+            for (DataKey k : changedKeys) {
+                DataRecord r = get(k);
+                hashTree.put(k, (r == null) ? null : RecordHashTree.getRecordHash(r));
+            }
+        } else {
+            hashTree.clear();
+            DataKeyIterator it = getStaticIterator();
+            for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+                DataRecord r = get(k);
+                if (r != null)
+                    hashTree.put(k, RecordHashTree.getRecordHash(r));
+            }
+        }
+        hashTreeScn = currentScn;
+        return hashTree;
+    }
+
+    /**
+     * A single modification of a local record to be applied by modifyLocalRecords().
+     */
+    public static class LocalModification {
+        public final DataRecord dataRecord;
+        public final boolean add;
+        public final boolean update;
+        public final boolean delete;
+        // the error, if the modification failed, else null.
+        public EfaException error;
+
+        public LocalModification(DataRecord dataRecord, boolean add, boolean update, boolean delete) {
+            this.dataRecord = dataRecord;
+            this.add = add;
+            this.update = update;
+            this.delete = delete;
+        }
+    }
+
+    /**
+     * Copy a batch of server side data records into this local data base, see modifyLocalRecord(). All modifications
+     * are applied with a single global lock, so their journal entries are synced together when the lock is released.
+     * If a single modification fails, its error is put into the modification and the remaining ones are still
+     * applied.
+     *
+     * @param modifications the modifications to apply
+     * @throws EfaException if the global lock could not be acquired. Then no modification was applied.
+     */
+    public void modifyLocalRecords(ArrayList<LocalModification> modifications) throws EfaException {
+        if (modifications.isEmpty())
+            return;
+        long globalLock = acquireGlobalLock();
+        try {
+            for (LocalModification modification : modifications) {
+                try {
+                    modifyLocalRecord(modification.dataRecord, globalLock, modification.add, modification.update,
+                            modification.delete);
+                } catch (EfaException e) {
+                    modification.error = e;
+                }
+            }
+        } finally {
+            releaseGlobalLock(globalLock);
+        }
+    }
+
     /**
      * Parse a csv table into a list of data records for further handling. This reads only data fields which are part of
      * the data record template and additionally puts the value of "LastModification" into the LastModification field of
@@ -12,6 +12,7 @@ package de.nmichael.efa.data.storage;
 
 import de.nmichael.efa.ex.EfaException;
 import de.nmichael.efa.core.BackupMetaDataItem;
+import java.io.OutputStream;
 import java.util.zip.ZipOutputStream;
 
 // @i18n complete
@@ -21,10 +22,12 @@ public interface IDataAccess {
     public static final int TYPE_FILE_XML = 1;
     public static final int TYPE_EFA_REMOTE = 2;
     public static final int TYPE_EFA_CLOUD = 3;
+    public static final int TYPE_FILE_BINARY = 4;
 
     public static final String TYPESTRING_FILE_XML = "file/xml";
     public static final String TYPESTRING_EFA_REMOTE = "efa/remote";
     public static final String TYPESTRING_EFA_CLOUD = "file/efaCloud";
+    public static final String TYPESTRING_FILE_BINARY = "file/binary";
 
     // Data Types supported by IDataAccess
     //                      Data Type                Internal Java Type
@@ -261,6 +264,28 @@ public interface IDataAccess {
      */
     public long getSCN() throws EfaException;
 
+    /**
+     * Returns the keys of all records which have been added, updated or deleted after scn,
+     * in the order of their (last) change. Only a limited number of the most recent changes
+     * is kept, and only while the storage object is open.
+     * @param scn the SCN up to which changes are already known to the caller
+     * @return the changed keys, or null if changes since scn are not known (in which case
+     *         the caller has to assume that all records may have changed)
+     */
+    public DataKey[] getChangesSince(long scn);
+
+    /**
+     * Registers a listener to be notified after records of this storage object have changed.
+     * @param listener the listener
+     */
+    public void addChangeListener(IDataChangeListener listener);
+
+    /**
+     * Removes a previously registered change listener.
+     * @param listener the listener
+     */
+    public void removeChangeListener(IDataChangeListener listener);
+
     /**
      * Registers a new data field.
      * @param fieldName the name of the new field
@@ -276,6 +301,14 @@ public interface IDataAccess {
      */
     public void createIndex(String[] fieldNames) throws EfaException;
 
+    /**
+     * Creates a sorted index on the specified fields, which in addition to exact
+     * matches also supports range and prefix lookups.
+     * @param fieldNames the fields to create the index on.
+     * @throws EfaException
+     */
+    public void createSortedIndex(String[] fieldNames) throws EfaException;
+
 
     /**
      * Specifies the key fields for this storage object. The combination of key field
@@ -496,6 +529,15 @@ public interface IDataAccess {
      */
     public DataRecord get(DataKey key) throws EfaException;
 
+    /**
+     * Retrieves several existing data records from this storage object at once. Remote
+     * storage objects fetch all of them in a single exchange with the server.
+     * @param keys the keys of the data records to retrieve
+     * @return the records (in the order of the keys); null elements for keys without record
+     * @throws Exception if the operation fails
+     */
+    public DataRecord[] get(DataKey[] keys) throws EfaException;
+
     /**
      * Retrieves all existing data records valid at any point in time from this storage object.
      * @param key the key of the data record to retrieve (with or without the validity information)
@@ -554,6 +596,28 @@ public interface IDataAccess {
      */
     public DataKey[] getByFields(String[] fieldNames, Object[] values, long validAt) throws EfaException;
 
+    /**
+     * Retrieves all keys for data records whose values of fieldNames are within the
+     * range [fromValues, toValues] (both inclusive), compared field by field in the order of fieldNames.
+     * A null value leaves the bound open for this and all following fields.
+     * @param fieldNames the field names for the corresponding values
+     * @param fromValues the lower bound
+     * @param toValues the upper bound
+     * @return all matching keys, or null if there are none
+     * @throws EfaException
+     */
+    public DataKey[] getByFieldsRange(String[] fieldNames, Object[] fromValues, Object[] toValues) throws EfaException;
+
+    /**
+     * Retrieves all keys for data records whose values of fieldNames match values,
+     * where the last value is a prefix of the (String) value of the last field.
+     * @param fieldNames the field names for the corresponding values
+     * @param values the values to search for, with the last one being a prefix
+     * @return all matching keys, or null if there are none
+     * @throws EfaException
+     */
+    public DataKey[] getByFieldsPrefix(String[] fieldNames, Object[] values) throws EfaException;
+
     /**
      * Returns a count of all the records where all fields match the gives values
      * @return the number of data records
@@ -603,5 +667,7 @@ public interface IDataAccess {
 
     public void saveToXmlFile(String filename) throws EfaException;
     public BackupMetaDataItem saveToZipFile(String dir, ZipOutputStream zipOut) throws EfaException;
+    public String getZipFileEntryName(String dir);
+    public BackupMetaDataItem saveToStream(String zipFileEntry, OutputStream out) throws EfaException;
 
 }
@@ -0,0 +1,35 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.data.storage;
+
+// @i18n complete
+
+/**
+ * Listener for changes of the records of a storage object, see
+ * IDataAccess.addChangeListener().
+ */
+public interface IDataChangeListener {
+
+    /**
+     * Called after records of a storage object have been changed. Notifications
+     * are delivered one at a time and in the order of the SCN; several changes
+     * may be combined into a single notification.
+     * Listeners are called by the thread that made the change (after the change
+     * has been completed and, for changes made while holding the global lock, after
+     * the lock has been released), so they should return quickly.
+     * @param dataAccess the changed storage object
+     * @param scn the SCN after the changes
+     * @param changedKeys the keys of all records added, updated or deleted since
+     *        the previous notification, or null if all records may have changed
+     */
+    public void dataChanged(IDataAccess dataAccess, long scn, DataKey[] changedKeys);
+
+}
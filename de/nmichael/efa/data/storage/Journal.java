@@ -43,9 +43,16 @@ public class Journal {
 
     private long fwnr = -1;
     private BufferedWriter fw;
+    private FileOutputStream fos;
     private BufferedReader fr;
     private String fwname = null;
 
+    // group commit: log() only appends to the buffered writer; sync() flushes and forces
+    // all entries logged so far to disk, so concurrent writers share a single flush.
+    private final Object syncLock = new Object();
+    private volatile long loggedScn = -1;
+    private long syncedScn = -1;
+
     public Journal(String storageObjectName, String storageObjectFilename) {
         this.storageObjectName = storageObjectName;
         this.storageObjectFilename = storageObjectFilename;
@@ -99,10 +106,12 @@ public class Journal {
 
     public boolean close() {
         try {
-            if (fw != null) {
-                fw.close();
-                fwnr = -1;
-                fwname = null;
+            synchronized (syncLock) {
+                if (fw != null) {
+                    closeForAppend();
+                    fwnr = -1;
+                    fwname = null;
+                }
             }
             if (fr != null) {
                 fr.close();
@@ -138,6 +147,12 @@ public class Journal {
         return getJournalGroupName(jg);
     }
 
+    // Number of SCNs which the journals always cover: opening a new journal overwrites
+    // the oldest one, so only the older full journals are guaranteed to be kept.
+    public static long getRetainedScns() {
+        return (numberOfJournals - 1) * scnsPerJournal;
+    }
+
     public boolean isOpenNewJournal(long scn) {
         return scn == 1 || (scn % scnsPerJournal) == 0;
     }
@@ -147,32 +162,58 @@ public class Journal {
             return null;
         }
         long jnr = getJournalNumber(scn);
-        if (jnr != fwnr || fw == null) {
-            String journalName = getJournalName(scn);
-            try {
-                if (isOpenNewJournal(scn)) {
-                    // open with overwrite
-                    fw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalName, false), Daten.ENCODING_UTF));
-                    fw.write(JHEADER_JOPENED + ": " + EfaUtil.getCurrentTimeStampYYYY_MM_DD_HH_MM_SS() + "\n");
-                    fw.write(JHEADER_SOBJECT + ": " + storageObjectName + "\n");
-                    fw.write(JHEADER_JNUMBER + ": " + jnr + "\n");
-                    fw.write(JHEADER_JGROUP + ": " + getJournalGroup(scn) + "\n");
-                    fw.write(JHEADER_1STSCN + ": " + scn + "\n");
-                } else {
-                    // open with append
-                    fw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalName, true), Daten.ENCODING_UTF));
+        // switch journals while holding syncLock, so that sync() never sees a half-switched journal
+        synchronized (syncLock) {
+            if (jnr != fwnr || fw == null) {
+                String journalName = getJournalName(scn);
+                try {
+                    // entries in the previous journal must be on disk before we switch
+                    closeForAppend();
+                    if (isOpenNewJournal(scn)) {
+                        // open with overwrite
+                        fos = new FileOutputStream(journalName, false);
+                        fw = new BufferedWriter(new OutputStreamWriter(fos, Daten.ENCODING_UTF));
+                        fw.write(JHEADER_JOPENED + ": " + EfaUtil.getCurrentTimeStampYYYY_MM_DD_HH_MM_SS() + "\n");
+                        fw.write(JHEADER_SOBJECT + ": " + storageObjectName + "\n");
+                        fw.write(JHEADER_JNUMBER + ": " + jnr + "\n");
+                        fw.write(JHEADER_JGROUP + ": " + getJournalGroup(scn) + "\n");
+                        fw.write(JHEADER_1STSCN + ": " + scn + "\n");
+                    } else {
+                        // open with append
+                        fos = new FileOutputStream(journalName, true);
+                        fw = new BufferedWriter(new OutputStreamWriter(fos, Daten.ENCODING_UTF));
+                    }
+                    fwnr = jnr;
+                    fwname = journalName;
+                } catch (Exception e) {
+                    Logger.log(Logger.ERROR, Logger.MSG_DATA_JOURNALOPENFAILED,
+                            LogString.fileCreationFailed(journalName, International.getString("Journal"), e.toString()));
+                    fw = null;
+                    fos = null;
+                    fwnr = -1;
+                    fwname = null;
                 }
-                fwnr = jnr;
-                fwname = journalName;
-            } catch (Exception e) {
-                Logger.log(Logger.ERROR, Logger.MSG_DATA_JOURNALOPENFAILED,
-                        LogString.fileCreationFailed(journalName, International.getString("Journal"), e.toString()));
-                fw = null;
-                fwnr = -1;
-                fwname = null;
             }
+            return fw;
+        }
+    }
+
+    // must be called with syncLock held
+    private void closeForAppend() throws IOException {
+        if (fw == null) {
+            return;
+        }
+        try {
+            fw.flush();
+            if (FLUSH_WRITES) {
+                fos.getChannel().force(false);
+            }
+            syncedScn = Math.max(syncedScn, loggedScn);
+        } finally {
+            fw.close();
+            fw = null;
+            fos = null;
         }
-        return fw;
     }
 
     private boolean openForRead(long jgrp) {
@@ -210,7 +251,7 @@ public class Journal {
         }
     }
 
-    private long getScnFromJournalLine(String s) {
+    static long getScnFromJournalLine(String s) {
         try {
             s = s.trim();
             if (s.startsWith("#")) {
@@ -225,7 +266,7 @@ public class Journal {
         return -1;
     }
 
-    private long getTimestampFromJournalLine(String s) {
+    static long getTimestampFromJournalLine(String s) {
         try {
             s = s.trim();
             if (s.startsWith("#")) {
@@ -241,7 +282,7 @@ public class Journal {
         return -1;
     }
 
-    private Operation getOperationFromJournalLine(String s) {
+    static Operation getOperationFromJournalLine(String s) {
         try {
             s = s.trim();
             if (s.startsWith("#")) {
@@ -258,7 +299,7 @@ public class Journal {
         return null;
     }
 
-    private DataRecord getDataRecordFromJournalLine(String s, IDataAccess dataAccess) {
+    static DataRecord getDataRecordFromJournalLine(String s, IDataAccess dataAccess) {
         try {
             s = s.trim();
             if (s.startsWith("#")) {
@@ -319,9 +360,7 @@ public class Journal {
                 return false;
             }
             f.write(s + "\n");
-            if (FLUSH_WRITES) {
-                f.flush();
-            }
+            loggedScn = scn;
         } catch(Exception e) {
             Logger.log(Logger.ERROR, Logger.MSG_DATA_JOURNALWRITEFAILED,
                         LogString.fileWritingFailed(fwname, International.getString("Journal"), e.toString()));
@@ -330,6 +369,42 @@ public class Journal {
         return true;
     }
 
+    /**
+     * Makes sure all journal entries up to scn have been written to disk (if synchronous
+     * journal writes are configured). Must not be called while holding the monitor of the
+     * storage object's data, so that other threads can log further entries in the meantime:
+     * whichever thread gets to sync first flushes all entries logged so far in a single
+     * write and FileChannel.force(), and the other threads will find their entries already
+     * synced (group commit).
+     * @param scn the SCN of the last entry that must be on disk
+     * @return true if successful
+     */
+    public boolean sync(long scn) {
+        if (!FLUSH_WRITES) {
+            return true;
+        }
+        synchronized (syncLock) {
+            if (syncedScn >= scn) {
+                return true;
+            }
+            try {
+                long target = loggedScn;
+                if (fw != null) {
+                    long start = Metrics.start();
+                    fw.flush();
+                    fos.getChannel().force(false);
+                    Metrics.stop(Metrics.TIMER_JOURNAL_SYNC, start);
+                }
+                syncedScn = target;
+            } catch(Exception e) {
+                Logger.log(Logger.ERROR, Logger.MSG_DATA_JOURNALWRITEFAILED,
+                        LogString.fileWritingFailed(fwname, International.getString("Journal"), e.toString()));
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void deleteAllJournals() throws EfaException {
         for (int i = 0; i < numberOfJournals; i++) {
             String filename = getJournalGroupName(i);
@@ -382,16 +457,24 @@ public class Journal {
                         International.getString("Nachfahren von Änderungen unvollständig")));
                 break;
             }
-            long thisScn = j.getScnFromJournalLine(s);
+            long thisScn = getScnFromJournalLine(s);
             if (thisScn < myScn) {
                 continue;
             }
-            Operation op = j.getOperationFromJournalLine(s);
-            DataRecord r = j.getDataRecordFromJournalLine(s, dataFile);
+            Operation op = getOperationFromJournalLine(s);
+            DataRecord r = getDataRecordFromJournalLine(s, dataFile);
 
             if (thisScn != myScn) {
                 throw new Exception ("Expected SCN " + myScn + ", but found SCN " + thisScn);
             }
+            if ((op == null || (op != Operation.truncate && r == null)) && j.readNextLine() == null) {
+                // last entry has only been partially written (and was never synced), so its
+                // operation has never completed: everything up to here has been replayed
+                Logger.log(Logger.ERROR, Logger.MSG_DATA_REPLAYINCOMPLETE,
+                        LogString.operationStarted(
+                        International.getString("Nachfahren von Änderungen unvollständig")));
+                break;
+            }
             if (op == null) {
                 throw new Exception ("No Operation found for SCN " + myScn);
             }
@@ -22,6 +22,7 @@ public class MetaData {
     protected HashMap<String,Integer> FIELDIDX;
     protected String[] KEY;
     protected ArrayList<String[]> indices = new ArrayList<String[]>();
+    protected ArrayList<String[]> sortedIndices = new ArrayList<String[]>();
     protected boolean versionized;
 
     private static Hashtable<String,MetaData> metaData = new Hashtable<String,MetaData>();
@@ -97,6 +98,18 @@ public class MetaData {
         return idx;
     }
 
+    public void addSortedIndex(String[] fieldNames) {
+        sortedIndices.add(fieldNames);
+    }
+
+    public String[][] getSortedIndices() {
+        String[][] idx = new String[sortedIndices.size()][];
+        for (int i=0; i<idx.length; i++) {
+            idx[i] = sortedIndices.get(i);
+        }
+        return idx;
+    }
+
     public int getNumberOfFields() {
         return FIELDS.length;
     }
@@ -37,6 +37,14 @@ public class RemoteEfaClient extends DataAccess {
 
     private long lastPrintStatistics = 0;
 
+    private static final long CHANGES_WAIT_MARGIN = 10 * 1000; // server response time left within receive timeout
+
+    private static final int MAX_REQUESTS_PER_EXCHANGE = 100;
+
+    // SAX parsers are reused for all responses received by a thread (a parser can't
+    // parse more than one document at a time, but is reusable once done)
+    private static final ThreadLocal<XMLReader> responseParser = new ThreadLocal<XMLReader>();
+
     public RemoteEfaClient(String location, String username, String password, String name, String extension, String description) {
         setStorageLocation(location);
         setStorageObjectName(name);
@@ -110,19 +118,11 @@ public class RemoteEfaClient extends DataAccess {
                     AccessStatistics.COUNTER_REQSENT, 1);
         }
 
-        StringBuffer request = new StringBuffer();
-        request.append("<?xml version='1.0' encoding='" + Daten.ENCODING_UTF + "' ?>");
-        request.append("<" + RemoteEfaParser.XML_EFA + ">");
-        for (int i=0; i<requests.size(); i++) {
-            request.append(requests.get(i).toString());
-        }
-        request.append("</" + RemoteEfaParser.XML_EFA + ">");
-        for (int i = 0; i < requests.size(); i++) {
-            AccessStatistics.updateStatistics(this, requests.get(i).getOperationName(),
-                    AccessStatistics.COUNTER_BYTESSENT, request.length() / requests.size());
-        }
-
         if (Logger.isTraceOn(Logger.TT_REMOTEEFA, 5)) {
+            StringBuffer request = new StringBuffer();
+            for (int i=0; i<requests.size(); i++) {
+                request.append(requests.get(i).toString());
+            }
             Logger.log(Logger.DEBUG, Logger.MSG_REFA_DEBUGCOMMUNICATION, "Sending Request [" + url.toString() + "]: " + request.toString());
         }
         if (Logger.isTraceOn(Logger.TT_REMOTEEFA, 2)) {
@@ -137,23 +137,37 @@ public class RemoteEfaClient extends DataAccess {
             }
         }
 
+        // The connection is kept alive and reused for subsequent requests (see closeConnection()).
+        // All requests are streamed into the (compressed) request body one after another, and
+        // the server responds to all of them in a single response.
         long reqStartTs = System.currentTimeMillis();
-        URLConnection connection = url.openConnection();
-        connection.setDoOutput(true);
-        connection.setDoInput(true);
-        connection.setUseCaches(false);
-        connection.setAllowUserInteraction(true);
-        connection.setRequestProperty("Content-Type", "application/xml"); //"application/x-www-form-urlencoded");
-        OutputStreamWriter out = new OutputStreamWriter(
-                RemoteEfaMessage.getOutputStream(connection.getOutputStream()),
-                Daten.ENCODING_UTF);
-        out.write(request.toString());
-        out.flush();
-        out.close();
-
-        Vector<RemoteEfaMessage> responses = getResponse(connection, 
-                RemoteEfaMessage.getBufferedInputStream(connection.getInputStream(),
-                Daten.efaConfig.getValueDataRemoteClientReceiveTimeout()));
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        Vector<RemoteEfaMessage> responses = null;
+        try {
+            connection.setDoOutput(true);
+            connection.setDoInput(true);
+            connection.setUseCaches(false);
+            connection.setAllowUserInteraction(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/xml"); //"application/x-www-form-urlencoded");
+            connection.setRequestProperty("Connection", "keep-alive");
+            connection.setChunkedStreamingMode(0);
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    RemoteEfaMessage.getOutputStream(connection.getOutputStream()),
+                    Daten.ENCODING_UTF));
+            long length = RemoteEfaMessage.writeMessages(out, requests);
+            out.close();
+            for (int i = 0; i < requests.size(); i++) {
+                AccessStatistics.updateStatistics(this, requests.get(i).getOperationName(),
+                        AccessStatistics.COUNTER_BYTESSENT, length / requests.size());
+            }
+
+            responses = getResponse(connection,
+                    RemoteEfaMessage.getBufferedInputStream(connection.getInputStream(),
+                    Daten.efaConfig.getValueDataRemoteClientReceiveTimeout()));
+        } finally {
+            closeConnection(connection, responses != null);
+        }
         if (responses == null) {
             for (int i = 0; i < requests.size(); i++) {
                 AccessStatistics.updateStatistics(this, requests.get(i).getOperationName(),
@@ -195,10 +209,38 @@ public class RemoteEfaClient extends DataAccess {
                         + (reqEndTs - reqStartTs) + " ms]");
             }
         }
-        getGeneralDataFromResponses(responses);
+        getGeneralDataFromResponses(requests, responses);
         return responses;
     }
 
+    // Reads the remainder of the response, so that the underlying connection can be
+    // reused for the next request; if the exchange failed, the connection is dropped.
+    private void closeConnection(HttpURLConnection connection, boolean success) {
+        if (!success) {
+            connection.disconnect();
+            return;
+        }
+        try {
+            InputStream in = connection.getInputStream();
+            byte[] buf = new byte[1024];
+            while (in.read(buf) >= 0) {
+                // drain
+            }
+            in.close();
+        } catch(Exception e) {
+            connection.disconnect();
+        }
+    }
+
+    private XMLReader getResponseParser() {
+        XMLReader parser = responseParser.get();
+        if (parser == null) {
+            parser = EfaUtil.getXMLReader();
+            responseParser.set(parser);
+        }
+        return parser;
+    }
+
     private Vector<RemoteEfaMessage> getResponse(URLConnection connection, RemoteEfaMessage.EfaMessageInputStream eis) {
         if (eis == null || eis.in == null) {
             return null;
@@ -236,10 +278,14 @@ public class RemoteEfaClient extends DataAccess {
         }
 
         try {
-            XMLReader parser = EfaUtil.getXMLReader();
+            XMLReader parser = getResponseParser();
             RemoteEfaParser responseHandler = new RemoteEfaParser(this);
             parser.setContentHandler(responseHandler);
-            parser.parse(new InputSource(in));
+            // don't let the parser close the stream: it is drained and closed in closeConnection()
+            parser.parse(new InputSource(new FilterInputStream(in) {
+                public void close() {
+                }
+            }));
             if (responseHandler.isDocumentComplete()) {
                 Vector<RemoteEfaMessage> responses = responseHandler.getMessages();
                 if (responses != null && responses.size() > 0 && responses.get(0) != null) {
@@ -278,11 +324,12 @@ public class RemoteEfaClient extends DataAccess {
         }
     }
 
-    private void getGeneralDataFromResponses(Vector<RemoteEfaMessage> responses) {
+    private void getGeneralDataFromResponses(Vector<RemoteEfaMessage> requests, Vector<RemoteEfaMessage> responses) {
         if (responses == null) {
             return;
         }
         for (int i=0; i<responses.size(); i++) {
+            RemoteEfaMessage request = (i < requests.size() ? requests.get(i) : null);
             RemoteEfaMessage response = responses.get(i);
             if (sessionId == null && response != null && response.getSessionId() != null) {
                 // this was a login request
@@ -290,7 +337,12 @@ public class RemoteEfaClient extends DataAccess {
                 lastLoginFailed = 0;
                 loggedIn = true;
             }
-            if (response != null && response.getResultCode() == RemoteEfaMessage.RESULT_OK) {
+            if (response != null && response.getResultCode() == RemoteEfaMessage.RESULT_OK &&
+                request != null && RemoteEfaMessage.OPERATION_GETCHANGES.equals(request.getOperationName())) {
+                // records are the changed records, keys the deleted ones
+                cache.applyChanges(response.getScn(), response.getRecCnt(),
+                        response.getRecords(), response.getKeys());
+            } else if (response != null && response.getResultCode() == RemoteEfaMessage.RESULT_OK) {
                 long scn = response.getScn();
                 long totalRecordCount = response.getRecCnt();
                 DataRecord[] records = response.getRecords();
@@ -385,6 +437,85 @@ public class RemoteEfaClient extends DataAccess {
         }
     }
 
+    /**
+     * Runs several data requests, sending as many of them as possible in a single exchange
+     * with the server, so that they only cost one round trip instead of one per request.
+     * @param requests the requests, with consecutive message IDs starting at 1
+     * @return the responses (in the order of the requests); null elements for requests
+     *         which failed
+     */
+    public RemoteEfaMessage[] runDataRequests(Vector<RemoteEfaMessage> requests) {
+        RemoteEfaMessage[] responses = new RemoteEfaMessage[requests.size()];
+        for (int start = 0; start < requests.size(); start += MAX_REQUESTS_PER_EXCHANGE) {
+            Vector<RemoteEfaMessage> batch = new Vector<RemoteEfaMessage>(
+                    requests.subList(start, Math.min(start + MAX_REQUESTS_PER_EXCHANGE, requests.size())));
+            try {
+                Vector<RemoteEfaMessage> batchResponses = sendRequest(batch);
+                if (batchResponses == null || batchResponses.size() != batch.size()) {
+                    if (loggedIn) {
+                        Logger.log(Logger.ERROR, Logger.MSG_REFA_UNEXPECTEDRESPONSE, getErrorLogstring(batch.get(0),
+                                "unexpected number of responses for data requests: " +
+                                (batchResponses != null ? batchResponses.size() : 0) + " (expected " + batch.size() + ")", -1));
+                    }
+                    continue;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    responses[start + i] = batchResponses.get(i);
+                }
+            } catch(Exception e) {
+                Logger.log(Logger.ERROR, Logger.MSG_REFA_REQUESTFAILED, getErrorLogstring(batch.get(0),
+                           e.getMessage(), -1), false);
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Fetches all changes after scn from the server and applies them to the cache.
+     * @param scn the SCN the cache is up-to-date with
+     * @param timeout if there are no changes yet, wait up to timeout ms for changes
+     * @return true if successful, false if the server doesn't know all changes since scn
+     *         (then the cache has to be dropped)
+     */
+    boolean fetchChanges(long scn, long timeout) {
+        RemoteEfaMessage response = requestChanges(scn, timeout);
+        return response != null && response.getResultCode() == RemoteEfaMessage.RESULT_OK;
+    }
+
+    private RemoteEfaMessage requestChanges(long scn, long timeout) {
+        RemoteEfaMessage request = RemoteEfaMessage.createRequestData(1, getStorageObjectType(), getStorageObjectName(),
+                RemoteEfaMessage.OPERATION_GETCHANGES);
+        request.addField(RemoteEfaMessage.FIELD_SCN, Long.toString(scn));
+        if (timeout > 0) {
+            request.addField(RemoteEfaMessage.FIELD_LONGVALUE, Long.toString(timeout));
+        }
+        return runDataRequest(request);
+    }
+
+    /**
+     * Waits until data on the server changes (or until timeout ms expire), and updates the
+     * cache with all changes. Clients interested in changes should use this method instead
+     * of polling the SCN: the server responds as soon as changes occur (long polling), and
+     * only changed records are transferred. Servers not supporting this respond immediately.
+     * @return the current SCN
+     */
+    public long waitForChanges(long timeout) throws EfaException {
+        long scn = cache.getScn();
+        if (scn >= 0) {
+            // the server must respond within our receive timeout
+            long receiveTimeout = Daten.efaConfig.getValueDataRemoteClientReceiveTimeout() * 1000;
+            long maxTimeout = Math.min(RemoteEfaServer.MAX_CHANGES_WAIT,
+                    Math.max(receiveTimeout - CHANGES_WAIT_MARGIN, receiveTimeout / 2));
+            RemoteEfaMessage response = requestChanges(scn, Math.min(timeout, maxTimeout));
+            if (response != null && response.getResultCode() == RemoteEfaMessage.RESULT_FALSE) {
+                // server doesn't know all changes since our SCN anymore
+                cache.updateScn(-1, -1);
+            }
+        }
+        fireDataChanged(); // without a change log, listeners are told that all records may have changed
+        return getSCN();
+    }
+
     // =========================== Storage Object Methods ===========================
 
     public boolean existsStorageObject() throws EfaException {
@@ -522,6 +653,10 @@ public class RemoteEfaClient extends DataAccess {
         // nothing to be done
     }
 
+    public void createSortedIndex(String[] fieldNames) throws EfaException {
+        // nothing to be done
+    }
+
 
 
     // =========================== Data Modification Methods ===========================
@@ -608,6 +743,43 @@ public class RemoteEfaClient extends DataAccess {
         return response.getRecord(0);
     }
 
+    /**
+     * Retrieves the records for several keys at once: all records which are not cached
+     * are requested in a single exchange with the server.
+     * @return the records (in the order of the keys); null elements for keys without record
+     */
+    public DataRecord[] get(DataKey[] keys) throws EfaException {
+        DataRecord[] records = new DataRecord[keys.length];
+        Vector<RemoteEfaMessage> requests = new Vector<RemoteEfaMessage>();
+        Vector<Integer> requestIdx = new Vector<Integer>();
+        for (int i=0; i<keys.length; i++) {
+            records[i] = cache.get(keys[i]);
+            if (records[i] == null) {
+                RemoteEfaMessage request = RemoteEfaMessage.createRequestData(requests.size() + 1,
+                        getStorageObjectType(), getStorageObjectName(), RemoteEfaMessage.OPERATION_GET);
+                request.addKey(keys[i]);
+                requests.add(request);
+                requestIdx.add(i);
+            }
+        }
+        if (requests.size() == 0) {
+            return records;
+        }
+        RemoteEfaMessage[] responses = runDataRequests(requests);
+        for (int i=0; i<responses.length; i++) {
+            RemoteEfaMessage response = responses[i];
+            if (response == null || response.getResultCode() != RemoteEfaMessage.RESULT_OK) {
+                throw new EfaException(Logger.MSG_REFA_REQUESTFAILED,
+                        getErrorLogstring(RemoteEfaMessage.OPERATION_GET,
+                        (response != null ? response.getResultText() : "unknown"),
+                        (response != null ? response.getResultCode() : -1)),
+                        Thread.currentThread().getStackTrace());
+            }
+            records[requestIdx.get(i)] = response.getRecord(0);
+        }
+        return records;
+    }
+
     public DataKey[] getAllKeys() throws EfaException {
         RemoteEfaMessage request = RemoteEfaMessage.createRequestData(1, getStorageObjectType(), getStorageObjectName(),
                 RemoteEfaMessage.OPERATION_GETALLKEYS);
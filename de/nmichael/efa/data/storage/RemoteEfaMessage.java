@@ -15,8 +15,10 @@ import de.nmichael.efa.core.config.AdminRecord;
 import de.nmichael.efa.util.EfaUtil;
 import de.nmichael.efa.util.Logger;
 import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.util.Hashtable;
 import java.util.Vector;
 import java.util.zip.ZipEntry;
@@ -45,6 +47,7 @@ public class RemoteEfaMessage {
     public static final String OPERATION_RELEASELOCALLOCK        = "RelLLock";
     public static final String OPERATION_GETNUMBEROFRECORDS      = "GetNoOfRec";
     public static final String OPERATION_GETSCN                  = "GetSCN";
+    public static final String OPERATION_GETCHANGES              = "GetChanges";
     public static final String OPERATION_ADD                     = "Add";
     public static final String OPERATION_ADDVALIDAT              = "AddValidAt";
     public static final String OPERATION_ADDALL                  = "AddAll";
@@ -475,6 +478,27 @@ public class RemoteEfaMessage {
         }
     }
 
+    /**
+     * Writes a complete document containing all messages to out, one message at a time
+     * (rather than building the whole document in memory first).
+     * @return the number of characters written
+     */
+    public static long writeMessages(Writer out, Vector<RemoteEfaMessage> messages) throws IOException {
+        String s = "<?xml version='1.0' encoding='" + Daten.ENCODING_UTF + "' ?><" + RemoteEfaParser.XML_EFA + ">";
+        long length = s.length();
+        out.write(s);
+        for (int i=0; i<messages.size(); i++) {
+            s = messages.get(i).toString();
+            length += s.length();
+            out.write(s);
+        }
+        s = "</" + RemoteEfaParser.XML_EFA + ">";
+        length += s.length();
+        out.write(s);
+        out.flush();
+        return length;
+    }
+
     // ===================================== Message Size ====================================
 
     public void setMessageSizeEstimate(int size) {
@@ -18,6 +18,7 @@ import de.nmichael.efa.util.Base64;
 import de.nmichael.efa.util.EfaUtil;
 import de.nmichael.efa.util.International;
 import de.nmichael.efa.util.Logger;
+import de.nmichael.efa.util.Metrics;
 import de.nmichael.efa.core.OnlineUpdate;
 import java.io.*;
 import java.net.InetAddress;
@@ -31,6 +32,7 @@ import org.xml.sax.XMLReader;
 public class RemoteEfaServer {
 
     private static final long SESSION_TIMEOUT = 24 * 60 * 60 * 1000;
+    public static final long MAX_CHANGES_WAIT = 60 * 1000; // max wait time for changes (long polling)
 
     private static final Object syncObject = new Object();
 
@@ -41,6 +43,8 @@ public class RemoteEfaServer {
     private static String lastLoginIp = null;
     private static long lastLoginTime = 0;
 
+    public static final String METRICS_PATH = "/metrics";
+
     private int serverPort;
     private Hashtable<String,AdminRecord> sessions = new Hashtable<String,AdminRecord>();
     private Hashtable<String,Long> sessionTimeouts = new Hashtable<String,Long>();
@@ -77,6 +81,18 @@ public class RemoteEfaServer {
 
         public void handle(HttpExchange exchange) throws IOException {
             String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equalsIgnoreCase("GET")
+                    && METRICS_PATH.equals(exchange.getRequestURI().getPath())) {
+                // runtime metrics are only served to local clients
+                boolean local = exchange.getRemoteAddress().getAddress().isLoopbackAddress();
+                byte[] response = (local ? Metrics.getMetricsAsString() : "Forbidden\n").getBytes(Daten.ENCODING_UTF);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=" + Daten.ENCODING_UTF);
+                exchange.sendResponseHeaders((local ? 200 : 403), response.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                responseBody.write(response);
+                responseBody.close();
+                return;
+            }
             if (requestMethod.equalsIgnoreCase("GET")) {
                 Headers responseHeaders = exchange.getResponseHeaders();
                 responseHeaders.set("Content-Type", "text/html");
@@ -99,6 +115,7 @@ public class RemoteEfaServer {
                             RemoteEfaMessage.getBufferedInputStream(exchange.getRequestBody(), 0),
                             exchange.getRemoteAddress());
                     if (requests == null) {
+                        exchange.close();
                         return;
                     }
                     responses = handleRequests(requests, exchange.getRemoteAddress());
@@ -106,13 +123,11 @@ public class RemoteEfaServer {
                     responses.add(RemoteEfaMessage.createResponseResult(0, RemoteEfaMessage.ERROR_UNKNOWN, e.getMessage()));
                     Logger.log(e);
                 }
-                StringBuilder response = new StringBuilder();
-                response.append("<?xml version='1.0' encoding='" + Daten.ENCODING_UTF + "' ?><" + RemoteEfaParser.XML_EFA + ">");
-                for (int i=0; i<responses.size(); i++) {
-                    response.append(responses.get(i).toString());
-                }
-                response.append("</" + RemoteEfaParser.XML_EFA + ">");
                 if (Logger.isTraceOn(Logger.TT_REMOTEEFA, 5)) {
+                    StringBuilder response = new StringBuilder();
+                    for (int i=0; i<responses.size(); i++) {
+                        response.append(responses.get(i).toString());
+                    }
                     Logger.log(Logger.DEBUG, Logger.MSG_REFA_DEBUGCOMMUNICATION, "Sending Response [" + exchange.getRemoteAddress().toString() + "]: " + response.toString());
                 }
                 if (Logger.isTraceOn(Logger.TT_REMOTEEFA, 2)) {
@@ -126,8 +141,10 @@ public class RemoteEfaServer {
                                 + " (" + msg.toString().length() + " bytes)");
                     }
                 }
-                OutputStream responseBody = RemoteEfaMessage.getOutputStream(exchange.getResponseBody());
-                responseBody.write(response.toString().getBytes(Daten.ENCODING_UTF));
+                // stream responses one by one into the response body
+                Writer responseBody = new BufferedWriter(new OutputStreamWriter(
+                        RemoteEfaMessage.getOutputStream(exchange.getResponseBody()), Daten.ENCODING_UTF));
+                RemoteEfaMessage.writeMessages(responseBody, responses);
                 responseBody.close();
             }
         }
@@ -334,6 +351,10 @@ public class RemoteEfaServer {
                         responses.add(requestGetSCN(request, admin, p));
                         break;
                     }
+                    if (operation.equals(RemoteEfaMessage.OPERATION_GETCHANGES)) {
+                        responses.add(requestGetChanges(request, admin, p));
+                        break;
+                    }
                     if (operation.equals(RemoteEfaMessage.OPERATION_ADD)) {
                         responses.add(requestAdd(request, admin, p));
                         break;
@@ -445,8 +466,10 @@ public class RemoteEfaServer {
                 if (responses.size() > 0 && p != null) {
                     RemoteEfaMessage lastResponse = responses.get(responses.size() - 1);
                     if (lastResponse != null && lastResponse.getResultCode() == RemoteEfaMessage.RESULT_OK) {
-                        // add SCN to response
-                        lastResponse.addField(RemoteEfaMessage.FIELD_SCN, Long.toString(p.data().getSCN()));
+                        // add SCN to response (unless the request already reported the SCN its data refers to)
+                        if (lastResponse.getFieldValue(RemoteEfaMessage.FIELD_SCN) == null) {
+                            lastResponse.addField(RemoteEfaMessage.FIELD_SCN, Long.toString(p.data().getSCN()));
+                        }
                         // add NumberOfRecords to response
                         lastResponse.addField(RemoteEfaMessage.FIELD_TOTALRECORDCOUNT, Long.toString(p.dataAccess.getNumberOfRecords()));
                     }
@@ -690,6 +713,42 @@ public class RemoteEfaServer {
         }
     }
 
+    // Returns the current versions of all records changed after the SCN given in the request,
+    // and the keys of all records deleted since. If the request specifies a wait time and
+    // there are no changes yet, the response is delayed until changes occur (long polling).
+    private RemoteEfaMessage requestGetChanges(RemoteEfaMessage request, AdminRecord admin, StorageObject p) {
+        try {
+            if (!(p.dataAccess instanceof DataFile)) {
+                return RemoteEfaMessage.createResponseResult(request.getMsgId(), RemoteEfaMessage.ERROR_NOTYETSUPPORTED, "Changes not supported");
+            }
+            DataFile dataFile = (DataFile)p.dataAccess;
+            long scn = request.getScn();
+            long wait = Math.min(request.getLongValue(), MAX_CHANGES_WAIT);
+            if (wait > 0) {
+                dataFile.waitForChanges(scn, wait);
+            }
+            // changes after newScn may be included as well, which doesn't hurt
+            long newScn = dataFile.getSCN();
+            DataKey[] keys = dataFile.getChangesSince(scn);
+            if (keys == null) {
+                return RemoteEfaMessage.createResponseResult(request.getMsgId(), RemoteEfaMessage.RESULT_FALSE, "Changes since SCN " + scn + " not available");
+            }
+            RemoteEfaMessage response = RemoteEfaMessage.createResponseResult(request.getMsgId(), RemoteEfaMessage.RESULT_OK, null);
+            response.addField(RemoteEfaMessage.FIELD_SCN, Long.toString(newScn));
+            for (DataKey k : keys) {
+                DataRecord r = dataFile.get(k);
+                if (r != null) {
+                    response.addRecord(r);
+                } else {
+                    response.addKey(k); // deleted
+                }
+            }
+            return response;
+        } catch(Exception e) {
+            return RemoteEfaMessage.createResponseResult(request.getMsgId(), RemoteEfaMessage.ERROR_UNKNOWN, e.toString());
+        }
+    }
+
     // =========================== Data Modification Methods ===========================
 
     private RemoteEfaMessage requestAdd(RemoteEfaMessage request, AdminRecord admin, StorageObject p) {
@@ -120,10 +120,11 @@ public class XMLFile extends DataFile {
         write(data, xmltagStart(data, FIELD_DATA));
 
         String[] fields = data.dataAccess.getFieldNames();
+        DataFile dataFile = (data.dataAccess instanceof DataFile ? (DataFile)data.dataAccess : null);
         DataKeyIterator it = data.dataAccess.getStaticIterator();
-        DataKey k = it.getFirst();
-        while(k != null) {
-            DataRecord r = data.dataAccess.get(k);
+        for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+            // records of a DataFile are immutable and can be serialized without cloning them
+            DataRecord r = (dataFile != null ? dataFile.getSnapshot(k) : data.dataAccess.get(k));
             if (r == null) {
                 continue;
             }
@@ -135,7 +136,6 @@ public class XMLFile extends DataFile {
                 }
             }
             write(data, xmltagEnd(data, FIELD_DATA_RECORD));
-            k = it.getNext();
         }
 
         write(data, xmltagEnd(data, FIELD_DATA));
@@ -214,7 +214,9 @@ class XmlFileInfo {
                 return null;
             }
             String mirrorDir = Daten.efaConfig.getValueDataMirrorDirectory();
+            // binary files are not mirrored (their XML exports must not overwrite the mirror)
             if (mirrorDir != null && mirrorDir.length() > 0 && dataAccess instanceof XMLFile &&
+                    !(dataAccess instanceof BinaryFile) &&
                     new File(mirrorDir).exists()) {
                 String relativeFilename = ((XMLFile) dataAccess).mirrorRelativeFilename;
                 if (relativeFilename == null || relativeFilename.length() == 0) {
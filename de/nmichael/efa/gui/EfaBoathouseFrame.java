@@ -73,7 +73,6 @@ import de.nmichael.efa.data.Persons;
 import de.nmichael.efa.data.Project;
 import de.nmichael.efa.data.efacloud.TxRequestQueue;
 import de.nmichael.efa.data.storage.DataKey;
-import de.nmichael.efa.data.storage.DataKeyIterator;
 import de.nmichael.efa.data.storage.DataRecord;
 import de.nmichael.efa.data.storage.IDataAccess;
 import de.nmichael.efa.data.types.DataTypeDate;
@@ -96,6 +95,7 @@ import de.nmichael.efa.util.Help;
 import de.nmichael.efa.util.International;
 import de.nmichael.efa.util.LogString;
 import de.nmichael.efa.util.Logger;
+import de.nmichael.efa.util.Metrics;
 import de.nmichael.efa.util.Mnemonics;
 
 public class EfaBoathouseFrame extends BaseFrame implements IItemListener {
@@ -1632,8 +1632,8 @@ public class EfaBoathouseFrame extends BaseFrame implements IItemListener {
 
                 if (listChanged) {
                 	
-                	String strDebugTimes="";
-                	long start = System.currentTimeMillis();
+                	long startRefresh = Metrics.start();
+                	long start = Metrics.start();
 
                 	Vector <BoatReservationRecord> todaysReservations; 
                 	//obtain reservation info only if they shall be shown in the boatLists
@@ -1644,15 +1644,15 @@ public class EfaBoathouseFrame extends BaseFrame implements IItemListener {
                 	}
                 	
 
-                	strDebugTimes=strDebugTimes+(System.currentTimeMillis()-start);
+                	Metrics.stop(Metrics.TIMER_GUI_RESERVATIONS, start);
                 	
                     if (!Daten.efaConfig.getValueEfaDirekt_listAllowToggleBoatsPersons() || toggleAvailableBoatsToBoats.isSelected()) {
                         if (Logger.isTraceOn(Logger.TT_GUI, 9)) {
                             Logger.log(Logger.DEBUG, Logger.MSG_GUI_DEBUGGUI, "updateBoatLists(" + listChanged + ") - setting boatsAvailableList ...");
                         }
-                        start= System.currentTimeMillis();
+                        start = Metrics.start();
                         boatsAvailableList.setBoatStatusData(boatStatus.getBoats(BoatStatusRecord.STATUS_AVAILABLE, true), logbook, "<" + International.getString("anderes Boot") + ">", todaysReservations);
-                        strDebugTimes=strDebugTimes+";"+(System.currentTimeMillis()-start);
+                        Metrics.stop(Metrics.TIMER_GUI_BOATSAVAILABLE, start);
                         
                         if (Logger.isTraceOn(Logger.TT_GUI, 9)) {
                             Logger.log(Logger.DEBUG, Logger.MSG_GUI_DEBUGGUI, "updateBoatLists(" + listChanged + ") - setting boatsAvailableList - done");
@@ -1672,17 +1672,20 @@ public class EfaBoathouseFrame extends BaseFrame implements IItemListener {
                         Logger.log(Logger.DEBUG, Logger.MSG_GUI_DEBUGGUI, "updateBoatLists(" + listChanged + ") - setting boatsOnTheWaterList and boatsNotAvailableList ...");
                     }
                     if (!onlyAvailableBoatsOrPersons) {
-	                    start= System.currentTimeMillis();
+	                    start = Metrics.start();
 	                    boatsOnTheWaterList.setBoatStatusData(boatStatus.getBoats(BoatStatusRecord.STATUS_ONTHEWATER, true), logbook, null, todaysReservations);
-	                    strDebugTimes=strDebugTimes+";"+(System.currentTimeMillis()-start);
-	                    start=System.currentTimeMillis();
+	                    Metrics.stop(Metrics.TIMER_GUI_BOATSONTHEWATER, start);
+	                    start = Metrics.start();
 	                    boatsNotAvailableList.setBoatStatusData(boatStatus.getBoats(BoatStatusRecord.STATUS_NOTAVAILABLE, true), logbook, null, todaysReservations);
-	                    strDebugTimes=strDebugTimes+";"+(System.currentTimeMillis()-start);
+	                    Metrics.stop(Metrics.TIMER_GUI_BOATSNOTAVAIL, start);
                     }
                     if (Logger.isTraceOn(Logger.TT_GUI, 9)) {
                         Logger.log(Logger.DEBUG, Logger.MSG_GUI_DEBUGGUI, "updateBoatLists(" + listChanged + ") - setting boatsOnTheWaterList and boatsNotAvailableList - done");
                     }
-                    Logger.log(Logger.DEBUG, Logger.MSG_GUI_DEBUGGUI, "Aufrufzeiten: "+ strDebugTimes);
+                    long duration = Metrics.stop(Metrics.TIMER_GUI_BOATLISTS, startRefresh);
+                    if (Logger.isTraceOn(Logger.TT_GUI, 8)) {
+                        Logger.log(Logger.DEBUG, Logger.MSG_GUI_DEBUGGUI, "updateBoatLists(" + listChanged + ") - done in " + duration + " ms");
+                    }
                 }
             }
 
@@ -1765,21 +1768,31 @@ public class EfaBoathouseFrame extends BaseFrame implements IItemListener {
 	        //get reservations valid within 8 hours        
 	      	
 	        try {
-	        	DataKeyIterator iter = boatReservationDB.data().getStaticIterator();
-	            DataKey k = iter.getFirst();
-	            while (k != null) {
-	                BoatReservationRecord r = (BoatReservationRecord) boatReservationDB.data().get(k);
-	                if (r != null) {
-	                    boolean show = (!r.getInvisible()) &&
-	                                   (!r.getDeleted());
-	                    if (show) {
-	                        if (r.getReservationValidInMinutes(now, remainingMinutesToday) >= 0) { 
-	                        	//store the reservation 
-	                        	result.add(r);
-	                        }
+	        	// only reservations in today's calendar buckets can be valid today
+	        	DataTypeDate today = new DataTypeDate(now);
+	        	BoatReservationRecord[] reservations = boatReservationDB.getReservations(today, today, null);
+	        	if (reservations == null) {
+	        		// calendar not available: check all reservations
+	        		Vector <BoatReservationRecord> all = new Vector <BoatReservationRecord>();
+	        		DataKey[] keys = boatReservationDB.data().getAllKeys();
+	        		DataRecord[] records = (keys != null ? boatReservationDB.data().get(keys) : new DataRecord[0]);
+	        		for (DataRecord r : records) {
+	        			if (r != null) {
+	        				all.add((BoatReservationRecord) r);
+	        			}
+	        		}
+	        		reservations = all.toArray(new BoatReservationRecord[0]);
+	        	}
+	            for (int i = 0; i < reservations.length; i++) {
+	                BoatReservationRecord r = reservations[i];
+	                boolean show = (!r.getInvisible()) &&
+	                               (!r.getDeleted());
+	                if (show) {
+	                    if (r.getReservationValidInMinutes(now, remainingMinutesToday) >= 0) { 
+	                    	//store the reservation 
+	                    	result.add(r);
 	                    }
 	                }
-	                k = iter.getNext();
 	            }
 	        	
 	        } catch (Exception e) {
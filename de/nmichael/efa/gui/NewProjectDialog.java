@@ -159,9 +159,13 @@ public class NewProjectDialog extends StepwiseDialog implements IItemListener {
             if (item.getValue().equals(IDataAccess.TYPESTRING_EFA_CLOUD)) {
                 rPrj.setStorageType(IDataAccess.TYPE_EFA_CLOUD);
             }
+            if (item.getValue().equals(IDataAccess.TYPESTRING_FILE_BINARY)) {
+                rPrj.setStorageType(IDataAccess.TYPE_FILE_BINARY);
+            }
             items.addAll(rPrj.getGuiItems(admin, 3, "2", true));
 
             if (item.getValue().equals(IDataAccess.TYPESTRING_FILE_XML) ||
+                item.getValue().equals(IDataAccess.TYPESTRING_FILE_BINARY) ||
                 item.getValue().equals(IDataAccess.TYPESTRING_EFA_CLOUD)) {
                 items.addAll(rClb.getGuiItems(admin, 1, "3", true));
                 items.addAll(rClb.getGuiItems(admin, 2, "4", true));
@@ -230,6 +234,9 @@ public class NewProjectDialog extends StepwiseDialog implements IItemListener {
         if (storType.getValue().equals(IDataAccess.TYPESTRING_EFA_CLOUD)) {
             storageType = IDataAccess.TYPE_EFA_CLOUD;
         }
+        if (storType.getValue().equals(IDataAccess.TYPESTRING_FILE_BINARY)) {
+            storageType = IDataAccess.TYPE_FILE_BINARY;
+        }
         // Note: The storageType of the project file itself is always TYPE_FILE_XML.
         // The storageType of the project's content (set through prj.setProjectStorageType(storageType)) may differ.
         Project prj = new Project(prjName.getValue());
@@ -268,7 +275,8 @@ public class NewProjectDialog extends StepwiseDialog implements IItemListener {
             }
 
             // Club Properties (1)
-            if (storageType == IDataAccess.TYPE_FILE_XML || storageType == IDataAccess.TYPE_EFA_CLOUD) {
+            if (storageType == IDataAccess.TYPE_FILE_XML || storageType == IDataAccess.TYPE_FILE_BINARY ||
+                storageType == IDataAccess.TYPE_EFA_CLOUD) {
                 prj.setClubName(((ItemTypeString) getItemByName(ProjectRecord.CLUBNAME)).getValue());
                 prj.setClubAddressStreet(((ItemTypeString) getItemByName(ProjectRecord.ADDRESSSTREET)).getValue());
                 prj.setClubAddressCity(((ItemTypeString) getItemByName(ProjectRecord.ADDRESSCITY)).getValue());
@@ -332,6 +340,7 @@ public class NewProjectDialog extends StepwiseDialog implements IItemListener {
             return null;
         }
         if (Daten.project != null && Daten.project.getProjectStorageType() != IDataAccess.TYPE_FILE_XML &&
+            Daten.project.getProjectStorageType() != IDataAccess.TYPE_FILE_BINARY &&
             Daten.project.getProjectStorageType() != IDataAccess.TYPE_EFA_CLOUD) {
             return null;
         }
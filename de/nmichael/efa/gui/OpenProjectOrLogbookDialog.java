@@ -275,7 +275,8 @@ public class OpenProjectOrLogbookDialog extends BaseDialog implements IItemListe
                 return;
             }
             message = International.getMessage("Möchtest Du das Projekt '{name}' wirklich löschen?", name) + "\n" +
-                    (prj.getProjectStorageType() == IDataAccess.TYPE_FILE_XML ?
+                    (prj.getProjectStorageType() == IDataAccess.TYPE_FILE_XML ||
+                     prj.getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY ?
                             International.getString("Alle Daten des Projekts gehen damit unwiederbringlich verloren!") :
                             International.getString("Es wird nur die Projektkonfiguration gelöscht. Die Daten selbst bleiben erhalten.") );
         }
@@ -297,7 +298,8 @@ public class OpenProjectOrLogbookDialog extends BaseDialog implements IItemListe
 
         if (type == Type.project) {
             try {
-                if (prj.getProjectStorageType() == IDataAccess.TYPE_FILE_XML) {
+                if (prj.getProjectStorageType() == IDataAccess.TYPE_FILE_XML ||
+                    prj.getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY) {
                     res = Dialog.yesNoDialog(International.getString("Bist Du sicher?"),
                             International.getString("Sämtliche Daten dieses Projekts (Fahrtenbücher, Mitglieder, Boote, Ziele etc.) werden unwiederbringlich gelöscht!") + "\n"+
                                     International.getString("Möchtest Du wirklich fortfahren?"));
@@ -67,6 +67,178 @@ public class AutoCompleteList {
         }
     }
 
+    // BK-tree of lowercase names (or permutations of their name parts), pointing to
+    // entries of dataVisible. Distances in the tree are measured with
+    // EditDistance.getMetricDistance(), which is never larger than
+    // EditDistance.getDistance(): a search with radius r therefore finds all names
+    // within a distance of r, and possibly some more, which have to be checked.
+    private static class NeighbourIndex {
+
+        private static class Node {
+            final String key;
+            int[] entries = new int[1];
+            int entryCount = 0;
+            HashMap<Integer,Node> children;
+
+            Node(String key) {
+                this.key = key;
+            }
+        }
+
+        private Node root;
+
+        void add(String key, int entry) {
+            if (root == null) {
+                root = new Node(key);
+            }
+            Node n = root;
+            while (true) {
+                int dist = EditDistance.getMetricDistance(key, n.key);
+                if (dist == 0) {
+                    if (n.entryCount == n.entries.length) {
+                        n.entries = Arrays.copyOf(n.entries, n.entries.length * 2);
+                    }
+                    n.entries[n.entryCount++] = entry;
+                    return;
+                }
+                if (n.children == null) {
+                    n.children = new HashMap<Integer,Node>();
+                }
+                Node child = n.children.get(dist);
+                if (child == null) {
+                    child = new Node(key);
+                    n.children.put(dist, child);
+                }
+                n = child;
+            }
+        }
+
+        void find(String key, int radius, BitSet entries) {
+            if (root == null) {
+                return;
+            }
+            ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+            nodes.push(root);
+            while (!nodes.isEmpty()) {
+                Node n = nodes.pop();
+                int dist = EditDistance.getMetricDistance(key, n.key);
+                if (dist <= radius) {
+                    for (int i = 0; i < n.entryCount; i++) {
+                        entries.set(n.entries[i]);
+                    }
+                }
+                if (n.children != null) {
+                    for (Map.Entry<Integer,Node> c : n.children.entrySet()) {
+                        if (Math.abs(c.getKey() - dist) <= radius) {
+                            nodes.push(c.getValue());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Trie of the lowercase names in dataVisible. Each node knows the first and the
+    // last name (in the sort order of dataVisible) of all names with its prefix, so
+    // that the first and last name with a given prefix can be found without scanning
+    // dataVisible. Names are added and removed incrementally.
+    private static class PrefixIndex {
+
+        private static class Node {
+            HashMap<Character,Node> children;
+            String name;       // name ending at this node, if count > 0
+            String sortKey;    // sort key of name
+            int count = 0;
+            String first, firstSortKey, last, lastSortKey;
+        }
+
+        private Node root = new Node();
+
+        void add(String name) {
+            String lowers = name.toLowerCase();
+            String sortKey = EfaUtil.replaceAllUmlautsLowerCaseFast(name);
+            Node n = root;
+            for (int i = 0; ; i++) {
+                if (n.first == null || sortKey.compareTo(n.firstSortKey) < 0) {
+                    n.first = name;
+                    n.firstSortKey = sortKey;
+                }
+                if (n.last == null || sortKey.compareTo(n.lastSortKey) >= 0) {
+                    n.last = name;
+                    n.lastSortKey = sortKey;
+                }
+                if (i == lowers.length()) {
+                    break;
+                }
+                if (n.children == null) {
+                    n.children = new HashMap<Character,Node>();
+                }
+                Node child = n.children.get(lowers.charAt(i));
+                if (child == null) {
+                    child = new Node();
+                    n.children.put(lowers.charAt(i), child);
+                }
+                n = child;
+            }
+            n.count++;
+            n.name = name;
+            n.sortKey = sortKey;
+        }
+
+        void remove(String name) {
+            String lowers = name.toLowerCase();
+            Node[] path = new Node[lowers.length() + 1];
+            Node n = root;
+            for (int i = 0; n != null; i++) {
+                path[i] = n;
+                n = (i < lowers.length() && n.children != null ? n.children.get(lowers.charAt(i)) : null);
+            }
+            n = path[lowers.length()];
+            if (n == null || n.count == 0) {
+                return;
+            }
+            if (--n.count == 0) {
+                n.name = null;
+                n.sortKey = null;
+            }
+            // update first and last names of all nodes on the path, and remove empty nodes
+            for (int i = lowers.length(); i >= 0; i--) {
+                n = path[i];
+                if (n.count == 0 && (n.children == null || n.children.isEmpty()) && i > 0) {
+                    path[i-1].children.remove(lowers.charAt(i-1));
+                    continue;
+                }
+                if (name.equals(n.first) || name.equals(n.last)) {
+                    n.first = n.last = null;
+                    n.firstSortKey = n.lastSortKey = null;
+                    if (n.count > 0) {
+                        n.first = n.last = n.name;
+                        n.firstSortKey = n.lastSortKey = n.sortKey;
+                    }
+                    for (Node c : (n.children != null ? n.children.values() : Collections.<Node>emptyList())) {
+                        if (n.first == null || c.firstSortKey.compareTo(n.firstSortKey) < 0) {
+                            n.first = c.first;
+                            n.firstSortKey = c.firstSortKey;
+                        }
+                        if (n.last == null || c.lastSortKey.compareTo(n.lastSortKey) >= 0) {
+                            n.last = c.last;
+                            n.lastSortKey = c.lastSortKey;
+                        }
+                    }
+                }
+            }
+        }
+
+        // returns the first (or last) name starting with prefix (lowercase), or null
+        String get(String prefix, boolean first) {
+            Node n = root;
+            for (int i = 0; n != null && i < prefix.length(); i++) {
+                n = (n.children != null ? n.children.get(prefix.charAt(i)) : null);
+            }
+            return (n == null ? null : (first ? n.first : n.last));
+        }
+    }
+
     private IDataAccess dataAccess;
     private long dataAccessSCN = -1;
     private long efaConfigSCN = -1;
@@ -87,6 +259,18 @@ public class AutoCompleteList {
     private boolean filterDataOnlyForThisBoathouse = false;
     private boolean postfixNamesWithBoathouseName = true;
     private String filterText=null;
+    private NeighbourIndex neighbourIndex;      // index of all names in dataVisible
+    private NeighbourIndex neighbourPermIndex;  // index of permutations of names in dataVisible
+    private int neighbourPermIndexMax;          // maxPermutations of neighbourPermIndex
+    private Vector<String> neighbourIndexData;  // dataVisible at the time the index has been built
+    private int neighbourIndexSize;
+    private long neighbourIndexScn;
+    private PrefixIndex prefixIndex;            // index of all names in dataVisible
+    private Vector<String> prefixIndexData;     // dataVisible as it is indexed in prefixIndex
+    private boolean dataVisibleSorted = false;
+    private String lastFilterText;              // filterText of dataVisibleFiltered
+    private long lastFilterScn;
+    private boolean lastFilterEasyFind;
 
     public AutoCompleteList() {
     }
@@ -132,6 +316,9 @@ public class AutoCompleteList {
     
     public void setDataVisible(Vector<String> dataVisible) {
         this.dataVisible = dataVisible;
+        dataVisibleSorted = false;
+        prefixIndexData = null; // dataVisible may have been modified
+        lastFilterText = null;
         updateVisibleFilteredList();        
     }
 
@@ -154,6 +341,7 @@ public class AutoCompleteList {
 
     private synchronized void updateVisibleFilteredList() {
     	if (filterText!=null) {
+    		Vector<String> previousFiltered = dataVisibleFiltered;
     		dataVisibleFiltered=new Vector<String>();
     		boolean easyFindEntriesWithSpecialCharacters = Daten.efaConfig.getValuePopupContainsModeEasyFindEntriesWithSpecialCharacters();
     		
@@ -161,26 +349,37 @@ public class AutoCompleteList {
     		boolean bFilterTexthasSpecialCharacters = EfaUtil.containsUmlaut(lowerFilterText);
     		
     		String filterTextNoSpecialCharacters=EfaUtil.replaceAllUmlautsLowerCaseFast(lowerFilterText);
+
+    		// if the filter text has only been extended (while typing), all matching entries
+    		// are also contained in the previous filtered list
+    		Vector<String> candidates = dataVisible;
+    		if (lastFilterText != null && lowerFilterText.startsWith(lastFilterText) &&
+    				lastFilterScn == scn && lastFilterEasyFind == easyFindEntriesWithSpecialCharacters &&
+    				EfaUtil.containsUmlaut(lastFilterText) == bFilterTexthasSpecialCharacters &&
+    				previousFiltered != dataVisible) {
+    			candidates = previousFiltered;
+    		}
     		
-    		for (int i=0; i<dataVisible.size(); i++) {
+    		for (int i=0; i<candidates.size(); i++) {
+    			String candidate = candidates.get(i);
 
     			if (easyFindEntriesWithSpecialCharacters) {
     				if (bFilterTexthasSpecialCharacters) {
-    					if (dataVisible.get(i).toLowerCase().contains(lowerFilterText)) {
-    						dataVisibleFiltered.add(dataVisible.get(i));
+    					if (candidate.toLowerCase().contains(lowerFilterText)) {
+    						dataVisibleFiltered.add(candidate);
     					}
 					} else if (!bFilterTexthasSpecialCharacters){
 						// no special characters in filter text -> user enters "a" but also wants 
 						// matches for texts which contain "equivalents" like ä oder á
-	    				if (EfaUtil.replaceAllUmlautsLowerCaseFast(dataVisible.get(i)).contains(filterTextNoSpecialCharacters)){
-	    					dataVisibleFiltered.add(dataVisible.get(i));
+	    				if (EfaUtil.replaceAllUmlautsLowerCaseFast(candidate).contains(filterTextNoSpecialCharacters)){
+	    					dataVisibleFiltered.add(candidate);
 	    				}    						
 					}
     			
     			} else {
     				// no special handling for special characters needed
-    				if (dataVisible.get(i).toLowerCase().contains(lowerFilterText)){
-	    				dataVisibleFiltered.add(dataVisible.get(i));
+    				if (candidate.toLowerCase().contains(lowerFilterText)){
+	    				dataVisibleFiltered.add(candidate);
 	    			}
     			}
     		
@@ -192,8 +391,12 @@ public class AutoCompleteList {
     				dataVisibleFiltered.add(theValue);
     			}
     		}
+    		lastFilterText = lowerFilterText;
+    		lastFilterScn = scn;
+    		lastFilterEasyFind = easyFindEntriesWithSpecialCharacters;
     	} else { //no applicable filtertext, use unfiltered data
     		dataVisibleFiltered = dataVisible; 
+    		lastFilterText = null;
     	}
 
     	sortFilteredList();
@@ -231,6 +434,9 @@ public class AutoCompleteList {
                 dataAccessSCN = dataAccess.getSCN();
                 efaConfigSCN = Daten.efaConfig.data().getSCN();
                 dataVisible = new Vector<String>();
+                prefixIndex = new PrefixIndex();
+                prefixIndexData = dataVisible;
+                lastFilterText = null;
                 name2valid = new Hashtable<String,ValidInfo>();
                 lower2realVisible = new Hashtable<String,String>();
                 lower2realInvisible = new Hashtable<String,String>();
@@ -289,6 +495,8 @@ public class AutoCompleteList {
                 }
                 sort();
                 dataVisibleBackup = new Vector<String>(dataVisible);
+                neighbourIndex = null;
+                neighbourPermIndex = null;
             }
         } catch (Exception e) {
         	Logger.logdebug(e);
@@ -309,6 +517,10 @@ public class AutoCompleteList {
             // new name
             if (dataVisible != null) {
                 dataVisible.add(s);
+                dataVisibleSorted = false;
+                if (prefixIndexData == dataVisible) {
+                    prefixIndex.add(s);
+                }
             }
             if (validInfo != null) {
                 name2valid.put(s, validInfo);
@@ -362,7 +574,9 @@ public class AutoCompleteList {
     }
 
     public synchronized void delete(String s) {
-        dataVisible.remove(s);
+        if (dataVisible.remove(s) && prefixIndexData == dataVisible) {
+            prefixIndex.remove(s);
+        }
         name2valid.remove(s);
         lower2realVisible.remove(s.toLowerCase());
         lower2realInvisible.remove(s.toLowerCase());
@@ -372,10 +586,14 @@ public class AutoCompleteList {
 
     public synchronized void sort() {
     	Collections.sort(dataVisible, new EfaSortStringComparator());
+    	dataVisibleSorted = true;
     }
     
     public synchronized void sortFilteredList() {
     	Collections.sort(dataVisibleFiltered, new EfaSortStringComparator());
+    	if (dataVisibleFiltered == dataVisible) {
+    		dataVisibleSorted = true;
+    	}
     }
 
     public synchronized String getExact(String s) {
@@ -413,6 +631,11 @@ public class AutoCompleteList {
         lastPrefix = prefix;
         if (filterText==null) 
         {
+            int p = findPrefix(prefix, true);
+            if (p != -2) {
+                pos = (p >= 0 ? p : dataVisibleFiltered.size());
+                return (p >= 0 ? dataVisibleFiltered.get(p) : null);
+            }
 	        for (pos = 0; pos < dataVisibleFiltered.size(); pos++) {
 	            if (dataVisibleFiltered.get(pos).toLowerCase().startsWith(prefix)) {
 	                return dataVisibleFiltered.get(pos);
@@ -434,6 +657,11 @@ public class AutoCompleteList {
         lastPrefix = prefix;
 
         if (filterText==null) {
+            int p = findPrefix(prefix, false);
+            if (p != -2) {
+                pos = p;
+                return (p >= 0 ? dataVisibleFiltered.get(p) : null);
+            }
 	        for (pos = dataVisibleFiltered.size()-1; pos >= 0; pos--) {
 	            if (dataVisibleFiltered.get(pos).toLowerCase().startsWith(prefix)) {
 	                return dataVisibleFiltered.get(pos);
@@ -450,6 +678,49 @@ public class AutoCompleteList {
         return null;
     }
 
+    /**
+     * Finds the position of the first (or last) name in dataVisibleFiltered (which
+     * must be the sorted dataVisible) starting with prefix (lowercase).
+     * @return the position, -1 if there is no such name, or -2 if the position
+     * can't be determined using the index (dataVisibleFiltered not sorted)
+     */
+    private int findPrefix(String prefix, boolean first) {
+        if (dataVisibleFiltered != dataVisible || !dataVisibleSorted) {
+            return -2;
+        }
+        if (prefixIndexData != dataVisible) {
+            prefixIndex = new PrefixIndex();
+            for (int i = 0; i < dataVisible.size(); i++) {
+                prefixIndex.add(dataVisible.get(i));
+            }
+            prefixIndexData = dataVisible;
+        }
+        String name = prefixIndex.get(prefix, first);
+        if (name == null) {
+            return -1;
+        }
+        EfaSortStringComparator comparator = new EfaSortStringComparator();
+        int p = Collections.binarySearch(dataVisible, name, comparator);
+        if (p < 0) {
+            return -2;
+        }
+        // names which are equal in sort order may be in any order: search all of them
+        int from = p;
+        int to = p;
+        while (from > 0 && comparator.compare(dataVisible.get(from - 1), name) == 0) {
+            from--;
+        }
+        while (to < dataVisible.size() - 1 && comparator.compare(dataVisible.get(to + 1), name) == 0) {
+            to++;
+        }
+        for (int i = (first ? from : to); i >= from && i <= to; i += (first ? 1 : -1)) {
+            if (dataVisible.get(i).toLowerCase().startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -2;
+    }
+
     public synchronized String getNext(String prefix) {
 
     	if (filterText==null) {
@@ -575,12 +846,21 @@ public class AutoCompleteList {
             namePerm = getPermutations(name, maxPermutations);
         }
 
+        // find candidates in the index, and check them (in the same order as if
+        // checking all names)
+        updateNeighbourIndex(maxPermutations);
+        BitSet candidates = new BitSet(dataVisible.size());
+        neighbourIndex.find(name, radius, candidates);
+        for (int x = 0; namePerm != null && x < namePerm.size() && x < maxPermutations; x++) {
+            neighbourPermIndex.find(namePerm.get(x), radius, candidates);
+        }
+
         int lowestDist = Integer.MAX_VALUE;
-        for (int i=dataVisible.size()-1; i>=0; i--) {
+        for (int i=candidates.previousSetBit(dataVisible.size()-1); i>=0; i=candidates.previousSetBit(i-1)) {
             String neighbour = dataVisible.get(i);
             String neighbourlc = neighbour.toLowerCase();
 
-            int dist = EditDistance.getDistance(neighbour.toLowerCase(), name);
+            int dist = EditDistance.getDistance(neighbourlc, name, radius);
             if (dist <= radius) {
                 if (dist < lowestDist) {
                     neighbours.add(0, neighbour);
@@ -595,7 +875,7 @@ public class AutoCompleteList {
                     boolean found = false;
                     for (int x = 0; !found && x < namePerm.size() && x < maxPermutations; x++) {
                         for (int y = 0; !found && y < neighbourPerm.size() && y < maxPermutations; y++) {
-                            dist = EditDistance.getDistance(neighbourPerm.get(y).toLowerCase(), namePerm.get(x));
+                            dist = EditDistance.getDistance(neighbourPerm.get(y), namePerm.get(x), radius);
                             if (dist <= radius) {
                                 if (dist < lowestDist) {
                                     neighbours.add(0, neighbour);
@@ -618,6 +898,35 @@ public class AutoCompleteList {
         }
     }
 
+    // (Re-)builds the neighbour index if dataVisible has changed since it was built
+    private void updateNeighbourIndex(int maxPermutations) {
+        if (neighbourIndexData != dataVisible || neighbourIndexScn != scn ||
+            neighbourIndexSize != dataVisible.size()) {
+            neighbourIndex = null;
+            neighbourPermIndex = null;
+        }
+        if (neighbourIndex == null) {
+            neighbourIndex = new NeighbourIndex();
+            for (int i=0; i<dataVisible.size(); i++) {
+                neighbourIndex.add(dataVisible.get(i).toLowerCase(), i);
+            }
+            neighbourIndexData = dataVisible;
+            neighbourIndexScn = scn;
+            neighbourIndexSize = dataVisible.size();
+        }
+        if (maxPermutations > 0 &&
+            (neighbourPermIndex == null || neighbourPermIndexMax != maxPermutations)) {
+            neighbourPermIndex = new NeighbourIndex();
+            for (int i=0; i<dataVisible.size(); i++) {
+                Vector<String> perms = getPermutations(dataVisible.get(i).toLowerCase(), maxPermutations);
+                for (int y = 0; y < perms.size() && y < maxPermutations; y++) {
+                    neighbourPermIndex.add(perms.get(y), i);
+                }
+            }
+            neighbourPermIndexMax = maxPermutations;
+        }
+    }
+
     private static Vector<String> getPermutations(String s, int maxPermutations) {
         Vector<String> parts = splitString(s);
         Vector<String> perms = new Vector<String>();
@@ -663,6 +972,7 @@ public class AutoCompleteList {
 
     public void reset() {
         dataVisible = new Vector<String>(dataVisibleBackup);
+        lastFilterText = null;
         lastPrefix = null;
         sort();
         updateVisibleFilteredList();        
@@ -12,6 +12,8 @@ package de.nmichael.efa.gui.util;
 import java.awt.Window;
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -34,6 +36,9 @@ import de.nmichael.efa.data.Messages;
 import de.nmichael.efa.data.storage.DataKey;
 import de.nmichael.efa.data.storage.DataKeyIterator;
 import de.nmichael.efa.data.storage.IDataAccess;
+import de.nmichael.efa.data.storage.IDataChangeListener;
+import de.nmichael.efa.data.storage.RemoteEfaClient;
+import de.nmichael.efa.data.storage.RemoteEfaServer;
 import de.nmichael.efa.data.types.DataTypeDate;
 import de.nmichael.efa.data.types.DataTypeTime;
 import de.nmichael.efa.gui.EfaBaseFrame;
@@ -66,6 +71,20 @@ public class EfaBoathouseBackgroundTask extends Thread {
 
     private long lastListUpdate = -1;
 
+    // for local projects, changes of boat status and reservations are reported by a change
+    // listener, which wakes up sleepForAWhile() instead of polling the SCNs
+    private final Object dataChangeMonitor = new Object();
+    private boolean dataChangeSignaled = false;
+    private IDataAccess[] listenedDataAccess = new IDataAccess[0];
+    private final IDataChangeListener dataChangeListener = new IDataChangeListener() {
+        public void dataChanged(IDataAccess dataAccess, long scn, DataKey[] changedKeys) {
+            synchronized (dataChangeMonitor) {
+                dataChangeSignaled = true;
+                dataChangeMonitor.notifyAll();
+            }
+        }
+    };
+
     public EfaBoathouseBackgroundTask(EfaBoathouseFrame efaBoathouseFrame) {
         this.efaBoathouseFrame = efaBoathouseFrame;
         this.onceAnHour = 5; // initial nach 5 Schleifendurchläufen zum ersten Mal hier reingehen
@@ -214,6 +233,7 @@ public class EfaBoathouseBackgroundTask extends Thread {
             if (Daten.project != null) {
                 isProjectOpen = true;
                 if (Daten.project.getProjectStorageType() == IDataAccess.TYPE_FILE_XML
+                        || Daten.project.getProjectStorageType() == IDataAccess.TYPE_FILE_BINARY
                         || Daten.project.getProjectStorageType() == IDataAccess.TYPE_EFA_CLOUD
                 ) {
                     isLocalProject = true;
@@ -228,6 +248,37 @@ public class EfaBoathouseBackgroundTask extends Thread {
         }
     }
 
+    // registers the change listener with the (local) storage objects given, and removes it
+    // from those it was registered with before
+    private boolean listenForDataChanges(IDataAccess... dataAccess) {
+        ArrayList<IDataAccess> local = new ArrayList<IDataAccess>();
+        for (IDataAccess d : dataAccess) {
+            if (d != null && !(d instanceof RemoteEfaClient)) {
+                local.add(d);
+            }
+        }
+        if (!local.equals(Arrays.asList(listenedDataAccess))) {
+            for (IDataAccess d : listenedDataAccess) {
+                d.removeChangeListener(dataChangeListener);
+            }
+            for (IDataAccess d : local) {
+                d.addChangeListener(dataChangeListener);
+            }
+            listenedDataAccess = local.toArray(new IDataAccess[0]);
+        }
+        return listenedDataAccess.length == dataAccess.length;
+    }
+
+    // waits until the change listener reports a change, or until timeout ms expire
+    private void waitForDataChange(long timeout) throws InterruptedException {
+        synchronized (dataChangeMonitor) {
+            if (!dataChangeSignaled) {
+                dataChangeMonitor.wait(timeout);
+            }
+            dataChangeSignaled = false;
+        }
+    }
+
     private void sleepForAWhile() {
         if (Logger.isTraceOn(Logger.TT_BACKGROUND, 8)) {
             Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_EFABACKGROUNDTASK,
@@ -268,10 +319,9 @@ public class EfaBoathouseBackgroundTask extends Thread {
             }
         } else {
             // sleep at most 60 seconds, but wake up earlier if boat status has changed
-            int cnt = CHECK_INTERVAL / REMOTE_SCN_CHECK_INTERVAL;
             if (Logger.isTraceOn(Logger.TT_BACKGROUND, 9)) {
                 Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_EFABACKGROUNDTASK,
-                        "EfaBoathouseBackgroundTask: sleep for " + cnt + " times " + REMOTE_SCN_CHECK_INTERVAL + " seconds ...");
+                        "EfaBoathouseBackgroundTask: sleep for up to " + CHECK_INTERVAL + " seconds ...");
             }
             BoatStatus boatStatus = null;
             try {
@@ -286,15 +336,39 @@ public class EfaBoathouseBackgroundTask extends Thread {
             } catch(Exception e) {
                 Logger.logdebug(e);
             }
-            
-            
-            for (int i=0; i<cnt; i++) {
+            boolean notifiedOfChanges = boatStatus != null && boatReservations != null
+                    && listenForDataChanges(boatStatus.data(), boatReservations.data());
+
+            long checkStart = System.currentTimeMillis();
+            long checkRemaining;
+            while ((checkRemaining = CHECK_INTERVAL * 1000L - (System.currentTimeMillis() - checkStart)) > 0) {
                 if (Logger.isTraceOn(Logger.TT_BACKGROUND, 9)) {
                     Logger.log(Logger.DEBUG, Logger.MSG_DEBUG_EFABACKGROUNDTASK,
-                            "EfaBoathouseBackgroundTask: sleep for " + REMOTE_SCN_CHECK_INTERVAL + " seconds ...");
+                            "EfaBoathouseBackgroundTask: wait for changes for up to " + (checkRemaining / 1000) + " seconds ...");
                 }
                 try {
-                    Thread.sleep(REMOTE_SCN_CHECK_INTERVAL * 1000);
+                    long waitStart = System.currentTimeMillis();
+                    if (boatStatus != null && boatStatus.data() instanceof RemoteEfaClient) {
+                        // let the server notify us about changes of the boat status (long polling),
+                        // and ask again as soon as it responds
+                        try {
+                            ((RemoteEfaClient)boatStatus.data()).waitForChanges(
+                                    Math.min(checkRemaining, RemoteEfaServer.MAX_CHANGES_WAIT));
+                        } catch(Exception e) {
+                            Logger.logdebug(e);
+                        }
+                    }
+                    // servers without long polling respond immediately, so don't ask them
+                    // more often than every REMOTE_SCN_CHECK_INTERVAL seconds
+                    long waitRemaining = Math.min(REMOTE_SCN_CHECK_INTERVAL * 1000L, checkRemaining)
+                            - (System.currentTimeMillis() - waitStart);
+                    if (waitRemaining > 0 && !(boatStatus != null && boatStatus.data().getSCN() != lastBoatStatusScn)) {
+                        if (notifiedOfChanges) {
+                            waitForDataChange(checkRemaining);
+                        } else {
+                            Thread.sleep(waitRemaining);
+                        }
+                    }
                 } catch(Exception e) {
                     // wenn unterbrochen, dann versuch nochmal, kurz zu schlafen, und arbeite dann weiter!! ;-)
                     try {
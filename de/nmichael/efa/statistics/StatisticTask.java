@@ -29,6 +29,10 @@ import de.nmichael.efa.gui.BaseFrame;
 import de.nmichael.efa.gui.ProgressDialog;
 import de.nmichael.efa.util.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.SwingUtilities;
 
@@ -36,6 +40,7 @@ public class StatisticTask extends ProgressTask {
 
     private static final int WORK_PER_STATISTIC = 100;
     private static final int WORK_POSTPROCESSING = 50;
+    private static final int BATCH_SIZE = 500; // logbook entries evaluated per step
 
     private static BaseFrame lastParentFrame;
     private static BaseDialog lastParentDialog;
@@ -98,6 +103,7 @@ public class StatisticTask extends ProgressTask {
     private boolean entryPersonExcludeFromClubwork;
     // internal variables
     private ArrayList<String> successfulDoneMessages = new ArrayList<String>();
+    private StatisticTask master; // for tasks creating a single statistic on behalf of another task
 
     private StatisticTask(StatisticsRecord[] statisticsRecords, AdminRecord admin) {
         this.statisticsRecords = statisticsRecords;
@@ -2077,7 +2083,24 @@ public class StatisticTask extends ProgressTask {
         return writer.getResultMessage();
     }
 
-    private boolean createStatisticLogbook(StatisticsRecord sr, int statisticsNumber) {
+    // Returns an iterator over all entries of a logbook which may be in the date range
+    // (entries are looked up by their date through the sorted date index).
+    private static DataKeyIterator getLogbookIterator(DataTypeDate startDate, DataTypeDate endDate, Logbook logbook) throws Exception {
+        if (startDate == null || !startDate.isSet() ||
+            endDate == null || !endDate.isSet()) {
+            return logbook.data().getStaticIterator();
+        }
+        DataKey[] keys = logbook.data().getByFieldsRange(LogbookRecord.IDX_DATE,
+                new Object[] { startDate }, new Object[] { endDate });
+        if (keys == null) {
+            keys = new DataKey[0];
+        }
+        Arrays.sort(keys); // evaluate entries in the same (key) order as before
+        return new DataKeyIterator(logbook.data(), keys, false);
+    }
+
+    // Returns the logbooks to be evaluated for this task's statistic (after it has been prepared).
+    private Vector<Logbook> prepareStatisticLogbook() {
         if (sr.sStatisticCategory == StatisticsRecord.StatisticCategory.competition) {
             sr.cCompetition = Competition.getCompetition(sr);
         }
@@ -2086,41 +2109,144 @@ public class StatisticTask extends ProgressTask {
             Dialog.error(International.getMessage("Keine {items} im Zeitraum {fromdate} bis {todate} gefunden.",
                     International.getString("Fahrten"),
                     sr.sStartDate.toString(), sr.sEndDate.toString()));
-            return false;
         }
-        int WORK_PER_LOGBOOK = WORK_PER_STATISTIC / logbooks.size();
-        for (int i = 0; i < logbooks.size(); i++) {
-            try {
-                logbook = logbooks.get(i);
-                logInfo(International.getString("Fahrtenbuch") + " " + logbook.getName() + " ...\n");
-                DataKeyIterator it = logbook.data().getStaticIterator();
-                int size = it.size();
-                DataKey k = it.getFirst();
-                int pos = 0;
-                while (k != null) {
-                    LogbookRecord r = (LogbookRecord) logbook.data().get(k);
-                    if (r != null) {
-                        if (Logger.isTraceOn(Logger.TT_STATISTICS, 9)) {
-                            Logger.log(Logger.DEBUG, Logger.MSG_STAT_VISITEDENTRIES,
-                                    "visited: " + (r.getEntryId() != null ? r.getEntryId().toString() : "EntryId = <null>"));
+        return logbooks;
+    }
+
+    // Evaluates a batch of entries of a logbook for this task's statistic.
+    private void calculateEntries(Logbook logbook, ArrayList<LogbookRecord> records) {
+        this.logbook = logbook;
+        try {
+            for (LogbookRecord r : records) {
+                if (Logger.isTraceOn(Logger.TT_STATISTICS, 9)) {
+                    Logger.log(Logger.DEBUG, Logger.MSG_STAT_VISITEDENTRIES,
+                            "visited: " + (r.getEntryId() != null ? r.getEntryId().toString() : "EntryId = <null>"));
+                }
+                calculateEntry(r);
+            }
+        } catch (Exception e) {
+            Logger.log(Logger.ERROR, Logger.MSG_ERR_ERRORCREATINGSTATISTIC,
+                    LogString.operationFailed(International.getString("Statistik erstellen"), e.toString()));
+            Logger.log(e);
+            logInfo("ERROR: " + e.toString() + "\n");
+        } catch (Error e) {
+            Logger.log(Logger.ERROR, Logger.MSG_ERR_ERRORCREATINGSTATISTIC,
+                    LogString.operationFailed(International.getString("Statistik erstellen"), e.toString()));
+            logInfo("ERROR: " + e.toString() + "\n");
+        }
+    }
+
+    // Creates all logbook based statistics in a single pass over all logbooks: each logbook
+    // entry is read only once and then evaluated for all statistics which cover its logbook.
+    // Each statistic has its own task (with its own data), so that statistics can be
+    // calculated in parallel, each processing the entries in logbook order.
+    private void createStatisticsLogbook(StatisticTask[] tasks) {
+        LinkedHashMap<String, Logbook> logbooks = new LinkedHashMap<String, Logbook>();
+        Hashtable<String, ArrayList<StatisticTask>> logbookTasks = new Hashtable<String, ArrayList<StatisticTask>>();
+        for (StatisticTask task : tasks) {
+            if (task == null || task.sr.sStatisticCategory == StatisticsRecord.StatisticCategory.other) {
+                continue;
+            }
+            for (Logbook l : task.prepareStatisticLogbook()) {
+                ArrayList<StatisticTask> list = logbookTasks.get(l.getName());
+                if (list == null) {
+                    list = new ArrayList<StatisticTask>();
+                    logbookTasks.put(l.getName(), list);
+                    logbooks.put(l.getName(), l);
+                }
+                list.add(task);
+            }
+        }
+        if (logbooks.size() == 0) {
+            return;
+        }
+
+        int threads = 1;
+        for (ArrayList<StatisticTask> list : logbookTasks.values()) {
+            threads = Math.max(threads, list.size());
+        }
+        threads = Math.min(threads, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = (threads > 1 ? Executors.newFixedThreadPool(threads) : null);
+        try {
+            int workTotal = (tasks.length * WORK_PER_STATISTIC) / 2;
+            int workPerLogbook = workTotal / logbooks.size();
+            int i = 0;
+            for (Logbook l : logbooks.values()) {
+                ArrayList<StatisticTask> list = logbookTasks.get(l.getName());
+                logInfo(International.getString("Fahrtenbuch") + " " + l.getName() + " ...\n");
+                try {
+                    // read all entries within the date range of any of the statistics
+                    DataTypeDate startDate = null;
+                    DataTypeDate endDate = null;
+                    boolean allDates = false;
+                    for (StatisticTask task : list) {
+                        if (task.sr.sStartDate == null || !task.sr.sStartDate.isSet() ||
+                            task.sr.sEndDate == null || !task.sr.sEndDate.isSet()) {
+                            allDates = true;
+                            break;
+                        }
+                        if (startDate == null || task.sr.sStartDate.isBefore(startDate)) {
+                            startDate = task.sr.sStartDate;
+                        }
+                        if (endDate == null || task.sr.sEndDate.isAfter(endDate)) {
+                            endDate = task.sr.sEndDate;
                         }
-                        calculateEntry(r);
                     }
-                    this.setCurrentWorkDone(((++pos * WORK_PER_LOGBOOK) / size) + (i * WORK_PER_LOGBOOK) + (statisticsNumber * WORK_PER_STATISTIC));
-                    k = it.getNext();
+                    DataKeyIterator it = (allDates ? l.data().getStaticIterator()
+                            : getLogbookIterator(startDate, endDate, l));
+                    int size = Math.max(it.size(), 1);
+                    int pos = 0;
+                    ArrayList<LogbookRecord> batch = new ArrayList<LogbookRecord>(BATCH_SIZE);
+                    for (DataKey k = it.getFirst(); k != null; k = it.getNext()) {
+                        LogbookRecord r = (LogbookRecord) l.data().get(k);
+                        if (r != null) {
+                            batch.add(r);
+                        }
+                        if (batch.size() == BATCH_SIZE) {
+                            calculateEntries(executor, list, l, batch);
+                            pos += batch.size();
+                            batch = new ArrayList<LogbookRecord>(BATCH_SIZE);
+                            this.setCurrentWorkDone(((pos * workPerLogbook) / size) + (i * workPerLogbook));
+                        }
+                    }
+                    if (batch.size() > 0) {
+                        calculateEntries(executor, list, l, batch);
+                    }
+                } catch (Exception e) {
+                    Logger.log(Logger.ERROR, Logger.MSG_ERR_ERRORCREATINGSTATISTIC,
+                            LogString.operationFailed(International.getString("Statistik erstellen"), e.toString()));
+                    Logger.log(e);
+                    logInfo("ERROR: " + e.toString() + "\n");
                 }
-            } catch (Exception e) {
-                Logger.log(Logger.ERROR, Logger.MSG_ERR_ERRORCREATINGSTATISTIC,
-                        LogString.operationFailed(International.getString("Statistik erstellen"), e.toString()));
-                Logger.log(e);
-                logInfo("ERROR: " + e.toString() + "\n");
-            } catch (Error e) {
-                Logger.log(Logger.ERROR, Logger.MSG_ERR_ERRORCREATINGSTATISTIC,
-                        LogString.operationFailed(International.getString("Statistik erstellen"), e.toString()));
-                logInfo("ERROR: " + e.toString() + "\n");
+                i++;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
             }
         }
-        return true;
+    }
+
+    private void calculateEntries(ExecutorService executor, ArrayList<StatisticTask> tasks,
+            final Logbook logbook, final ArrayList<LogbookRecord> batch) throws Exception {
+        if (executor == null || tasks.size() == 1) {
+            for (StatisticTask task : tasks) {
+                task.calculateEntries(logbook, batch);
+            }
+            return;
+        }
+        ArrayList<Callable<Object>> calls = new ArrayList<Callable<Object>>();
+        for (final StatisticTask task : tasks) {
+            calls.add(new Callable<Object>() {
+                public Object call() {
+                    task.calculateEntries(logbook, batch);
+                    return null;
+                }
+            });
+        }
+        for (Future<Object> f : executor.invokeAll(calls)) {
+            f.get();
+        }
     }
 
     private boolean createStatisticOther(StatisticsRecord sr, int statisticsNumber) {
@@ -2452,10 +2578,9 @@ public class StatisticTask extends ProgressTask {
 		}
     }    
     
-    private String createStatistic(StatisticsRecord sr, int statisticsNumber) {
-        this.sr = sr;
-        data = new Hashtable<Object, StatisticsData>();
-
+    // Returns a task for creating the statistic for sr (after preprocessing), or null
+    // if the statistic is not to be created.
+    private StatisticTask prepareStatistic(StatisticsRecord sr) {
 		if (!isStatisticsPrepared(sr)) {
 			return null;
 		}
@@ -2469,10 +2594,17 @@ public class StatisticTask extends ProgressTask {
         logInfo(International.getString("Erstelle Statistik ..."),
                 true, false);
 
-        runPreprocessing();
-        if (sr.sStatisticCategory != StatisticsRecord.StatisticCategory.other) {
-            createStatisticLogbook(sr, statisticsNumber);
-        } else {
+        StatisticTask task = new StatisticTask(new StatisticsRecord[] { sr }, admin);
+        task.master = this;
+        task.sr = sr;
+        task.data = new Hashtable<Object, StatisticsData>();
+        task.runPreprocessing();
+        return task;
+    }
+
+    // Evaluates any non-logbook data for the statistic and creates the output.
+    private String finishStatistic(int statisticsNumber) {
+        if (sr.sStatisticCategory == StatisticsRecord.StatisticCategory.other) {
             createStatisticOther(sr, statisticsNumber);
         }
 
@@ -2509,12 +2641,25 @@ public class StatisticTask extends ProgressTask {
             Thread.sleep(500);
         } catch (Exception eignore) {
         }
+        StatisticTask[] tasks = new StatisticTask[statisticsRecords.length];
+        long start = Metrics.start();
         for (int i = 0; i < statisticsRecords.length; i++) {
-            String msg = createStatistic(statisticsRecords[i], i);
-            if (msg != null && msg.length() > 0) {
-                successfulDoneMessages.add(msg);
+            tasks[i] = prepareStatistic(statisticsRecords[i]);
+        }
+        Metrics.stop(Metrics.TIMER_STATISTICS_PREPARE, start);
+        start = Metrics.start();
+        createStatisticsLogbook(tasks);
+        Metrics.stop(Metrics.TIMER_STATISTICS_LOGBOOK, start);
+        for (int i = 0; i < statisticsRecords.length; i++) {
+            if (tasks[i] != null) {
+                start = Metrics.start();
+                String msg = tasks[i].finishStatistic(i);
+                Metrics.stop(Metrics.TIMER_STATISTICS_FINISH, start);
+                if (msg != null && msg.length() > 0) {
+                    successfulDoneMessages.add(msg);
+                }
             }
-            setCurrentWorkDone((i + 1) * WORK_PER_STATISTIC);
+            setCurrentWorkDone(((statisticsRecords.length + i + 1) * WORK_PER_STATISTIC) / 2);
         }
         setDone();
 
@@ -2547,6 +2692,26 @@ public class StatisticTask extends ProgressTask {
         }
     }
 
+    public void logInfo(String s, boolean toScreen, boolean toFile) {
+        if (master != null) {
+            master.logInfo(s, toScreen, toFile);
+        } else {
+            super.logInfo(s, toScreen, toFile);
+        }
+    }
+
+    public void setCurrentWorkDone(int i) {
+        if (master != null) {
+            master.setCurrentWorkDone(Math.max(i, master.getCurrentWorkDone()));
+        } else {
+            super.setCurrentWorkDone(i);
+        }
+    }
+
+    public int getCurrentWorkDone() {
+        return (master != null ? master.getCurrentWorkDone() : super.getCurrentWorkDone());
+    }
+
     public int getAbsoluteWork() {
         return (statisticsRecords != null ? statisticsRecords.length : 0) * WORK_PER_STATISTIC + WORK_POSTPROCESSING;
     }
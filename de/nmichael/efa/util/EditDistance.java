@@ -19,76 +19,141 @@ package de.nmichael.efa.util;
  */
 public class EditDistance {
 
-	 static private int minimum(int a, int b, int c, int d, int e) {
-		    int mi = a;
-		    if (b < mi)
-		      mi = b;
-		    if (c < mi)
-		      mi = c;
-		    if (d < mi)
-		      mi = d;
-		    if (e < mi)
-		      mi = e;
-
-		    return mi;
-		  }
-	
+	/**
+	 * Returns the number of edits to transform word into similar: insertions,
+	 * deletions, substitutions and swaps of adjacent letters cost 1 each.
+	 */
 	public static final int getDistance(String word, String similar) {
+		return getDistance(word, similar, word.length() + similar.length());
+	}
+
+	// scratch arrays, so that distances can be computed without allocating memory
+	private static final ThreadLocal<int[][]> scratch = new ThreadLocal<int[][]>();
+
+	private static int[][] getScratch(int rows, int cols) {
+		int[][] m = scratch.get();
+		if (m == null || m.length < rows || m[0].length < cols) {
+			m = new int[Math.max(rows, (m != null ? m.length : 0))][Math.max(cols, (m != null ? m[0].length : 0))];
+			scratch.set(m);
+		}
+		return m;
+	}
+
+	/**
+	 * Same distance as getDistance(word, similar), but only computed up to
+	 * maxDistance: if the distance is larger than maxDistance, maxDistance + 1 is
+	 * returned as soon as this is known. Doesn't allocate any memory.
+	 */
+	public static int getDistance(String word, String similar, int maxDistance) {
+		int a = word.length();
+		int b = similar.length();
+		if (Math.abs(a - b) > maxDistance) {
+			return maxDistance + 1;
+		}
+		int[][] rows = getScratch(3, b + 1);
+		int[] prev2 = rows[0];
+		int[] prev = rows[1];
+		int[] cur = rows[2];
+		int prevMin = 0;
+		for (int j = 0; j <= b; j++) {
+			prev[j] = j;
+		}
+		for (int i = 1; i <= a; i++) {
+			char sourceChar = word.charAt(i - 1);
+			cur[0] = i;
+			int curMin = i;
+			for (int j = 1; j <= b; j++) {
+				char otherChar = similar.charAt(j - 1);
+				int cost;
+				if (sourceChar == otherChar) {
+					cost = prev[j - 1];
+				} else {
+					cost = prev[j - 1] + 1;
+					if (cur[j - 1] + 1 < cost) {
+						cost = cur[j - 1] + 1;
+					}
+					if (prev[j] + 1 < cost) {
+						cost = prev[j] + 1;
+					}
+					if (i > 1 && j > 1 && sourceChar == similar.charAt(j - 2) &&
+						word.charAt(i - 2) == otherChar && prev2[j - 2] + 1 < cost) {
+						cost = prev2[j - 2] + 1;
+					}
+				}
+				cur[j] = cost;
+				if (cost < curMin) {
+					curMin = cost;
+				}
+			}
+			// cells of the next row are at least the minimum of this row, or of
+			// the previous row plus 1 (swap)
+			if (curMin > maxDistance && prevMin >= maxDistance) {
+				return maxDistance + 1;
+			}
+			prevMin = curMin;
+			int[] tmp = prev2;
+			prev2 = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return (prev[b] <= maxDistance ? prev[b] : maxDistance + 1);
+	}
+
+	/**
+	 * Damerau-Levenshtein distance (insertions, deletions, substitutions and swaps of
+	 * adjacent letters, where letters may also be edited between swapped letters).
+	 * Unlike getDistance(), this is a metric (it satisfies the triangle inequality),
+	 * and it is never larger than getDistance(). Doesn't allocate any memory.
+	 */
+	public static int getMetricDistance(String word, String similar) {
+		int a = word.length();
+		int b = similar.length();
+		int[][] h = getScratch(a + 3, b + 2);
+		int[] lastRow = h[a + 2]; // row of the last match of similar[j] in word
+		int max = a + b;
+		h[0][0] = max;
+		for (int i = 0; i <= a; i++) {
+			h[i + 1][0] = max;
+			h[i + 1][1] = i;
+		}
+		for (int j = 0; j <= b; j++) {
+			h[0][j + 1] = max;
+			h[1][j + 1] = j;
+		}
+		for (int j = 1; j <= b; j++) {
+			lastRow[j] = 0;
+		}
+		for (int i = 1; i <= a; i++) {
+			char sourceChar = word.charAt(i - 1);
+			int lastCol = 0;
+			for (int j = 1; j <= b; j++) {
+				char otherChar = similar.charAt(j - 1);
+				int i1 = lastRow[j];
+				int j1 = lastCol;
+				int cost = 1;
+				if (sourceChar == otherChar) {
+					cost = 0;
+					lastCol = j;
+				}
+				int d = h[i][j] + cost;
+				if (h[i + 1][j] + 1 < d) {
+					d = h[i + 1][j] + 1;
+				}
+				if (h[i][j + 1] + 1 < d) {
+					d = h[i][j + 1] + 1;
+				}
+				if (i1 > 0 && j1 > 0 && h[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1) < d) {
+					d = h[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1);
+				}
+				h[i + 1][j + 1] = d;
+			}
+			for (int j = 1; j <= b; j++) {
+				if (similar.charAt(j - 1) == sourceChar) {
+					lastRow[j] = i;
+				}
+			}
+		}
+		return h[a + 1][b + 1];
+	}
 
-	    //get the weights for each possible operation
-	    final int costOfDeletingSourceCharacter = 1;
-	    final int costOfInsertingSourceCharacter = 1;
-	    final int costOfSubstitutingLetters = 1;
-	    final int costOfSwappingLetters = 1;
-	    final int costOfChangingCase = 1;
-
-	    int a_size = word.length() + 1;
-	    int b_size = similar.length() + 1;
-	    int[][] matrix = new int[a_size][b_size];
-	    matrix[0][0] = 0;
-
-	    for (int i = 1; i != a_size; ++i)
-	      matrix[i][0] = matrix[i - 1][0] + costOfInsertingSourceCharacter; //initialize the first column
-
-	    for (int j = 1; j != b_size; ++j)
-	      matrix[0][j] = matrix[0][j - 1] + costOfDeletingSourceCharacter; //initalize the first row
-
-	    word = " " + word;
-	    similar = " " + similar;
-
-	    for (int i = 1; i != a_size; ++i) {
-	      char sourceChar = word.charAt(i);
-	      for (int j = 1; j != b_size; ++j) {
-
-	        char otherChar = similar.charAt(j);
-	        if (sourceChar == otherChar) {
-	          matrix[i][j] = matrix[i - 1][j - 1]; //no change required, so just carry the current cost up
-	          continue;
-	        }
-
-	        int costOfSubst = costOfSubstitutingLetters + matrix[i - 1][j - 1];
-	        //if needed, add up the cost of doing a swap
-	        int costOfSwap = Integer.MAX_VALUE;
-	        boolean isSwap = (i != 1) && (j != 1) && sourceChar == similar.charAt(j - 1) && word.charAt(i - 1) == otherChar;
-	        if (isSwap)
-	          costOfSwap = costOfSwappingLetters + matrix[i - 2][j - 2];
-
-	        int costOfDelete = costOfDeletingSourceCharacter + matrix[i][j - 1];
-	        int costOfInsertion = costOfInsertingSourceCharacter + matrix[i - 1][j];
-
-	        int costOfCaseChange = Integer.MAX_VALUE;
-	        String strSrcChar = "" + sourceChar;
-	        String strOtherChar = "" + otherChar;
-
-	        if (strSrcChar.compareToIgnoreCase(strOtherChar) == 0)
-	          costOfCaseChange = costOfChangingCase + matrix[i - 1][j - 1];
-
-	        matrix[i][j] = minimum(costOfSubst, costOfSwap, costOfDelete, costOfInsertion, costOfCaseChange);
-	      }
-	    }
-	    int cost = matrix[a_size - 1][b_size - 1];
-
-	    return cost;
-	  }
-	
 }
@@ -14,6 +14,10 @@ import de.nmichael.efa.data.*;
 import de.nmichael.efa.data.storage.IDataAccess;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 // @i18n complete
 public class Logger {
@@ -26,6 +30,9 @@ public class Logger {
     private static final int MAX_LOGMSG_SIZE = 10*1024; // max. 10 Kb for log message
     private static final int MAX_LASTLOGMSG_SIZE = 1024; // max. 1 Kb to remember last log messages
     private static final int MAX_STACK_DEPTH = 20; // max stack depth for exceptions
+    private static final int ASYNC_QUEUE_SIZE = 10000; // max. number of queued log messages in asynchronous mode
+    private static final int ASYNC_BATCH_SIZE = 500;   // max. number of log messages written at once
+    private static final long ASYNC_WRITE_INTERVAL = 100; // ms after which queued log messages are written
 
     // Message Types
     public static final String ERROR = "ERROR";
@@ -503,6 +510,16 @@ public class Logger {
     private static EfaErrorPrintStream efaErrorPrintStream;
     private static boolean logExceptions = true;
 
+    // asynchronous logging: log messages are queued by the calling thread and
+    // written (in batches) by the writer thread
+    private static volatile boolean asyncLogging = false;
+    private static volatile Thread asyncWriter;
+    private static boolean asyncShutdownHook = false;
+    private static final ConcurrentLinkedQueue<String> asyncQueue = new ConcurrentLinkedQueue<String>();
+    private static final AtomicInteger asyncQueueLength = new AtomicInteger();
+    private static final AtomicLong asyncDropped = new AtomicLong();
+    private static final Object asyncWriteLock = new Object();
+
     private static String createLogfileName(String logfile) {
         return Daten.efaLogDirectory + logfile;
     }
@@ -609,6 +626,7 @@ public class Logger {
     }
 
     public static String getLastLogEntry(String logfile) {
+        flush();
         try {
             String fname = createLogfileName(logfile);
             RandomAccessFile file = new RandomAccessFile(fname, "r");
@@ -708,11 +726,7 @@ public class Logger {
                     System.out.print(EfaUtil.getString(type, 7) + " - " + key + " - " + txt);
                 }
             }
-            if (txt.length() < MAX_LOGMSG_SIZE) {
-                t = "[" + EfaUtil.getCurrentTimeStamp() + "] - " + EfaUtil.getString(Daten.applName, 7) + " - " + Daten.applPID + " - " + EfaUtil.getString(type, 7) + " - " + key + " - " + txt;
-            } else {
-                t = "[" + EfaUtil.getCurrentTimeStamp() + "] - " + EfaUtil.getString(Daten.applName, 7) + " - " + Daten.applPID + " - " + EfaUtil.getString(type, 7) + " - " + key + " - " + txt.substring(0, MAX_LOGMSG_SIZE);
-            }
+            t = getLogLine(type, key, txt);
             if (type != null && !type.equals(INPUT) && !type.equals(OUTPUT))  {
                 synchronized(lastLogMessages) {
                     lastLogMessages[nextLogIdx] = (t.length() < MAX_LASTLOGMSG_SIZE ?
@@ -720,14 +734,10 @@ public class Logger {
                     nextLogIdx = (nextLogIdx+1) % lastLogMessages.length;
                     totalLogMessages++;
                 }
-                EfaErrorPrintStream.ignoreExceptions = true; // Damit Exception-Ausschriften nicht versehentlich als echte Exceptions gemeldet werden
-                System.err.println(EfaUtil.replace(t, "\n", " ", true));
-                EfaErrorPrintStream.ignoreExceptions = false;
+                writeLogLine(type, EfaUtil.replace(t, "\n", " ", true));
             }
             if (type != null && type.equals(RAW))  {
-                EfaErrorPrintStream.ignoreExceptions = true; // Damit Exception-Ausschriften nicht versehentlich als echte Exceptions gemeldet werden
-                System.err.println(t);
-                EfaErrorPrintStream.ignoreExceptions = false;
+                writeLogLine(type, t);
             }
 
             if (msgToAdmin && Daten.project != null) {
@@ -754,6 +764,125 @@ public class Logger {
         return t;
     }
 
+    private static String getLogLine(String type, String key, String txt) {
+        return "[" + EfaUtil.getCurrentTimeStamp() + "] - " + EfaUtil.getString(Daten.applName, 7) + " - " + Daten.applPID + " - " + EfaUtil.getString(type, 7) + " - " + key + " - " +
+                (txt.length() < MAX_LOGMSG_SIZE ? txt : txt.substring(0, MAX_LOGMSG_SIZE));
+    }
+
+    // Writes a line to the log file, or queues it in asynchronous mode. If the queue
+    // is full, messages are dropped (and counted), except for errors: for these, the
+    // calling thread writes all queued messages itself, so that no error gets lost.
+    private static void writeLogLine(String type, String line) {
+        Thread writer = asyncWriter;
+        if (asyncLogging && writer != null) {
+            int len = asyncQueueLength.incrementAndGet();
+            if (len <= ASYNC_QUEUE_SIZE) {
+                asyncQueue.add(line);
+                if (len == ASYNC_BATCH_SIZE) {
+                    LockSupport.unpark(writer);
+                }
+                return;
+            }
+            asyncQueueLength.decrementAndGet();
+            if (!ERROR.equals(type)) {
+                asyncDropped.incrementAndGet();
+                return;
+            }
+            flush();
+        }
+        synchronized (asyncWriteLock) {
+            EfaErrorPrintStream.ignoreExceptions = true; // Damit Exception-Ausschriften nicht versehentlich als echte Exceptions gemeldet werden
+            System.err.println(line);
+            EfaErrorPrintStream.ignoreExceptions = false;
+        }
+    }
+
+    /**
+     * Writes all log messages queued in asynchronous mode to the log file.
+     */
+    public static void flush() {
+        synchronized (asyncWriteLock) {
+            StringBuilder s = new StringBuilder();
+            String nl = System.getProperty("line.separator");
+            int cnt = 0;
+            String line;
+            while ((line = asyncQueue.poll()) != null) {
+                asyncQueueLength.decrementAndGet();
+                s.append(line).append(nl);
+                if (++cnt % ASYNC_BATCH_SIZE == 0) {
+                    writeLogLines(s);
+                }
+            }
+            long dropped = asyncDropped.getAndSet(0);
+            if (dropped > 0) {
+                s.append(getLogLine(WARNING, MSG_LOGGER_THRESHOLDEXCEEDED,
+                        "Log queue full: " + dropped + " messages dropped.")).append(nl);
+            }
+            writeLogLines(s);
+        }
+    }
+
+    private static void writeLogLines(StringBuilder s) {
+        if (s.length() == 0) {
+            return;
+        }
+        EfaErrorPrintStream.ignoreExceptions = true;
+        System.err.print(s.toString());
+        System.err.flush();
+        EfaErrorPrintStream.ignoreExceptions = false;
+        s.setLength(0);
+    }
+
+    /**
+     * Activates or deactivates asynchronous logging. In asynchronous mode, log
+     * messages are queued and written by a separate thread, so that logging doesn't
+     * block the calling thread on file I/O. Queued messages are written when
+     * deactivating asynchronous logging, on flush() and on shutdown.
+     */
+    public static synchronized void setAsyncLogging(boolean activate) {
+        if (activate == asyncLogging) {
+            return;
+        }
+        if (activate) {
+            Thread writer = new Thread() {
+                public void run() {
+                    while (asyncLogging) {
+                        if (asyncQueueLength.get() < ASYNC_BATCH_SIZE) {
+                            LockSupport.parkNanos(ASYNC_WRITE_INTERVAL * 1000000L);
+                        }
+                        try {
+                            flush();
+                        } catch (Exception eignore) {
+                        }
+                    }
+                    flush();
+                }
+            };
+            writer.setName("LogWriter");
+            writer.setDaemon(true);
+            asyncWriter = writer;
+            asyncLogging = true;
+            writer.start();
+            if (!asyncShutdownHook) {
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    public void run() {
+                        flush();
+                    }
+                });
+                asyncShutdownHook = true;
+            }
+        } else {
+            asyncLogging = false;
+            LockSupport.unpark(asyncWriter);
+            asyncWriter = null;
+            flush();
+        }
+    }
+
+    public static boolean isAsyncLogging() {
+        return asyncLogging;
+    }
+
     /**
      * Log a message with the key "GENERIC".
      * @deprecated use log(String, String, String) instead!
@@ -788,6 +917,9 @@ public class Logger {
             s.append("\n" + stack[i].toString());
         }
         log(type, key, s.toString());
+        if (asyncLogging) {
+            flush(); // stack trace is printed directly
+        }
         EfaErrorPrintStream.ignoreExceptions = true;
         if (!DEBUG.equals(type) || isTraceOn(TT_EXCEPTIONS)) {
             e.printStackTrace();
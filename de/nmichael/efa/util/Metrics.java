@@ -0,0 +1,187 @@
+/**
+ * Title:        efa - elektronisches Fahrtenbuch für Ruderer
+ * Copyright:    Copyright (c) 2001-2011 by Nicolas Michael
+ * Website:      http://efa.nmichael.de/
+ * License:      GNU General Public License v2
+ *
+ * @author Nicolas Michael
+ * @version 2
+ */
+
+package de.nmichael.efa.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// @i18n complete
+
+/**
+ * Registry of runtime metrics: counters and timers. Timers record a latency
+ * histogram with power-of-two buckets (in microseconds), so that percentiles can
+ * be reported without keeping individual samples.
+ *
+ * Usage:
+ *   long t = Metrics.start();
+ *   ... timed operation ...
+ *   Metrics.stop(Metrics.TIMER_xxx, t);
+ *
+ * Recording a metric doesn't lock (apart from creating it on first use), so it
+ * can be used in hot code paths.
+ */
+public class Metrics {
+
+    public static final String COUNTER_DATA_READ          = "data.read";
+    public static final String TIMER_DATA_WRITE           = "data.write";
+    public static final String TIMER_DATA_LOCKWAIT        = "data.lock.wait";
+    public static final String COUNTER_DATA_LOCKTIMEOUT   = "data.lock.timeout";
+    public static final String TIMER_DATA_SAVE            = "data.save";
+    public static final String TIMER_JOURNAL_SYNC         = "journal.sync";
+    public static final String TIMER_STATISTICS_PREPARE   = "statistics.prepare";
+    public static final String TIMER_STATISTICS_LOGBOOK   = "statistics.logbook";
+    public static final String TIMER_STATISTICS_FINISH    = "statistics.finish";
+    public static final String TIMER_GUI_BOATLISTS        = "gui.boatlists.refresh";
+    public static final String TIMER_GUI_RESERVATIONS     = "gui.boatlists.reservations";
+    public static final String TIMER_GUI_BOATSAVAILABLE   = "gui.boatlists.available";
+    public static final String TIMER_GUI_BOATSONTHEWATER  = "gui.boatlists.onthewater";
+    public static final String TIMER_GUI_BOATSNOTAVAIL    = "gui.boatlists.notavailable";
+
+    private static final int BUCKETS = 40; // bucket i: < 2^i microseconds
+
+    static class Metric {
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();     // timers: total time in microseconds
+        final AtomicLong max = new AtomicLong();   // timers: maximum time in microseconds
+        final AtomicLongArray buckets;             // timers only
+
+        Metric(boolean timer) {
+            buckets = (timer ? new AtomicLongArray(BUCKETS) : null);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+    private static Metric getMetric(String name, boolean timer) {
+        Metric m = metrics.get(name);
+        if (m == null) {
+            m = new Metric(timer);
+            Metric existing = metrics.putIfAbsent(name, m);
+            if (existing != null) {
+                m = existing;
+            }
+        }
+        return m;
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    public static void count(String name, long value) {
+        getMetric(name, false).count.add(value);
+    }
+
+    /**
+     * @return a start timestamp to be passed to stop()
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since start (as returned by start()).
+     * @return the elapsed time in milliseconds
+     */
+    public static long stop(String name, long start) {
+        long micros = Math.max((System.nanoTime() - start) / 1000, 0);
+        Metric m = getMetric(name, true);
+        if (m.buckets == null) {
+            return micros / 1000; // name is already used for a counter
+        }
+        m.count.increment();
+        m.sum.add(micros);
+        long max;
+        while (micros > (max = m.max.get()) && !m.max.compareAndSet(max, micros)) {
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        m.buckets.incrementAndGet(bucket);
+        return micros / 1000;
+    }
+
+    public static long getCount(String name) {
+        Metric m = metrics.get(name);
+        return (m != null ? m.count.sum() : 0);
+    }
+
+    /**
+     * Returns an upper bound (in milliseconds) of the given percentile of a timer.
+     */
+    public static double getPercentile(String name, double percentile) {
+        return getPercentile(metrics.get(name), percentile);
+    }
+
+    private static double getPercentile(Metric m, double percentile) {
+        if (m == null || m.buckets == null) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += m.buckets.get(i);
+        }
+        long n = (long) Math.ceil(total * percentile / 100.0);
+        long cnt = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cnt += m.buckets.get(i);
+            if (cnt >= n && cnt > 0) {
+                return Math.min(1L << i, m.max.get()) / 1000.0;
+            }
+        }
+        return m.max.get() / 1000.0;
+    }
+
+    public static void reset() {
+        metrics.clear();
+    }
+
+    public static String[] getMetricsAsSimpleArray() {
+        // snapshot, sorted by name: metrics may be reset or added concurrently
+        TreeMap<String, Metric> snapshot = new TreeMap<String, Metric>(metrics);
+        String[] data = new String[snapshot.size()];
+        int i = 0;
+        for (Map.Entry<String, Metric> e : snapshot.entrySet()) {
+            String name = e.getKey();
+            Metric m = e.getValue();
+            if (m.buckets == null) {
+                data[i++] = EfaUtil.getString(name, 30) + " count="
+                        + EfaUtil.getStringPadLeft(Long.toString(m.count.sum()), 10);
+            } else {
+                long count = m.count.sum();
+                data[i++] = EfaUtil.getString(name, 30) + " count="
+                        + EfaUtil.getStringPadLeft(Long.toString(count), 10)
+                        + " avg=" + formatMillis(count > 0 ? m.sum.sum() / 1000.0 / count : 0)
+                        + " p50=" + formatMillis(getPercentile(m, 50))
+                        + " p90=" + formatMillis(getPercentile(m, 90))
+                        + " p99=" + formatMillis(getPercentile(m, 99))
+                        + " max=" + formatMillis(m.max.get() / 1000.0)
+                        + " total=" + formatMillis(m.sum.sum() / 1000.0);
+            }
+        }
+        return data;
+    }
+
+    public static String getMetricsAsString() {
+        StringBuilder s = new StringBuilder();
+        for (String line : getMetricsAsSimpleArray()) {
+            s.append(line + "\n");
+        }
+        return s.toString();
+    }
+
+    private static String formatMillis(double ms) {
+        return EfaUtil.getStringPadLeft(String.format("%.3f", ms), 10) + "ms";
+    }
+
+}